@@ -10,6 +10,7 @@ public class BigTwo implements CardGame{
 	private Deck deck;
 	private ArrayList<CardGamePlayer> playerList;
 	private ArrayList<Hand> handsOnTable;
+	private int[] numOfCards;
 	private BigTwoGUI ui;
 	private BigTwoClient client;
 	
@@ -25,6 +26,7 @@ public class BigTwo implements CardGame{
 			playerList.get(i).setName(null);
 		}
 		handsOnTable = new ArrayList<Hand>();
+		numOfCards = new int[numOfPlayers];
 		ui = new BigTwoGUI(this);
 		client = new BigTwoClient(this, ui);
 		client.connect();
@@ -71,6 +73,16 @@ public class BigTwo implements CardGame{
 		return handsOnTable;
 	}
 	
+	/**
+	 * Getter function for retrieving the number of cards held by a player. The cards of the other
+	 * players are not known when the server deals privately, only their number.
+	 * @param playerIdx index of the player
+	 * @return number of cards held by the player
+	 */
+	public int getNumOfCards(int playerIdx) {
+		return numOfCards[playerIdx];
+	}
+	
 	/**
 	 * Getter function for retrieving the index of the current player
 	 * @return index of the current player
@@ -101,6 +113,7 @@ public class BigTwo implements CardGame{
 		
 		for(int i=0; i<4; i++) {
 			playerList.get(i).sortCardsInHand();
+			numOfCards[i] = 13;
 		}
 		
 		//identify the player who holds the Three of Diamonds
@@ -120,12 +133,60 @@ public class BigTwo implements CardGame{
 	}
 	
 	/**
-	 * Method for printing Not a legal move
+	 * Method for starting the game with the private deal of the local player
+	 * @param deal the cards of the local player, the number of cards of each player and the first player
 	 */
-	public void illegalMove() {
-		String msg = "Not a legal move !!\n";
-		ui.printMsg(msg);
-		return;
+	public synchronized void start(BigTwoDeal deal) {
+		ui.reset();
+		ui.disable();
+		//remove all the cards from the players as well as from the table
+		for(int i=0; i<4; i++) {
+			playerList.get(i).removeAllCards();
+			numOfCards[i] = deal.getNumOfCards()[i];
+		}
+		handsOnTable.clear();
+		
+		//only the cards of the local player are known
+		CardGamePlayer localPlayer = playerList.get(client.getPlayerID());
+		CardList cards = deal.getCards();
+		for(int i=0; i<cards.size(); i++) {
+			localPlayer.addCard(cards.getCard(i));
+		}
+		localPlayer.sortCardsInHand();
+		
+		currentPlayerIdx = deal.getFirstPlayerIdx();
+		ui.setActivePlayer(currentPlayerIdx);
+		ui.repaint();
+	}
+	
+	/**
+	 * Method for restoring a game in progress from a snapshot sent by the server after reconnecting
+	 * @param snapshot the cards of the local player, the number of cards of each player, the hand on the table and the current player
+	 */
+	public synchronized void restore(BigTwoSnapshot snapshot) {
+		ui.reset();
+		ui.disable();
+		for(int i=0; i<4; i++) {
+			playerList.get(i).removeAllCards();
+			numOfCards[i] = snapshot.getNumOfCards()[i];
+		}
+		handsOnTable.clear();
+		
+		CardGamePlayer localPlayer = playerList.get(client.getPlayerID());
+		CardList cards = snapshot.getCards();
+		for(int i=0; i<cards.size(); i++) {
+			localPlayer.addCard(cards.getCard(i));
+		}
+		localPlayer.sortCardsInHand();
+		
+		//only the last hand on the table is needed to carry on
+		if(snapshot.getLastHand() != null) {
+			handsOnTable.add(composeHand(playerList.get(snapshot.getLastHandPlayerIdx()), snapshot.getLastHand()));
+		}
+		
+		currentPlayerIdx = snapshot.getCurrentPlayerIdx();
+		ui.setActivePlayer(currentPlayerIdx);
+		ui.repaint();
 	}
 	
 	/**
@@ -135,129 +196,57 @@ public class BigTwo implements CardGame{
 	 */
 	public synchronized void makeMove(int playerIdx, int[] cardIdx) {
 		client.sendMessage(new CardGameMessage(CardGameMessage.MOVE, -1, cardIdx));
-		//ui.enable();
-		//checkMove(playerIdx, cardIdx);
 	}
 	
 	/**
-	 * Method for checking a move made by a player. This method should be called from the makeMove() method.
-	 * @param playerIdx index number of the current player
-	 * @param cardIdx array of index number(s) of card(s) that current player selected
+	 * Method for applying a move accepted by the server. The server has already validated the move,
+	 * so it is not checked again here.
+	 * @param playerIdx index number of the player who made the move
+	 * @param cards the cards played, or null for a pass
 	 */
-	public synchronized void checkMove(int playerIdx, int[] cardIdx) {
-		CardGamePlayer currPlayer = playerList.get(playerIdx);
-		CardList playerCard = new CardList();
-		Card diaThree = new Card(0, 2);
-		
-		//if the current player is beginner of the game
-		if(getHandsOnTable().isEmpty()) {
-			//Beginning player cannot PASS his/her turn
-			if(cardIdx == null){ 
-				illegalMove();
-				return;
-			}
-			else {
-				//get cards which current player chose from cardIdx and store in playerCard
-				for(int i : cardIdx) {
-					playerCard.addCard(currPlayer.getCardsInHand().getCard(i));
-				}
-			}
+	public synchronized void applyMove(int playerIdx, CardList cards) {
+		CardGamePlayer player = playerList.get(playerIdx);
+		if(cards == null) {
+			ui.printMsg("{PASS}\n");
+		}
+		else {
+			Hand playerHand = composeHand(player, cards);
+			String msg = String.format("{%s} %s\n",playerHand.getType(), playerHand);
+			ui.printMsg(msg);
 			
-			//beginning player must choose a hand containing diamond three
-			if(playerCard.contains(diaThree)) {
-				Hand playerHand = composeHand(currPlayer, playerCard);
-				//beginning player can't take empty hand i.e., cannot pass
-				if(playerHand != null) {
-					String msg = String.format("{%s} %s\n",playerHand.getType(), playerHand);
-					ui.printMsg(msg);
-										
-					handsOnTable.add(playerHand);
-					currPlayer.removeCards(playerCard);
-					
-					currentPlayerIdx = (currentPlayerIdx + 1) % 4;
-					ui.setActivePlayer(currentPlayerIdx);
-					return;
-
-				} else {
-					//if beginning player tries to pass
-					illegalMove();
-					return;
-				}
-			} else {
-				//if beginning player does not have diamond three card
-				illegalMove();
+			handsOnTable.add(playerHand);
+			player.removeCards(cards);
+			numOfCards[playerIdx] -= cards.size();
+			
+			//check whether game ended
+			if(endOfGame() == true) {
+				gameEnded();
 				return;
 			}
 		}
-		else { 
-			//current player is not the begginer of game..
-			Hand prevHand = getHandsOnTable().get(handsOnTable.size() - 1); //get handsontable
-		
-			boolean isLastHand = prevHand.getPlayer().getName().contains(playerList.get(currentPlayerIdx).getName());
-			
-			//current player wants to PASS
-			if(cardIdx == null) {
-				//current player can only PASS if he/she is not the last hand played
-				if(!isLastHand) {
-					String msg = String.format("{PASS}\n");
-					ui.printMsg(msg);
-					
-					currentPlayerIdx = (currentPlayerIdx + 1) % 4;
-					ui.setActivePlayer(currentPlayerIdx);
-					return;
-				} else {
-					//if current player is the last hand played, cannot PASS
-					illegalMove();
-					return;
-				}
-			}
-			else {
-				//store chosen hand into playerCard
-				for(int i : cardIdx) {
-					playerCard.addCard(currPlayer.getCardsInHand().getCard(i));
-				}
+		currentPlayerIdx = (playerIdx + 1) % 4;
+		ui.setActivePlayer(currentPlayerIdx);
+	}
+	
+	/**
+	 * Method for printing the result of a game which has just ended.
+	 */
+	private void gameEnded() {
+		String msg = "Game ends.\n";
+		ui.printMsg(msg);
+		for(int i=0; i<4; i++) {
+			CardGamePlayer player = playerList.get(i);
+			if(numOfCards[i] == 0) {
+				msg = String.format("%s wins the game.\n", player.getName());
+				ui.printMsg(msg);	
 			}
-		
-			Hand playerHand = composeHand(currPlayer, playerCard);
-			
-			//if the player is the last hand played (player can have any kinds of hands), or player hand is valid and beats the previous hand
-			if((isLastHand && playerHand!=null) || (playerHand!=null && playerHand.beats(prevHand))) {
-				String msg = String.format("{%s} %s\n",playerHand.getType(), playerHand);
+			else {		
+				msg = String.format("%s has %d cards in hand.\n", player.getName(), numOfCards[i]);
 				ui.printMsg(msg);
-				
-				handsOnTable.add(playerHand);
-				
-				//remove card's which player used
-				currPlayer.removeCards(playerCard);
-				
-				//check whether game ended
-				if(endOfGame() == true) {
-					msg = "Game ends.\n";
-					ui.printMsg(msg);
-					for(CardGamePlayer player : playerList) {
-						if(player.getCardsInHand().size() == 0) {
-							msg = String.format("%s wins the game.\n", player.getName());
-							ui.printMsg(msg);	
-						}
-						else {		
-							msg = String.format("%s has %d cards in hand.\n", player.getName(), player.getNumOfCards());
-							ui.printMsg(msg);
-						}
-					}
-                    client.sendMessage(new CardGameMessage(CardGameMessage.QUIT, -1, null));
-					return;
-				}
-				
-				currentPlayerIdx = (currentPlayerIdx + 1) % 4;
-				ui.setActivePlayer(currentPlayerIdx);
-				return;
-			}
-			//if selected player's hand is not valid or cannot beat hand on table.
-			else if(playerHand==null || !playerHand.beats(prevHand)){
-				illegalMove();
-				return;
 			}
 		}
+        //ready for the next game; a server in continuous play deals it anyway
+        client.sendMessage(new CardGameMessage(CardGameMessage.READY, -1, null));
 	}
 	
 	/**
@@ -265,8 +254,8 @@ public class BigTwo implements CardGame{
 	 * @return boolean true if player's hand is empty false if it is not
 	 */
 	public synchronized boolean endOfGame() {
-		for (CardGamePlayer player : playerList) {
-			if (player.getCardsInHand().isEmpty()) {
+		for (int i = 0; i < numOfPlayers; i++) {
+			if (numOfCards[i] == 0) {
 				ui.disable();
 				return true;
 			}
@@ -290,6 +279,26 @@ public class BigTwo implements CardGame{
 	 * @return hand if player's hand is valid, return null if it is invalid.
 	 */
 	public static Hand composeHand(CardGamePlayer player, CardList cards) {
+		GameEvents.ComposeHand event = new GameEvents.ComposeHand();
+		event.begin();
+		Hand hand = classifyHand(player, cards);
+		event.end();
+		if (event.shouldCommit()) {
+			event.numOfCards = cards.size();
+			event.handType = hand == null ? null : hand.getType();
+			event.fill();
+			event.commit();
+		}
+		return hand;
+	}
+	
+	/**
+	 * a method for classifying the specified list of cards of the player as a hand.
+	 * @param player CardGamePlayer object about player information
+	 * @param cards CardList object about the hand of cards
+	 * @return hand of the first type the cards make, or null if they make no hand
+	 */
+	private static Hand classifyHand(CardGamePlayer player, CardList cards) {
 		Hand hand;
 		if (cards.size() == 1) {
 			hand = new Single(player, cards);
@@ -0,0 +1,124 @@
+import java.util.Arrays;
+
+/**
+ * This class is used to model a simple Big Two bot. It plays the lowest hand
+ * which can follow the last hand on the table, or passes if there is none.
+ * When leading, it plays its lowest card in the largest hand it can make with
+ * it, i.e., a five-card hand, a triple, a pair or a single.
+ * @author jihoo
+ */
+public class BigTwoBot implements CardGameBot {
+	// sizes of the hands tried when leading, largest first
+	private static final int[] LEAD_SIZES = { 5, 3, 2, 1 };
+	private final String name;
+	
+	/**
+	 * Creates and returns an instance of the BigTwoBot class.
+	 * @param name the name of the bot
+	 */
+	public BigTwoBot(String name) {
+		this.name = name;
+	}
+	
+	/**
+	 * Returns the name of this bot.
+	 * @return the name of this bot
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Chooses the move of this bot.
+	 * @param game the game state kept by the server
+	 * @param playerID the playerID of this bot
+	 * @param deadline the time (System.nanoTime()) by which the bot must decide
+	 * @return a MOVE message carrying the indices of the cards played (or null to pass), or null if
+	 * no hand has been found in time
+	 */
+	public CardGameMessage play(CardGame game, int playerID, long deadline) {
+		BigTwoEngine engine = (BigTwoEngine) game;
+		CardList hand = engine.getPlayerList().get(playerID).getCardsInHand();
+		
+		//the indices of the cards in hand, from the lowest card to the highest
+		Integer[] sorted = new Integer[hand.size()];
+		for (int i = 0; i < sorted.length; i++) {
+			sorted[i] = i;
+		}
+		Arrays.sort(sorted, (a, b) -> hand.getCard(a).compareTo(hand.getCard(b)));
+		int[] order = new int[sorted.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = sorted[i];
+		}
+		
+		//a player who cannot pass leads the trick
+		boolean leading = !engine.isLegalMove(playerID, null);
+		if (leading) {
+			for (int size : LEAD_SIZES) {
+				int[] cardIdx = findHand(engine, playerID, hand, order, size, true, deadline);
+				if (cardIdx != null) {
+					return new CardGameMessage(CardGameMessage.MOVE, playerID, cardIdx);
+				}
+			}
+			return null;
+		}
+		int size = engine.getHandsOnTable().get(engine.getHandsOnTable().size() - 1).size();
+		int[] cardIdx = findHand(engine, playerID, hand, order, size, false, deadline);
+		return new CardGameMessage(CardGameMessage.MOVE, playerID, cardIdx);
+	}
+	
+	/**
+	 * Finds the first legal hand of the specified size, trying the combinations of cards from the
+	 * lowest to the highest.
+	 * @param engine the game state
+	 * @param playerID the playerID of this bot
+	 * @param hand the cards in hand
+	 * @param order the indices of the cards in hand, from the lowest card to the highest
+	 * @param size the no. of cards in the hand
+	 * @param withLowest true if the hand must contain the lowest card
+	 * @param deadline the time (System.nanoTime()) by which the bot must decide
+	 * @return the indices of the cards of the hand, or null if there is none (or no time is left)
+	 */
+	private static int[] findHand(BigTwoEngine engine, int playerID, CardList hand, int[] order,
+			int size, boolean withLowest, long deadline) {
+		int n = order.length;
+		if (size > n) {
+			return null;
+		}
+		//positions (in order) of the cards of the current combination
+		int[] pos = new int[size];
+		for (int i = 0; i < size; i++) {
+			pos[i] = i;
+		}
+		while (true) {
+			if (System.nanoTime() - deadline > 0) {
+				return null;
+			}
+			if (withLowest && pos[0] != 0) {
+				//every later combination misses the lowest card
+				return null;
+			}
+			CardList cards = new CardList();
+			int[] cardIdx = new int[size];
+			for (int i = 0; i < size; i++) {
+				cardIdx[i] = order[pos[i]];
+				cards.addCard(hand.getCard(cardIdx[i]));
+			}
+			if (engine.isLegalMove(playerID, cards)) {
+				return cardIdx;
+			}
+			//moves on to the next combination
+			int i = size - 1;
+			while (i >= 0 && pos[i] == n - size + i) {
+				i--;
+			}
+			if (i < 0) {
+				return null;
+			}
+			pos[i]++;
+			for (int j = i + 1; j < size; j++) {
+				pos[j] = pos[j - 1] + 1;
+			}
+		}
+	}
+}
@@ -13,10 +13,23 @@ public class BigTwoClient implements NetworkGame{
 	private BigTwoGUI gui;
 	private Socket sock;
 	private ObjectOutputStream oos;
+	private MessageQueue inbox;
+	private String sessionToken;
+	private long lastSequence;
+	private boolean resuming;
+	private final Object sendLock = new Object();
 	private int playerID;
 	private String playerName;
 	private String serverIP;
 	private int serverPort;
+	//stages of the latency trace of the client
+	private static final int TRACE_SEND = 0;
+	private static final int TRACE_NETWORK = 1;
+	private static final int TRACE_RECEIVE = 2;
+	private static final int TRACE_APPLY = 3;
+	private static final int TRACE_ROUND_TRIP = 4;
+	private final LatencyTrace trace = new LatencyTrace("send", "network", "receive", "apply", "round trip");
+	private long lastTraceId;
 	
 	/**
 	 * Public constructor of BigTwoClient class
@@ -107,18 +120,63 @@ public class BigTwoClient implements NetworkGame{
 		String userName = JOptionPane.showInputDialog("Name: ");
 		setPlayerName(userName);
 
+		//a new connection starts a new session
+		sessionToken = null;
+		lastSequence = 0;
+		resuming = false;
 		try {
 			System.out.println("trying to connect");
-			this.sock = new Socket(getServerIP(),getServerPort());
-			this.oos = new ObjectOutputStream(sock.getOutputStream());
-			Thread msgThread = new Thread(new ServerHandler());
-			msgThread.start();
+			openConnection();
 			System.out.println("connection established");
 		} 
 		catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
+	
+	/**
+	 * a method for opening the socket connection and starting the threads receiving and parsing messages.
+	 * @throws Exception if the connection cannot be made
+	 */
+	private synchronized void openConnection() throws Exception {
+		this.sock = new Socket(getServerIP(),getServerPort());
+		this.oos = new ObjectOutputStream(sock.getOutputStream());
+		this.inbox = new MessageQueue();
+		Thread msgThread = new Thread(new ServerHandler());
+		msgThread.start();
+		Thread dispatchThread = new Thread(new MessageDispatcher(inbox));
+		dispatchThread.setDaemon(true);
+		dispatchThread.start();
+	}
+	
+	/**
+	 * a method for reconnecting to the server after the connection is lost, and resuming the game
+	 * in the same seat. Retries once a second for up to 30 seconds.
+	 */
+	private void reconnect() {
+		gui.printMsg("Connection lost, reconnecting...\n");
+		for (int attempt = 0; attempt < 30; attempt++) {
+			try {
+				Thread.sleep(1000);
+				synchronized (this) {
+					resuming = true;
+					openConnection();
+					CardGameMessage msg = new CardGameMessage(CardGameMessage.RESUME, -1, sessionToken);
+					msg.setSequence(lastSequence);
+					sendMessage(msg);
+				}
+				return;
+			}
+			catch (InterruptedException e) {
+				return;
+			}
+			catch (Exception e) {
+				//the server is not reachable yet
+			}
+		}
+		resuming = false;
+		gui.printMsg("Cannot reconnect to the server\n");
+	}
 
 	@Override
 	/**
@@ -126,9 +184,71 @@ public class BigTwoClient implements NetworkGame{
 	 * @param message GameMessage object
 	 */
 	public synchronized void parseMessage(GameMessage message) {
+		if (message instanceof CardGameMessage) {
+			traceReceipt((CardGameMessage) message);
+		}
+		GameEvents.ClientMessage event = new GameEvents.ClientMessage();
+		event.begin();
+		//events raised while handling the message carry its type
+		GameEvents.enter(-1, message.getPlayerID(), message.getType());
+		try {
+			dispatchMessage(message);
+		}
+		finally {
+			GameEvents.exit();
+			event.end();
+			if (event.shouldCommit()) {
+				event.seat = message.getPlayerID();
+				event.type = message.getType();
+				event.commit();
+			}
+		}
+	}
+	
+	/**
+	 * a method for recording the latency of a message received from the game server.
+	 * A reply to a message sent by this client also gives its round trip, and the time spent
+	 * outside the server (network, plus the socket writes of both sides).
+	 * @param message CardGameMessage object, stamped with the time it was received
+	 */
+	private void traceReceipt(CardGameMessage message) {
+		if (message.getReceivedAt() == 0) {
+			return;
+		}
+		trace.record(TRACE_RECEIVE, System.nanoTime() - message.getReceivedAt());
+		if (message.getTraceId() != 0 && message.getPlayerID() == playerID) {
+			long roundTrip = message.getReceivedAt() - message.getTraceSentAt();
+			trace.record(TRACE_ROUND_TRIP, roundTrip);
+			trace.record(TRACE_NETWORK, Math.max(0, roundTrip - message.getTraceServerTime()));
+		}
+	}
+	
+	/**
+	 * a method for getting the latency of the stages the messages of this client go through,
+	 * i.e., send, network, receive (waiting to be dispatched), apply and round trip.
+	 * @return the latency trace of this client
+	 */
+	public LatencyTrace getLatencyTrace() {
+		return trace;
+	}
+	
+	/**
+	 * a method for handling a message received from the game server according to its type.
+	 * @param message GameMessage object
+	 */
+	private void dispatchMessage(GameMessage message) {
 		CardGameMessage gameMsg;
 		
+		if (message instanceof CardGameMessage && ((CardGameMessage) message).getSequence() > 0) {
+			//remembers the last START or MOVE message for resuming the game
+			lastSequence = ((CardGameMessage) message).getSequence();
+		}
+		
 		if (message.getType() == CardGameMessage.PLAYER_LIST) {
+			if (resuming) {
+				//waits for the server to move this connection back to the kept seat
+				return;
+			}
 			setPlayerID(message.getPlayerID());
 			//update the name of player
 
@@ -152,6 +272,26 @@ public class BigTwoClient implements NetworkGame{
 			game.getPlayerList().get(message.getPlayerID()).setName((String)message.getData());
 			gui.repaint();
 		}
+		else if (message.getType() == CardGameMessage.SESSION) {
+			sessionToken = (String) message.getData();
+		}
+		else if (message.getType() == CardGameMessage.RESUME) {
+			resuming = false;
+			if (message.getPlayerID() >= 0) {
+				setPlayerID(message.getPlayerID());
+				String[] names = ((String[])message.getData());
+				for(int i=0; i<4; i++) {
+					game.getPlayerList().get(i).setName(names[i]);
+				}
+				gui.printMsg("Reconnected to the server\n");
+				gui.repaint();
+			}
+			else {
+				//the seat is gone; the server treats this client as a new player
+				sessionToken = null;
+				gui.printMsg("Cannot resume the game\n");
+			}
+		}
 		else if (message.getType() == CardGameMessage.FULL) {
 			gui.printMsg("Server is FULL, cannot join the game\n");
 		}
@@ -168,11 +308,32 @@ public class BigTwoClient implements NetworkGame{
 		}
 		else if (message.getType() == CardGameMessage.START) {
 			//gui.disable();
-			game.start((BigTwoDeck)message.getData());
+			if (message.getData() instanceof BigTwoSnapshot) {
+				//the server sends a snapshot of the game when resuming
+				game.restore((BigTwoSnapshot)message.getData());
+			}
+			else if (message.getData() instanceof BigTwoDeal) {
+				//the server sends only the cards of the local player
+				game.start((BigTwoDeal)message.getData());
+			}
+			else if (message.getData() instanceof DealSeed) {
+				//the deck is rebuilt from the shuffle seed sent by the server
+				game.start((BigTwoDeck)((DealSeed)message.getData()).shuffle(new BigTwoDeck()));
+			}
+			else {
+				game.start((BigTwoDeck)message.getData());
+			}
 			gui.repaint();
 		}
 		else if (message.getType() == CardGameMessage.MOVE) {
-			game.checkMove(message.getPlayerID(), (int[])message.getData());
+			//the server has validated the move, so it is applied as it is
+			long applyStart = System.nanoTime();
+			game.applyMove(message.getPlayerID(), (CardList)message.getData());
+			trace.record(TRACE_APPLY, System.nanoTime() - applyStart);
+			gui.repaint();
+		}
+		else if (message.getType() == CardGameMessage.ILLEGAL_MOVE) {
+			gui.printMsg("Not a legal move !!\n");
 			gui.repaint();
 		}
 		else if (message.getType() == CardGameMessage.MSG) {
@@ -186,27 +347,45 @@ public class BigTwoClient implements NetworkGame{
 	 * @param message containing data
 	 */
 	public void sendMessage(GameMessage message) {
-		try {
-			oos.writeObject(message);
-			oos.flush();
-		}
-		catch (Exception e) {
-			e.printStackTrace();
+		//messages are sent from the GUI, the dispatcher and the reader threads
+		synchronized (sendLock) {
+			try {
+				long sentAt = System.nanoTime();
+				//stamps the trace context; PONG messages are measured by the server itself
+				boolean traced = message instanceof CardGameMessage && message.getType() != CardGameMessage.PONG;
+				if (traced) {
+					((CardGameMessage) message).setTrace(++lastTraceId, sentAt);
+				}
+				oos.writeObject(message);
+				//lets the stream forget the messages written, or its handle table keeps them all
+				oos.reset();
+				oos.flush();
+				if (traced) {
+					trace.record(TRACE_SEND, System.nanoTime() - sentAt);
+				}
+			}
+			catch (Exception e) {
+				e.printStackTrace();
+			}
 		}
-		
 	}
 	
 	//Inner classes
 	/**
 	 * This class is an inner class that implements the Runnable interface.
+	 * It reads messages from the server and queues them for the MessageDispatcher.
 	 * @author jihoo
 	 */
 	public class ServerHandler implements Runnable{
 		private ObjectInputStream oiStream;
+		private MessageQueue queue;
+		private Socket socket;
 		/**
 		 * public constructor of ServerHandler class
 		 */
 		public ServerHandler() {
+			queue = inbox;
+			socket = sock;
 			try {
 				oiStream = new ObjectInputStream(sock.getInputStream());
 			}
@@ -217,19 +396,62 @@ public class BigTwoClient implements NetworkGame{
 		}
 		@Override
 		/**
-		 * Method keep parsing the messages
+		 * Method keep reading the messages
 		 */
 		public void run() {
 			CardGameMessage message;
 			try {
 				while ((message = (CardGameMessage) oiStream.readObject()) != null) {
-					parseMessage(message);
+					message.setReceivedAt(System.nanoTime());
+					if (message.getType() == CardGameMessage.PING) {
+						//answers at once, so the round-trip time excludes queued messages
+						sendMessage(new CardGameMessage(CardGameMessage.PONG, -1, message.getData()));
+						continue;
+					}
+					queue.put(message);
 				}
 			}
 			catch (Exception e) {
 				e.printStackTrace();
 			}
-			
+			//the messages already received still update the game; only chat is discarded
+			queue.shutdown();
+			//tries to resume the game if the current connection of a joined player is lost
+			if (socket == sock && sessionToken != null && !resuming) {
+				new Thread(() -> reconnect()).start();
+			}
+		}
+		
+	}
+	
+	/**
+	 * This class is an inner class that implements the Runnable interface.
+	 * It parses queued messages, game messages ahead of chat messages, so a burst of chat never delays a move.
+	 * @author jihoo
+	 */
+	public class MessageDispatcher implements Runnable{
+		private MessageQueue queue;
+		/**
+		 * public constructor of MessageDispatcher class
+		 * @param queue queue of messages received from the server
+		 */
+		public MessageDispatcher(MessageQueue queue) {
+			this.queue = queue;
+		}
+		@Override
+		/**
+		 * Method keep parsing the messages
+		 */
+		public void run() {
+			CardGameMessage message;
+			try {
+				while ((message = queue.take()) != null) {
+					parseMessage(message);
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
 		}
 		
 	}
@@ -0,0 +1,52 @@
+import java.io.Serializable;
+
+/**
+ * This class is used to model the private deal sent by the server to one
+ * player at the start of a Big Two card game. It holds only the cards of that
+ * player, together with the number of cards held by every player and the
+ * index of the player who leads the first trick.
+ *
+ * @author jihoo
+ */
+public class BigTwoDeal implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private CardList cards;
+	private int[] numOfCards;
+	private int firstPlayerIdx;
+
+	/**
+	 * Constructor for building the private deal of a player.
+	 * @param cards the cards dealt to the player
+	 * @param numOfCards the number of cards held by each player
+	 * @param firstPlayerIdx index of the player who holds the Three of Diamonds
+	 */
+	public BigTwoDeal(CardList cards, int[] numOfCards, int firstPlayerIdx) {
+		this.cards = cards;
+		this.numOfCards = numOfCards;
+		this.firstPlayerIdx = firstPlayerIdx;
+	}
+
+	/**
+	 * Getter function for retrieving the cards dealt to the player
+	 * @return the cards dealt to the player
+	 */
+	public CardList getCards() {
+		return cards;
+	}
+
+	/**
+	 * Getter function for retrieving the number of cards held by each player
+	 * @return array of the number of cards held by each player
+	 */
+	public int[] getNumOfCards() {
+		return numOfCards;
+	}
+
+	/**
+	 * Getter function for retrieving the index of the player who leads the first trick
+	 * @return index of the player who holds the Three of Diamonds
+	 */
+	public int getFirstPlayerIdx() {
+		return firstPlayerIdx;
+	}
+}
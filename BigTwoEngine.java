@@ -0,0 +1,239 @@
+import java.util.ArrayList;
+
+/**
+ * This class implements the CardGame interface and is used to model the state
+ * of a Big Two card game on the server. It has no user interface and no
+ * network connection; the server validates each move against it once and
+ * broadcasts only accepted moves.
+ *
+ * @author jihoo
+ */
+public class BigTwoEngine implements CardGame {
+	private final int numOfPlayers = 4;
+	private int currentPlayerIdx = -1;
+	private Deck deck;
+	private ArrayList<CardGamePlayer> playerList;
+	private ArrayList<Hand> handsOnTable;
+	private CardList lastMove;
+
+	/**
+	 * Constructor for creating the state of a Big Two card game.
+	 */
+	public BigTwoEngine() {
+		playerList = new ArrayList<CardGamePlayer>();
+		for (int i = 0; i < numOfPlayers; i++) {
+			playerList.add(new CardGamePlayer());
+		}
+		handsOnTable = new ArrayList<Hand>();
+	}
+
+	/**
+	 * Getter function for retrieving the number of players
+	 * @return number of players
+	 */
+	public int getNumOfPlayers() {
+		return numOfPlayers;
+	}
+
+	/**
+	 * Getter function for retrieving the deck of cards being used
+	 * @return deck of cards of the current game, or null if no game has started
+	 */
+	public Deck getDeck() {
+		return deck;
+	}
+
+	/**
+	 * Getter function for retrieving the list of players
+	 * @return ArrayList of CardGamePlayer
+	 */
+	public ArrayList<CardGamePlayer> getPlayerList() {
+		return playerList;
+	}
+
+	/**
+	 * Getter function for retrieving the list of hands played on the table
+	 * @return ArrayList of hands
+	 */
+	public ArrayList<Hand> getHandsOnTable() {
+		return handsOnTable;
+	}
+
+	/**
+	 * Getter function for retrieving the index of the current player
+	 * @return index of the current player, or -1 if no game has started
+	 */
+	public int getCurrentPlayerIdx() {
+		return currentPlayerIdx;
+	}
+
+	/**
+	 * Getter function for retrieving the cards of the last accepted move
+	 * @return the cards played in the last accepted move, or null if it was a pass
+	 */
+	public CardList getLastMove() {
+		return lastMove;
+	}
+
+	/**
+	 * Method for starting the game with given shuffled deck of cards
+	 * @param deck Deck of card
+	 */
+	public synchronized void start(Deck deck) {
+		this.deck = deck;
+		handsOnTable.clear();
+		lastMove = null;
+
+		//distribute the cards to the players
+		for (int i = 0; i < numOfPlayers; i++) {
+			CardGamePlayer player = playerList.get(i);
+			player.removeAllCards();
+			for (int j = 0; j < 13; j++) {
+				player.addCard(deck.getCard(i * 13 + j));
+			}
+			player.sortCardsInHand();
+		}
+
+		//the player holding the Three of Diamonds leads the first trick
+		BigTwoCard threeOfDiamonds = new BigTwoCard(0, 2);
+		for (int i = 0; i < numOfPlayers; i++) {
+			if (playerList.get(i).getCardsInHand().contains(threeOfDiamonds)) {
+				currentPlayerIdx = i;
+			}
+		}
+	}
+
+	/**
+	 * Method for making a move, equivalent to playMove() as the engine has no network connection.
+	 * @param playerIdx index number of the player making the move
+	 * @param cardIdx array of index number(s) of card(s) selected, or null to pass
+	 */
+	public void makeMove(int playerIdx, int[] cardIdx) {
+		playMove(playerIdx, cardIdx);
+	}
+
+	/**
+	 * Method for checking a move given as card indices and applying it if it is legal.
+	 * @param playerIdx index number of the player making the move
+	 * @param cardIdx array of index number(s) of card(s) selected, or null to pass
+	 * @return true if the move is legal and has been applied, false otherwise
+	 */
+	public synchronized boolean playMove(int playerIdx, int[] cardIdx) {
+		GameEvents.CheckMove event = new GameEvents.CheckMove();
+		event.begin();
+		CardList cards = null;
+		if (cardIdx != null) {
+			cards = selectCards(playerIdx, cardIdx);
+		}
+		boolean legal = (cardIdx == null || cards != null) && playCards(playerIdx, cards);
+		event.end();
+		if (event.shouldCommit()) {
+			event.seat = playerIdx;
+			event.numOfCards = cardIdx == null ? 0 : cardIdx.length;
+			event.legal = legal;
+			event.fill();
+			event.commit();
+		}
+		return legal;
+	}
+
+	/**
+	 * Method for checking a move given as a list of cards and applying it if it is legal.
+	 * @param playerIdx index number of the player making the move
+	 * @param cards the cards being played, or null to pass
+	 * @return true if the move is legal and has been applied, false otherwise
+	 */
+	public synchronized boolean playCards(int playerIdx, CardList cards) {
+		if (!isLegalMove(playerIdx, cards)) {
+			return false;
+		}
+		CardGamePlayer player = playerList.get(playerIdx);
+		if (cards != null) {
+			handsOnTable.add(BigTwo.composeHand(player, cards));
+			player.removeCards(cards);
+		}
+		lastMove = cards;
+		if (!endOfGame()) {
+			currentPlayerIdx = (currentPlayerIdx + 1) % numOfPlayers;
+		}
+		return true;
+	}
+
+	/**
+	 * Method for checking if a move is legal without applying it.
+	 * @param playerIdx index number of the player making the move
+	 * @param cards the cards being played, or null to pass
+	 * @return true if the move is legal, false otherwise
+	 */
+	public synchronized boolean isLegalMove(int playerIdx, CardList cards) {
+		//only the current player of a game in progress can move
+		if (deck == null || endOfGame() || playerIdx != currentPlayerIdx) {
+			return false;
+		}
+		CardGamePlayer player = playerList.get(playerIdx);
+		Hand lastHand = handsOnTable.isEmpty() ? null : handsOnTable.get(handsOnTable.size() - 1);
+
+		if (cards == null) {
+			//the first player cannot pass, nor can the player who played the last hand
+			return lastHand != null && lastHand.getPlayer() != player;
+		}
+
+		//every card must be held by the player, and no card can be played twice
+		for (int i = 0; i < cards.size(); i++) {
+			if (!player.getCardsInHand().contains(cards.getCard(i))) {
+				return false;
+			}
+			for (int j = 0; j < i; j++) {
+				if (cards.getCard(i).equals(cards.getCard(j))) {
+					return false;
+				}
+			}
+		}
+
+		Hand hand = BigTwo.composeHand(player, cards);
+		if (hand == null) {
+			return false;
+		}
+		if (lastHand == null) {
+			//the first hand of a game must contain the Three of Diamonds
+			return hand.contains(new BigTwoCard(0, 2));
+		}
+		//a player whose hand nobody beat may play any hand
+		return lastHand.getPlayer() == player || hand.beats(lastHand);
+	}
+
+	/**
+	 * Method for checking if the game ends.
+	 * @return true if a player has played all his/her cards, false otherwise
+	 */
+	public synchronized boolean endOfGame() {
+		for (CardGamePlayer player : playerList) {
+			if (player.getCardsInHand().isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Method for looking up the cards at the specified indices of the hand of a player.
+	 * @param playerIdx index number of the player
+	 * @param cardIdx array of index number(s) of card(s) selected
+	 * @return the selected cards, or null if any index is invalid
+	 */
+	private CardList selectCards(int playerIdx, int[] cardIdx) {
+		if (playerIdx < 0 || playerIdx >= numOfPlayers) {
+			return null;
+		}
+		CardList hand = playerList.get(playerIdx).getCardsInHand();
+		CardList cards = new CardList();
+		for (int i : cardIdx) {
+			Card card = hand.getCard(i);
+			if (card == null) {
+				return null;
+			}
+			cards.addCard(card);
+		}
+		return cards;
+	}
+}
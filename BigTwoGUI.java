@@ -50,6 +50,7 @@ public class BigTwoGUI implements CardGameUI{
 	private JButton gameButton;
 	private JMenuItem restartButton;
 	private JMenuItem quitButton;
+	private JMenuItem latencyButton;
 	private JPopupMenu popupMenu;
 	private JPanel topPanel;
 	
@@ -81,6 +82,7 @@ public class BigTwoGUI implements CardGameUI{
 		//Create restart and quit button 
 		restartButton = new JMenuItem("Connect");
 		quitButton = new JMenuItem("Quit");
+		latencyButton = new JMenuItem("Latency");
 		
 		//add game button to the tool bar
 		toolBar.add(gameButton);
@@ -88,12 +90,14 @@ public class BigTwoGUI implements CardGameUI{
 		//Create pop up menu and add restart and quit button
 		popupMenu = new JPopupMenu();
 		popupMenu.add(restartButton);
+		popupMenu.add(latencyButton);
 		popupMenu.add(quitButton);
 		
 		//Add event listeners on game, quit, restart button
 		gameButton.addActionListener(new GameButtonListener());
 		quitButton.addActionListener(new QuitMenuItemListener());
         restartButton.addActionListener(new ConnectMenuItemListener());
+        latencyButton.addActionListener(new LatencyMenuItemListener());
         
         //add tool bar to the frame
         frame.add(toolBar, BorderLayout.NORTH);
@@ -207,6 +211,8 @@ public class BigTwoGUI implements CardGameUI{
 	 * Redraws the GUI.
 	 */
 	public void repaint() {
+		GameEvents.Paint event = new GameEvents.Paint();
+		event.begin();
 		//if game is finished, do not output Player's turn
 		
 		if(!game.endOfGame()) {
@@ -221,6 +227,22 @@ public class BigTwoGUI implements CardGameUI{
 			disable();
 		}
 		frame.repaint();
+		commitPaint(event, "repaint");
+	}
+	
+	/**
+	 * Ends and commits the specified Paint event if it is enabled.
+	 * @param event the Paint event
+	 * @param method name of the method being timed
+	 */
+	private void commitPaint(GameEvents.Paint event, String method) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.seat = game.getBigTwoClient().getPlayerID();
+			event.method = method;
+			event.fill();
+			event.commit();
+		}
 	}
 
 	/**
@@ -366,6 +388,8 @@ public class BigTwoGUI implements CardGameUI{
 		 * @param g Graphic component
 		 */
 		public void paintComponent(Graphics g) {
+			GameEvents.Paint event = new GameEvents.Paint();
+			event.begin();
 			super.paintComponent(g);
 			
 			bigTwoPanel.setOpaque(true);
@@ -444,9 +468,8 @@ public class BigTwoGUI implements CardGameUI{
 		        		}
 		        	}
 		        }
-		        else { //draw other player's cards
-		        	CardList cardsInHand = game.getPlayerList().get(i).getCardsInHand();
-		        	for (int k=0; k< cardsInHand.size();k++) {
+		        else { //draw other player's cards, of which only the number is known
+		        	for (int k=0; k< game.getNumOfCards(i);k++) {
 						g.drawImage(cardBack, this.getWidth()/6+x, 30+y*i, this);
 						x+=this.getWidth()/30;
 					}
@@ -466,7 +489,7 @@ public class BigTwoGUI implements CardGameUI{
 					x+=this.getWidth()/30;
 				}
 			}
-			
+			commitPaint(event, "paintComponent");
 		}
 
 		@Override
@@ -546,7 +569,7 @@ public class BigTwoGUI implements CardGameUI{
 	public class PlayButtonListener implements ActionListener{
 		@Override
 		/**
-		 * This method handle button-click events for the “Play” button. Calls promptActivePlayer and promptActivePlayer will call checkMove()
+		 * This method handle button-click events for the “Play” button. Calls promptActivePlayer and promptActivePlayer will call makeMove()
 		 * If player tries to click play without choosing any cards, print select card to play.
 		 */
 		public void actionPerformed(ActionEvent e) {
@@ -649,6 +672,23 @@ public class BigTwoGUI implements CardGameUI{
 		
 	}
 	
+	/**
+	 * This class is an inner class that implements the ActionListener interface.
+	 * Implements the actionPerformed() method from the ActionListener interface to handle menu-item-click events for the “Latency” menu item.
+	 * @author jihoo
+	 */
+	public class LatencyMenuItemListener implements ActionListener{
+		@Override
+		/**
+		 * This method prints the latency of each stage the messages of the client go through in the message area.
+		 * @param ActionEvent e
+		 */
+		public void actionPerformed(ActionEvent e) {
+			printMsg("Latency:\n" + game.getBigTwoClient().getLatencyTrace().summary());
+		}
+		
+	}
+	
 	/**
 	 * This class is an inner class that implements the ActionListener interface. 
 	 * Implements the actionPerformed() method from the ActionListener interface to handle menu-item-click events for the “Quit” menu item. 
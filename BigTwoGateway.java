@@ -0,0 +1,916 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is used to model a gateway sharding the tables of Big Two across several BigTwoServer
+ * processes (the backends), each started with --behind-gateway. Clients connect to the gateway as
+ * to a server. The gateway groups them into tables of four, places each table on the backend with
+ * the fewest players, and relays the messages of each player over a connection of its own to that
+ * backend, where a PLACE message seats the player at the table and seat chosen by the gateway.
+ * <p>
+ * A backend can be drained: each of its tables moves to another backend as soon as no game is in
+ * progress, keeping its seats, so the players only see each other join again. A table whose
+ * backend cannot be reached any more moves at once, losing its game. A client keeps the session
+ * token given by its first backend, which the gateway maps to the token of the current one.
+ * @author jihoo
+ */
+public class BigTwoGateway {
+	//no. of seats of a table, and no. of cards dealt to each seat
+	private static final int NUM_OF_SEATS = 4;
+	private static final int HAND_SIZE = 13;
+	//max. no. of tables of a backend unless given (the default of the server)
+	private static final int DEFAULT_MAX_TABLES = 100;
+	//time (in milliseconds) a seat is kept for a disconnected player, a little longer than the
+	//grace period of the backends
+	private static final long GRACE_PERIOD = 35000;
+	//time (in milliseconds) before the id of a table left on a backend is used again, so that the
+	//seats still kept there have been freed
+	private static final long TABLE_ID_QUARANTINE = 60000;
+	//time (in milliseconds) a backend which cannot be reached is left out
+	private static final long BACKEND_RETRY = 5000;
+	//time (in milliseconds) waited before probing a backend which has closed a connection, so that
+	//a backend going down has stopped listening
+	private static final long PROBE_DELAY = 500;
+	//time (in milliseconds) allowed for connecting to a backend, and for a handshake
+	private static final int CONNECT_TIMEOUT = 2000;
+	private static final int HANDSHAKE_TIMEOUT = 5000;
+
+	//the fields below are guarded by this gateway
+	private final ArrayList<Backend> backends = new ArrayList<Backend>();
+	private final ArrayList<Table> tables = new ArrayList<Table>();
+	//the player holding each session, by the token known to the client
+	private final HashMap<String, Player> sessions = new HashMap<String, Player>();
+
+	private final ExecutorService handshakeExecutor;
+	private final ScheduledExecutorService scheduler;
+	private final ServerLog log = new ServerLog(8192, 0);
+	private final MetricsRegistry metrics = new MetricsRegistry();
+	private final LongAdder migrations; //no. of tables moved from a draining backend
+	private final LongAdder failovers; //no. of tables moved from a lost backend
+
+	/**
+	 * Creates and returns an instance of the BigTwoGateway class.
+	 */
+	public BigTwoGateway() {
+		log.setConsole(true);
+		handshakeExecutor = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "gateway-handshake");
+			t.setDaemon(true);
+			return t;
+		});
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "gateway-scheduler");
+			t.setDaemon(true);
+			return t;
+		});
+		migrations = metrics.counter("gateway_migrations_total", null,
+				"Tables moved from a draining backend between games.");
+		failovers = metrics.counter("gateway_failovers_total", null,
+				"Tables moved from a backend which could not be reached.");
+		metrics.gauge("gateway_tables", null, "Tables placed on the backends.", () -> {
+			synchronized (this) {
+				return tables.size();
+			}
+		});
+	}
+
+	/**
+	 * Adds a backend hosting the default no. of tables of a server, on which tables are placed
+	 * from now on.
+	 * @param host the host of the backend
+	 * @param port the port of the backend
+	 */
+	public void addBackend(String host, int port) {
+		addBackend(host, port, DEFAULT_MAX_TABLES);
+	}
+
+	/**
+	 * Adds a backend, on which tables are placed from now on.
+	 * @param host the host of the backend
+	 * @param port the port of the backend
+	 * @param maxTables the max. no. of tables of the backend, as given to it by --tables
+	 */
+	public synchronized void addBackend(String host, int port, int maxTables) {
+		Backend backend = new Backend(host, port, maxTables);
+		backends.add(backend);
+		metrics.gauge("gateway_backend_players", "backend=\"" + backend + "\"",
+				"Players placed on each backend.", () -> {
+					synchronized (this) {
+						return backend.players;
+					}
+				});
+	}
+
+	/**
+	 * Returns the metrics of the gateway.
+	 * @return the metrics of the gateway
+	 */
+	public MetricsRegistry getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Starts accepting clients at the specified port. Does not return unless the port cannot be
+	 * bound.
+	 * @param port the port at which the gateway accepts clients
+	 */
+	public void start(int port) {
+		try (ServerSocket serverSocket = new ServerSocket(port)) {
+			log.log(ServerLog.INFO, "Starts up the gateway at localhost:" + serverSocket.getLocalPort());
+			while (true) {
+				Socket socket = serverSocket.accept();
+				handshakeExecutor.execute(() -> handshake(socket));
+			}
+		}
+		catch (IOException ex) {
+			log.log(ServerLog.ERROR, "Error in starting up the gateway at localhost:", port);
+		}
+	}
+
+	/**
+	 * Stops placing tables on the specified backend, and moves each of its tables to another
+	 * backend as soon as no game is in progress at the table.
+	 * @param name the backend, as host:port
+	 * @return false if there is no such backend; true otherwise
+	 */
+	public boolean drain(String name) {
+		ArrayList<Table> moving = new ArrayList<Table>();
+		synchronized (this) {
+			Backend backend = findBackend(name);
+			if (backend == null) {
+				return false;
+			}
+			backend.draining = true;
+			for (Table table : tables) {
+				if (table.backend == backend) {
+					moving.add(table);
+				}
+			}
+		}
+		log.log(ServerLog.INFO, "Drains backend ", name);
+		for (Table table : moving) {
+			moveIfIdle(table);
+		}
+		return true;
+	}
+
+	/**
+	 * Places tables on the specified backend again.
+	 * @param name the backend, as host:port
+	 * @return false if there is no such backend; true otherwise
+	 */
+	public synchronized boolean undrain(String name) {
+		Backend backend = findBackend(name);
+		if (backend != null) {
+			backend.draining = false;
+		}
+		return backend != null;
+	}
+
+	/**
+	 * Returns the backends and their tables.
+	 * @return a multi-line string with one line per backend
+	 */
+	public synchronized String getStatus() {
+		StringBuilder status = new StringBuilder();
+		for (Backend backend : backends) {
+			status.append(String.format("%s: %d players%s%s, tables", backend, backend.players,
+					backend.draining ? ", draining" : "", backend.isDown() ? ", down" : ""));
+			for (Table table : tables) {
+				if (table.backend == backend) {
+					status.append(' ').append(table.id);
+				}
+			}
+			status.append(String.format("%n"));
+		}
+		return status.toString();
+	}
+
+	//exchanges the stream headers with a new client, and seats it
+	private void handshake(Socket socket) {
+		Client client;
+		try {
+			socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+			socket.setTcpNoDelay(true);
+			ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+			out.flush();
+			ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+			socket.setSoTimeout(0);
+			client = new Client(socket, out, in);
+		}
+		catch (IOException ex) {
+			close(socket);
+			return;
+		}
+		//a backend which cannot be reached is left out, and the next one is tried
+		for (int attempt = 0; attempt <= backends.size(); attempt++) {
+			Player player = takeSeat(client);
+			if (player == null) {
+				break;
+			}
+			try {
+				connect(player, new CardGameMessage(CardGameMessage.PLACE, player.seat,
+						player.table.id), false);
+				Thread t = new Thread(client, "gateway-client");
+				t.setDaemon(true);
+				t.start();
+				return;
+			}
+			catch (IOException ex) {
+				backendLost(player.table.backend);
+				synchronized (this) {
+					player.client = null;
+					leave(player);
+				}
+			}
+		}
+		log.log(ServerLog.WARN, "No backend can seat the client at ", socket.getRemoteSocketAddress());
+		client.send(new CardGameMessage(CardGameMessage.FULL, -1, null));
+		close(socket);
+	}
+
+	//gives a client the first free seat at a table which is staying on its backend, or the first
+	//seat of a new table on the least loaded backend
+	private synchronized Player takeSeat(Client client) {
+		Table table = null;
+		int seat = -1;
+		for (int i = 0; i < tables.size() && seat < 0; i++) {
+			Table t = tables.get(i);
+			if (t.moving || t.backend.draining || t.backend.isDown()) {
+				continue;
+			}
+			for (int j = 0; j < NUM_OF_SEATS && seat < 0; j++) {
+				if (t.players[j] == null) {
+					table = t;
+					seat = j;
+				}
+			}
+		}
+		if (seat < 0) {
+			Backend backend = pickBackend(null);
+			if (backend == null) {
+				return null;
+			}
+			table = new Table(backend, backend.allocate());
+			tables.add(table);
+			seat = 0;
+		}
+		Player player = new Player(table, seat);
+		player.client = client;
+		client.player = player;
+		table.players[seat] = player;
+		table.backend.players++;
+		return player;
+	}
+
+	//returns the backend with the fewest players among those taking new tables, or null if none
+	private Backend pickBackend(Backend excluded) {
+		Backend best = null;
+		for (Backend backend : backends) {
+			if (backend != excluded && !backend.draining && !backend.isDown()
+					&& backend.hasFreeTable() && (best == null || backend.players < best.players)) {
+				best = backend;
+			}
+		}
+		return best;
+	}
+
+	private Backend findBackend(String name) {
+		for (Backend backend : backends) {
+			if (backend.toString().equals(name)) {
+				return backend;
+			}
+		}
+		return null;
+	}
+
+	//frees the seat of a player, and the table if it is empty (called with the lock held)
+	private void leave(Player player) {
+		Table table = player.table;
+		if (table.players[player.seat] != player) {
+			return;
+		}
+		table.players[player.seat] = null;
+		table.backend.players--;
+		if (player.token != null) {
+			sessions.remove(player.token);
+		}
+		if (player.releaseTimer != null) {
+			player.releaseTimer.cancel(false);
+		}
+		for (Player p : table.players) {
+			if (p != null) {
+				return;
+			}
+		}
+		tables.remove(table);
+		table.backend.release(table.id);
+	}
+
+	/**
+	 * Opens a new connection to the backend of the player, and sends the first message on it
+	 * (PLACE or RESUME). The previous connection of the player, if any, is closed.
+	 * @param player the player
+	 * @param first the first message
+	 * @param rejoin true to join the table again under the name of the player, e.g. after the
+	 * table has moved
+	 * @throws IOException if the backend cannot be reached
+	 */
+	private void connect(Player player, CardGameMessage first, boolean rejoin) throws IOException {
+		Backend backend = player.table.backend;
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(backend.host, backend.port), CONNECT_TIMEOUT);
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+			ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+			out.flush();
+			ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+			socket.setSoTimeout(0);
+			BackendLink link = new BackendLink(player, backend, socket, out, in, rejoin);
+			//messages still arriving on the previous connection are dropped from now on
+			BackendLink previous = player.link;
+			player.link = link;
+			if (previous != null) {
+				previous.close();
+			}
+			Thread t = new Thread(link, "gateway-backend");
+			t.setDaemon(true);
+			t.start();
+			link.send(first);
+		}
+		catch (IOException ex) {
+			close(socket);
+			throw ex;
+		}
+	}
+
+	//handles a message received from a backend for a player
+	private void fromBackend(BackendLink link, CardGameMessage message) {
+		Player player = link.player;
+		if (link != player.link) {
+			return;
+		}
+		switch (message.getType()) {
+		case CardGameMessage.SESSION:
+			synchronized (this) {
+				player.backendToken = (String) message.getData();
+				if (player.token != null) {
+					//the client keeps its first token
+					return;
+				}
+				player.token = player.backendToken;
+				sessions.put(player.token, player);
+			}
+			break;
+		case CardGameMessage.PLAYER_LIST:
+			if (link.rejoin && player.name != null) {
+				//joins the new table in place of the client, which is seated already
+				link.send(new CardGameMessage(CardGameMessage.JOIN, -1, player.name));
+				return;
+			}
+			break;
+		case CardGameMessage.START:
+			if (message.getData() instanceof BigTwoSnapshot) {
+				player.cardsLeft = ((BigTwoSnapshot) message.getData()).getNumOfCards().clone();
+			}
+			else {
+				Arrays.fill(player.cardsLeft, HAND_SIZE);
+			}
+			player.inGame = true;
+			break;
+		case CardGameMessage.MOVE:
+			int seat = message.getPlayerID();
+			if (message.getData() instanceof CardList && seat >= 0 && seat < NUM_OF_SEATS) {
+				player.cardsLeft[seat] -= ((CardList) message.getData()).size();
+				if (player.cardsLeft[seat] <= 0) {
+					player.inGame = false;
+				}
+			}
+			break;
+		case CardGameMessage.QUIT:
+			//the game is abandoned
+			player.inGame = false;
+			break;
+		}
+		Client client = player.client;
+		if (client != null) {
+			client.send(message);
+		}
+		if (!player.inGame && (message.getType() == CardGameMessage.MOVE
+				|| message.getType() == CardGameMessage.QUIT)) {
+			//the game has ended
+			moveIfIdle(player.table);
+		}
+	}
+
+	//handles a message received from a client
+	private void fromClient(Client client, CardGameMessage message) {
+		Player player = client.player;
+		if (message.getType() == CardGameMessage.RESUME && resume(client, message)) {
+			return;
+		}
+		if (message.getType() == CardGameMessage.JOIN && message.getData() instanceof String) {
+			player.name = (String) message.getData();
+		}
+		BackendLink link = player.link;
+		if (link != null) {
+			link.send(message);
+		}
+	}
+
+	//moves a reconnecting client back to the seat kept for its session; returns false if there is
+	//no such seat, in which case the RESUME message goes to the backend as usual
+	private boolean resume(Client client, CardGameMessage message) {
+		Player kept;
+		Player temporary = client.player;
+		synchronized (this) {
+			kept = sessions.get(message.getData());
+			if (kept == null || kept.client != null || kept.table.moving) {
+				return false;
+			}
+			//gives back the seat the client took while reconnecting
+			temporary.client = null;
+			leave(temporary);
+			if (kept.releaseTimer != null) {
+				kept.releaseTimer.cancel(false);
+				kept.releaseTimer = null;
+			}
+			kept.client = client;
+			client.player = kept;
+		}
+		BackendLink link = temporary.link;
+		if (link != null) {
+			link.close();
+		}
+		CardGameMessage resume = new CardGameMessage(CardGameMessage.RESUME, -1, kept.backendToken);
+		resume.setSequence(message.getSequence());
+		try {
+			connect(kept, resume, false);
+		}
+		catch (IOException ex) {
+			backendLost(kept.table.backend);
+			close(client.socket);
+		}
+		return true;
+	}
+
+	//handles the loss of a client: keeps its seat for a while if it has joined the game, or frees it
+	private void clientLost(Client client) {
+		Player player = client.player;
+		BackendLink link;
+		synchronized (this) {
+			if (player.client != client) {
+				return;
+			}
+			player.client = null;
+			link = player.link;
+			player.link = null;
+			if (player.token == null) {
+				leave(player);
+			}
+			else {
+				player.releaseTimer = scheduler.schedule(() -> release(player), GRACE_PERIOD,
+						TimeUnit.MILLISECONDS);
+			}
+		}
+		//the backend keeps the seat of a player who has joined as usual
+		if (link != null) {
+			link.close();
+		}
+	}
+
+	//frees a kept seat if the client has not come back in time
+	private synchronized void release(Player player) {
+		if (player.client == null) {
+			leave(player);
+		}
+	}
+
+	//handles a connection closed by a backend: the backend is lost if it cannot be reached any
+	//more; otherwise only the client is disconnected, and may resume its seat
+	private void linkLost(BackendLink link) {
+		Player player = link.player;
+		try {
+			Thread.sleep(PROBE_DELAY);
+		}
+		catch (InterruptedException ex) {
+			return;
+		}
+		try (Socket probe = new Socket()) {
+			probe.connect(new InetSocketAddress(link.backend.host, link.backend.port),
+					CONNECT_TIMEOUT);
+		}
+		catch (IOException ex) {
+			backendLost(link.backend);
+			return;
+		}
+		Client client;
+		synchronized (this) {
+			//a table being moved replaces the links of its players
+			if (link != player.link || player.table.moving) {
+				return;
+			}
+			client = player.client;
+		}
+		if (client != null) {
+			close(client.socket);
+		}
+	}
+
+	//leaves out a backend which cannot be reached for a while, and moves its tables at once
+	private void backendLost(Backend backend) {
+		ArrayList<Table> lost = new ArrayList<Table>();
+		synchronized (this) {
+			if (!backend.isDown()) {
+				log.log(ServerLog.WARN, "Cannot reach backend ", backend);
+			}
+			backend.downUntil = System.currentTimeMillis() + BACKEND_RETRY;
+			for (Table table : tables) {
+				if (table.backend == backend && !table.moving) {
+					//the game is lost with the backend
+					for (Player player : table.players) {
+						if (player != null) {
+							player.inGame = false;
+						}
+					}
+					lost.add(table);
+				}
+			}
+		}
+		for (Table table : lost) {
+			if (moveIfIdle(table)) {
+				failovers.increment();
+			}
+		}
+	}
+
+	//moves a table off its backend if the backend is draining or lost and no game is in progress,
+	//and returns true if the table is being moved
+	private boolean moveIfIdle(Table table) {
+		synchronized (this) {
+			if (table.moving || !tables.contains(table)
+					|| (!table.backend.draining && !table.backend.isDown())) {
+				return false;
+			}
+			for (Player player : table.players) {
+				if (player != null && player.client != null && player.inGame) {
+					return false;
+				}
+			}
+			table.moving = true;
+		}
+		scheduler.execute(() -> move(table));
+		return true;
+	}
+
+	//moves a table to the least loaded other backend, with the same seats; the players who are
+	//disconnected lose their seats
+	private void move(Table table) {
+		Backend from = table.backend;
+		ArrayList<Player> movers = new ArrayList<Player>();
+		synchronized (this) {
+			Backend to = pickBackend(from);
+			if (to == null) {
+				log.log(ServerLog.WARN, "No backend can take table " + table.id + " of ", from);
+				table.moving = false;
+				return;
+			}
+			from.release(table.id);
+			table.backend = to;
+			table.id = to.allocate();
+			for (Player player : table.players) {
+				if (player == null) {
+					continue;
+				}
+				from.players--;
+				to.players++;
+				if (player.client != null) {
+					movers.add(player);
+				}
+			}
+			for (Player player : table.players) {
+				if (player != null && player.client == null) {
+					leave(player);
+				}
+			}
+		}
+		for (Player player : movers) {
+			try {
+				connect(player, new CardGameMessage(CardGameMessage.PLACE, player.seat, table.id),
+						true);
+			}
+			catch (IOException ex) {
+				//the client reconnects, and joins as a new player
+				Client client = player.client;
+				if (client != null) {
+					close(client.socket);
+				}
+			}
+		}
+		synchronized (this) {
+			table.moving = false;
+		}
+		if (!from.isDown()) {
+			migrations.increment();
+		}
+		log.log(ServerLog.INFO, "Moves table to " + table.backend + " (table " + table.id
+				+ ") from ", from);
+	}
+
+	private static void close(Socket socket) {
+		try {
+			socket.close();
+		}
+		catch (IOException ex) {
+			//closed anyway
+		}
+	}
+
+	/**
+	 * This inner class is used to model a backend.
+	 */
+	private class Backend {
+		private final String host;
+		private final int port;
+		//the fields below are guarded by the gateway
+		private int players = 0; //no. of players placed
+		private boolean draining = false;
+		private long downUntil = 0; //time (System.currentTimeMillis()) until which it is left out
+		private final boolean[] used; //the ids of the tables in use
+		private final long[] freedAt; //the time each id was last freed
+
+		private Backend(String host, int port, int maxTables) {
+			this.host = host;
+			this.port = port;
+			used = new boolean[maxTables];
+			freedAt = new long[maxTables];
+		}
+
+		private boolean isDown() {
+			return System.currentTimeMillis() < downUntil;
+		}
+
+		private boolean hasFreeTable() {
+			return allocate(false) >= 0;
+		}
+
+		//returns the id of a table for a new table, or -1 if none is free
+		private int allocate() {
+			return allocate(true);
+		}
+
+		private int allocate(boolean take) {
+			long now = System.currentTimeMillis();
+			for (int i = 0; i < used.length; i++) {
+				if (!used[i] && (freedAt[i] == 0 || now - freedAt[i] >= TABLE_ID_QUARANTINE)) {
+					used[i] = take;
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private void release(int id) {
+			used[id] = false;
+			freedAt[id] = System.currentTimeMillis();
+		}
+
+		public String toString() {
+			return host + ":" + port;
+		}
+	} // Backend
+
+	/**
+	 * This inner class is used to model a table placed on a backend.
+	 */
+	private class Table {
+		//the fields below are guarded by the gateway
+		private Backend backend;
+		private int id; //the id of the table on the backend
+		private final Player[] players = new Player[NUM_OF_SEATS];
+		private boolean moving = false; //a boolean indicating if the table is moving
+
+		private Table(Backend backend, int id) {
+			this.backend = backend;
+			this.id = id;
+		}
+	} // Table
+
+	/**
+	 * This inner class is used to model a player seated at a table.
+	 */
+	private class Player {
+		private final Table table;
+		private final int seat;
+		private volatile Client client; //the connection to the client, or null if lost
+		private volatile BackendLink link; //the connection to the backend, or null if none
+		private volatile String name; //the name given in the JOIN message, or null
+		//the session tokens known to the client and to the current backend (guarded by the gateway)
+		private String token;
+		private String backendToken;
+		private ScheduledFuture<?> releaseTimer; //the timer freeing the seat if kept
+		//the view of the current game from the messages to this player (connection threads only)
+		private int[] cardsLeft = new int[NUM_OF_SEATS];
+		private volatile boolean inGame = false;
+
+		private Player(Table table, int seat) {
+			this.table = table;
+			this.seat = seat;
+		}
+	} // Player
+
+	/**
+	 * This inner class is used to model the connection to a client, and to read its messages.
+	 */
+	private class Client implements Runnable {
+		private final Socket socket;
+		private final ObjectOutputStream out;
+		private final ObjectInputStream in;
+		private volatile Player player; //the player using this connection
+
+		private Client(Socket socket, ObjectOutputStream out, ObjectInputStream in) {
+			this.socket = socket;
+			this.out = out;
+			this.in = in;
+		}
+
+		private void send(CardGameMessage message) {
+			synchronized (out) {
+				try {
+					out.writeObject(message);
+					//does not keep a reference to every message relayed
+					out.reset();
+					out.flush();
+				}
+				catch (IOException ex) {
+					close(socket);
+				}
+			}
+		}
+
+		// implementation of method from the Runnable interface
+		public void run() {
+			try {
+				while (true) {
+					fromClient(this, (CardGameMessage) in.readObject());
+				}
+			}
+			catch (Exception ex) {
+				//the connection is lost
+			}
+			close(socket);
+			clientLost(this);
+		}
+	} // Client
+
+	/**
+	 * This inner class is used to model the connection of a player to a backend, and to read its
+	 * messages.
+	 */
+	private class BackendLink implements Runnable {
+		private final Player player;
+		private final Backend backend; //the backend connected to
+		private final Socket socket;
+		private final ObjectOutputStream out;
+		private final ObjectInputStream in;
+		private final boolean rejoin; //true to join again under the name of the player
+		private volatile boolean closed = false; //true once closed by the gateway
+
+		private BackendLink(Player player, Backend backend, Socket socket, ObjectOutputStream out,
+				ObjectInputStream in, boolean rejoin) {
+			this.player = player;
+			this.backend = backend;
+			this.socket = socket;
+			this.out = out;
+			this.in = in;
+			this.rejoin = rejoin;
+		}
+
+		private void send(CardGameMessage message) {
+			synchronized (out) {
+				try {
+					out.writeObject(message);
+					out.reset();
+					out.flush();
+				}
+				catch (IOException ex) {
+					BigTwoGateway.close(socket);
+				}
+			}
+		}
+
+		private void close() {
+			closed = true;
+			BigTwoGateway.close(socket);
+		}
+
+		// implementation of method from the Runnable interface
+		public void run() {
+			try {
+				while (true) {
+					fromBackend(this, (CardGameMessage) in.readObject());
+				}
+			}
+			catch (Exception ex) {
+				//the connection is closed
+			}
+			if (!closed) {
+				linkLost(this);
+			}
+		}
+	} // BackendLink
+
+	/**
+	 * main() method for starting the gateway. Reads the commands "drain host:port",
+	 * "undrain host:port" and "status" from the standard input.
+	 * @param args the backends as host:port, optionally preceded by these options: --port N to
+	 * accept clients at port N (2396 by default); --tables N to place at most N tables on each of the
+	 * backends listed after it, which must be started with the same --tables N (100 by default);
+	 * --metrics-port N to serve Prometheus metrics at
+	 * http://127.0.0.1:N/metrics; and --log-level LEVEL to log DEBUG, INFO, WARN or ERROR entries
+	 * and above
+	 */
+	public static void main(String[] args) {
+		BigTwoGateway gateway = new BigTwoGateway();
+		int port = 2396;
+		int maxTables = DEFAULT_MAX_TABLES;
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("--port") && i + 1 < args.length) {
+				port = Integer.parseInt(args[++i]);
+			}
+			else if (arg.equals("--tables") && i + 1 < args.length) {
+				maxTables = Integer.parseInt(args[++i]);
+			}
+			else if (arg.equals("--metrics-port") && i + 1 < args.length) {
+				try {
+					gateway.getMetrics().startHttpServer(Integer.parseInt(args[++i]));
+				}
+				catch (IOException ex) {
+					System.out.println("Cannot serve metrics at port " + args[i]);
+					return;
+				}
+			}
+			else if (arg.equals("--log-level") && i + 1 < args.length) {
+				int level = ServerLog.parseLevel(args[++i]);
+				if (level < 0) {
+					System.out.println("Unknown log level: " + args[i]);
+					return;
+				}
+				gateway.log.setLevel(level);
+			}
+			else {
+				int colon = arg.lastIndexOf(':');
+				gateway.addBackend(arg.substring(0, colon), Integer.parseInt(arg.substring(colon + 1)),
+						maxTables);
+			}
+		}
+		if (gateway.backends.isEmpty()) {
+			System.out.println("Usage: java BigTwoGateway [--port N] [--tables N] host:port...");
+			return;
+		}
+		Thread console = new Thread(() -> {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] words = line.trim().split("\\s+");
+					if (words[0].equals("drain") && words.length == 2) {
+						System.out.println(gateway.drain(words[1]) ? "Draining " + words[1] : "No such backend");
+					}
+					else if (words[0].equals("undrain") && words.length == 2) {
+						System.out.println(gateway.undrain(words[1]) ? "Undrained " + words[1] : "No such backend");
+					}
+					else if (words[0].equals("status")) {
+						System.out.print(gateway.getStatus());
+					}
+					else if (!words[0].isEmpty()) {
+						System.out.println("Commands: drain host:port, undrain host:port, status");
+					}
+				}
+			}
+			catch (IOException ex) {
+				//no console
+			}
+		}, "gateway-console");
+		console.setDaemon(true);
+		console.start();
+		gateway.start(port);
+	} // main
+}
@@ -1,3 +1,7 @@
+import java.awt.GraphicsEnvironment;
+import java.io.File;
+import java.io.IOException;
+
 /**
  * This class is used to model a Big Two card game server.
  * @author Kenneth Wong
@@ -10,6 +14,14 @@ public class BigTwoServer extends CardGameServer {
 	public BigTwoServer() {
 		super("Big Two Server", 4);
 	}
+
+	/**
+	 * Creates and returns an instance of the BigTwoServer class.
+	 * @param headless true to run without the Swing console
+	 */
+	public BigTwoServer(boolean headless) {
+		super("Big Two Server", 4, headless);
+	}
 	
 	/**
 	 * Creates and returns an instance of the BigTwoDeck class.
@@ -19,20 +31,235 @@ public class BigTwoServer extends CardGameServer {
 		return new BigTwoDeck(); 
 	}
 	
+	/**
+	 * Creates and returns the state of a Big Two card game kept by the server.
+	 * @return an instance of the BigTwoEngine class
+	 */
+	public CardGame createGame() {
+		return new BigTwoEngine();
+	}
+	
+	/**
+	 * Returns the private deal of the specified player: only his/her own cards, the number of cards
+	 * held by each player and the player who leads the first trick.
+	 * @param game the game state kept by the server
+	 * @param deck the shuffled deck of the new game
+	 * @param playerID the playerID of the player
+	 * @return an instance of the BigTwoDeal class
+	 */
+	public Object dealTo(CardGame game, Deck deck, int playerID) {
+		return new BigTwoDeal(copyHand(game, playerID), countCards(game), game.getCurrentPlayerIdx());
+	}
+	
+	/**
+	 * Returns a snapshot of the current game from the view of the specified player: his/her own
+	 * cards, the number of cards held by each player, the last hand on the table and whose turn it is.
+	 * @param game the game state kept by the server
+	 * @param playerID the playerID of the player, or -1 for a spectator, who sees no cards in hand
+	 * @return an instance of the BigTwoSnapshot class, or null if no game has started
+	 */
+	public Object snapshotFor(CardGame game, int playerID) {
+		if (game == null) {
+			return null;
+		}
+		CardList lastHand = null;
+		int lastHandPlayerIdx = -1;
+		if (!game.getHandsOnTable().isEmpty()) {
+			Hand hand = game.getHandsOnTable().get(game.getHandsOnTable().size() - 1);
+			lastHand = new CardList();
+			for (int i = 0; i < hand.size(); i++) {
+				lastHand.addCard(hand.getCard(i));
+			}
+			lastHandPlayerIdx = game.getPlayerList().indexOf(hand.getPlayer());
+		}
+		CardList cards = playerID < 0 ? null : copyHand(game, playerID);
+		return new BigTwoSnapshot(cards, countCards(game), lastHand,
+				lastHandPlayerIdx, game.getCurrentPlayerIdx());
+	}
+	
+	/**
+	 * Returns a copy of the cards held by a player. The cards are copied, as a message is written
+	 * after the game state may have changed.
+	 * @param game the game state kept by the server
+	 * @param playerID the playerID of the player
+	 * @return a copy of the cards held by the player
+	 */
+	private static CardList copyHand(CardGame game, int playerID) {
+		CardList cards = new CardList();
+		CardList hand = game.getPlayerList().get(playerID).getCardsInHand();
+		for (int i = 0; i < hand.size(); i++) {
+			cards.addCard(hand.getCard(i));
+		}
+		return cards;
+	}
+	
+	/**
+	 * Returns the number of cards held by each player.
+	 * @param game the game state kept by the server
+	 * @return array of the number of cards held by each player
+	 */
+	private static int[] countCards(CardGame game) {
+		int[] numOfCards = new int[game.getNumOfPlayers()];
+		for (int i = 0; i < numOfCards.length; i++) {
+			numOfCards[i] = game.getPlayerList().get(i).getNumOfCards();
+		}
+		return numOfCards;
+	}
+	
+	/**
+	 * Validates the move in the specified MOVE message against the game state.
+	 * @param game the game state kept by the server
+	 * @param message the MOVE message received
+	 * @return a MOVE message carrying the cards played, or null if the move is illegal
+	 */
+	public CardGameMessage checkMove(CardGame game, CardGameMessage message) {
+		if (game == null || (message.getData() != null && !(message.getData() instanceof int[]))) {
+			return null;
+		}
+		BigTwoEngine engine = (BigTwoEngine) game;
+		if (!engine.playMove(message.getPlayerID(), (int[]) message.getData())) {
+			return null;
+		}
+		return new CardGameMessage(CardGameMessage.MOVE, message.getPlayerID(), engine.getLastMove());
+	}
+
+	/**
+	 * Returns the move played by the server for a player who has run out of time: a pass, or the
+	 * lowest single if the player cannot pass (i.e., leads the trick, which in the first trick of a
+	 * game means the Three of Diamonds).
+	 * @param game the game state kept by the server
+	 * @param playerID the playerID of the player whose turn it is
+	 * @return a MOVE message carrying the index of the card played, or null to pass
+	 */
+	public CardGameMessage autoMove(CardGame game, int playerID) {
+		BigTwoEngine engine = (BigTwoEngine) game;
+		if (engine.isLegalMove(playerID, null)) {
+			return new CardGameMessage(CardGameMessage.MOVE, playerID, null);
+		}
+		CardList hand = engine.getPlayerList().get(playerID).getCardsInHand();
+		int lowest = 0;
+		for (int i = 1; i < hand.size(); i++) {
+			if (hand.getCard(i).compareTo(hand.getCard(lowest)) < 0) {
+				lowest = i;
+			}
+		}
+		return new CardGameMessage(CardGameMessage.MOVE, playerID, new int[] { lowest });
+	}
+
+	/**
+	 * Creates and returns a Big Two bot to play the specified seat.
+	 * @param seat the seat the bot is going to play
+	 * @return an instance of the BigTwoBot class
+	 */
+	public CardGameBot createBot(int seat) {
+		return new BigTwoBot("Bot " + seat);
+	}
+	
 	/**
 	 * main() method for starting the server.
 	 * 
 	 * @param args
-	 *            the port to be used by the server. The default port 5000 will
-	 *            be used if no arguments has been supplied
+	 *            the port to be used by the server, optionally preceded by
+	 *            these options: --seed-deal to deal games by shuffle seed;
+	 *            --tables N to host at most N tables of four players;
+	 *            --headless to run without the Swing console; --log-level
+	 *            LEVEL to log DEBUG, INFO, WARN or ERROR entries and above;
+	 *            --log-file PATH to write the log to a rotated file; and
+	 *            --metrics-port N to serve Prometheus metrics at
+	 *            http://127.0.0.1:N/metrics; --turn-timeout S to give each
+	 *            turn S seconds (0 for no turn clock); --time-bank S to give
+	 *            each player S more seconds per game for long turns;
+	 *            --continuous to deal the next game as soon as a game ends;
+	 *            --rematch-pause MS to pause MS milliseconds between games
+	 *            in continuous play; --bots to let bots fill empty seats and
+	 *            the seats of players who leave during a game; --bot-think
+	 *            MS to let a bot take MS milliseconds for each move;
+	 *            --matchmaking to group new players into tables by rating,
+	 *            latency and wait instead of the first free seats;
+	 *            --spectator-port N to let spectators watch the tables from
+	 *            port N; --replay-dir PATH to log every game to a replay
+	 *            log in the directory PATH; and --recovery-dir PATH to keep
+	 *            a write-ahead log of the live tables in the directory PATH,
+	 *            and rebuild them from it after a crash; --behind-gateway
+	 *            to let a BigTwoGateway place the players at the tables. The
+	 *            default port 2396 will be used if no port has been supplied
 	 */
 	public static void main(String[] args) {
-		BigTwoServer server = new BigTwoServer();
-		System.out.println("server running");
-		if (args.length > 0) {
-			server.start(Integer.parseInt(args[0]));
-		} else {
-			server.start(2396);
+		boolean headless = GraphicsEnvironment.isHeadless();
+		for (String arg : args) {
+			if (arg.equals("--headless")) {
+				headless = true;
+			}
 		}
+		BigTwoServer server = new BigTwoServer(headless);
+		int port = 2396;
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("--seed-deal")) {
+				server.setSeedDealing(true);
+			} else if (arg.equals("--headless")) {
+				// already handled
+			} else if (arg.equals("--tables") && i + 1 < args.length) {
+				server.setMaxNumOfTables(Integer.parseInt(args[++i]));
+			} else if (arg.equals("--log-level") && i + 1 < args.length) {
+				int level = ServerLog.parseLevel(args[++i]);
+				if (level < 0) {
+					System.out.println("Unknown log level: " + args[i]);
+					return;
+				}
+				server.getLog().setLevel(level);
+			} else if (arg.equals("--metrics-port") && i + 1 < args.length) {
+				try {
+					server.startMetricsServer(Integer.parseInt(args[++i]));
+				} catch (IOException ex) {
+					System.out.println("Cannot serve metrics at port " + args[i]);
+					return;
+				}
+			} else if (arg.equals("--continuous")) {
+				server.setContinuousPlay(true);
+			} else if (arg.equals("--rematch-pause") && i + 1 < args.length) {
+				server.setRematchPause(Long.parseLong(args[++i]));
+			} else if (arg.equals("--bots")) {
+				server.setBotsEnabled(true);
+			} else if (arg.equals("--bot-think") && i + 1 < args.length) {
+				server.setBotThinkTime(Long.parseLong(args[++i]), 20);
+			} else if (arg.equals("--matchmaking")) {
+				server.setMatchmaking(true);
+			} else if (arg.equals("--spectator-port") && i + 1 < args.length) {
+				server.setSpectatorPort(Integer.parseInt(args[++i]));
+			} else if (arg.equals("--replay-dir") && i + 1 < args.length) {
+				try {
+					server.setReplayLog(new File(args[++i]));
+				} catch (IOException ex) {
+					System.out.println("Cannot open the replay log in " + args[i]);
+					return;
+				}
+			} else if (arg.equals("--recovery-dir") && i + 1 < args.length) {
+				try {
+					server.setRecoveryLog(new File(args[++i]));
+				} catch (IOException ex) {
+					System.out.println("Cannot open the recovery log in " + args[i]);
+					return;
+				}
+			} else if (arg.equals("--behind-gateway")) {
+				server.setBehindGateway(true);
+			} else if (arg.equals("--turn-timeout") && i + 1 < args.length) {
+				server.setTurnTimeout(Long.parseLong(args[++i]) * 1000);
+			} else if (arg.equals("--time-bank") && i + 1 < args.length) {
+				server.setTimeBank(Long.parseLong(args[++i]) * 1000);
+			} else if (arg.equals("--log-file") && i + 1 < args.length) {
+				try {
+					// rotates the log file every 10 MB, keeping 5 old files
+					server.getLog().setFile(args[++i], 10L << 20, 5);
+				} catch (IOException ex) {
+					System.out.println("Cannot open the log file " + args[i]);
+					return;
+				}
+			} else {
+				port = Integer.parseInt(arg);
+			}
+		}
+		System.out.println("server running");
+		server.start(port);
 	} // main
 }
@@ -0,0 +1,76 @@
+import java.io.Serializable;
+
+/**
+ * This class is used to model a snapshot of a Big Two card game in progress
+ * from the view of one player. It is sent by the server to a client resuming
+ * the game after a lost connection, and holds only what the client needs to
+ * carry on: its own cards, the number of cards held by every player, the hand
+ * on the table and whose turn it is.
+ *
+ * @author jihoo
+ */
+public class BigTwoSnapshot implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private CardList cards;
+	private int[] numOfCards;
+	private CardList lastHand;
+	private int lastHandPlayerIdx;
+	private int currentPlayerIdx;
+
+	/**
+	 * Constructor for building a snapshot of a game.
+	 * @param cards the cards held by the player, or null for a spectator
+	 * @param numOfCards the number of cards held by each player
+	 * @param lastHand the cards of the last hand on the table, or null if none
+	 * @param lastHandPlayerIdx index of the player who played the last hand, or -1 if none
+	 * @param currentPlayerIdx index of the player whose turn it is
+	 */
+	public BigTwoSnapshot(CardList cards, int[] numOfCards, CardList lastHand,
+			int lastHandPlayerIdx, int currentPlayerIdx) {
+		this.cards = cards;
+		this.numOfCards = numOfCards;
+		this.lastHand = lastHand;
+		this.lastHandPlayerIdx = lastHandPlayerIdx;
+		this.currentPlayerIdx = currentPlayerIdx;
+	}
+
+	/**
+	 * Getter function for retrieving the cards held by the player
+	 * @return the cards held by the player, or null in the snapshot of a spectator
+	 */
+	public CardList getCards() {
+		return cards;
+	}
+
+	/**
+	 * Getter function for retrieving the number of cards held by each player
+	 * @return array of the number of cards held by each player
+	 */
+	public int[] getNumOfCards() {
+		return numOfCards;
+	}
+
+	/**
+	 * Getter function for retrieving the last hand on the table
+	 * @return the cards of the last hand on the table, or null if none
+	 */
+	public CardList getLastHand() {
+		return lastHand;
+	}
+
+	/**
+	 * Getter function for retrieving the player who played the last hand
+	 * @return index of the player who played the last hand, or -1 if none
+	 */
+	public int getLastHandPlayerIdx() {
+		return lastHandPlayerIdx;
+	}
+
+	/**
+	 * Getter function for retrieving whose turn it is
+	 * @return index of the current player
+	 */
+	public int getCurrentPlayerIdx() {
+		return currentPlayerIdx;
+	}
+}
@@ -57,14 +57,6 @@ public interface CardGame {
 	 */
 	public void makeMove(int playerIdx, int[] cardIdx);
 
-	/**
-	 * Checks the move made by the player.
-	 * 
-	 * @param playerIdx the index of the player who makes the move
-	 * @param cardIdx   the list of the indices of the cards selected by the player
-	 */
-	public void checkMove(int playerIdx, int[] cardIdx);
-
 	/**
 	 * Checks for end of game.
 	 * 
@@ -0,0 +1,31 @@
+/**
+ * This interface is used to model a bot played by the card game server. A bot
+ * holds a seat with no connection, and acts directly on the game state kept by
+ * its table.
+ *
+ * @author jihoo
+ */
+public interface CardGameBot {
+	/**
+	 * Returns the name of this bot, shown to the players.
+	 *
+	 * @return the name of this bot
+	 */
+	public String getName();
+
+	/**
+	 * Chooses the move of this bot when it is its turn. The move is checked by
+	 * the server like a move received from a client. Called by the table, so
+	 * the game state does not change meanwhile.
+	 *
+	 * @param game
+	 *            the game state kept by the server
+	 * @param playerID
+	 *            the playerID (i.e., seat) of this bot
+	 * @param deadline
+	 *            the time (System.nanoTime()) by which the bot must decide
+	 * @return the MOVE message, or null to let the server play a default
+	 *         move for the bot
+	 */
+	public CardGameMessage play(CardGame game, int playerID, long deadline);
+}
@@ -40,14 +40,19 @@ public class CardGameMessage extends GameMessage {
 	 */
 	public static final int READY = 4;
 	/**
-	 * Broadcast by the server when all clients are ready for a new game. In this message, playerID is 
-	 * -1 (no being used), and data is a reference to a Deck object (a shuffled deck for the new game).
+	 * Sent by the server to each client when all clients are ready for a new game. In this message,
+	 * playerID is -1 (no being used), and data is a reference to a Deck object (a shuffled deck for
+	 * the new game), or to the private deal of the client if the server keeps the game state. When
+	 * the server deals by seed, the same message is broadcast to every client and data is a
+	 * reference to a DealSeed object from which the shuffled deck is rebuilt.
 	 */
 	public static final int START = 5;
 	/**
-	 * Sent by a client when the local player makes a move. The server will broadcast this message upon
-	 * receiving it. In this message, playerID specifies the player who makes the move, and data is a
-	 * reference to an array of int specifying the indices of the cards being played.
+	 * Sent by a client when the local player makes a move. In this message, playerID is -1 and data
+	 * is a reference to an array of int specifying the indices of the cards being played (null for a
+	 * pass). If the server keeps the game state, it validates the move and broadcasts an accepted move
+	 * with playerID specifying the player who makes the move and data a reference to a CardList of the
+	 * cards being played (null for a pass); otherwise it broadcasts the message as received.
 	 */
 	public static final int MOVE = 6;
 	/**
@@ -57,6 +62,78 @@ public class CardGameMessage extends GameMessage {
 	 * sent this chat message, and data is a reference to a string containing a formated chat message.
 	 */
 	public static final int MSG = 7;
+	/**
+	 * Sent by the server only to the client whose move is illegal. In this message, playerID specifies
+	 * the player who made the move, and data is a reference to the array of int received in the
+	 * rejected MOVE message.
+	 */
+	public static final int ILLEGAL_MOVE = 8;
+	/**
+	 * Sent by the server to a client after it joins the game. In this message, playerID specifies
+	 * the player, and data is a string containing the session token with which the client can
+	 * reconnect to the same seat after losing its connection.
+	 */
+	public static final int SESSION = 9;
+	/**
+	 * Sent by a client right after reconnecting to the server. In this message, playerID is -1, data
+	 * is the session token of the client, and the sequence number is that of the last START or MOVE
+	 * message received by the client. The server replies with a RESUME message in which playerID
+	 * specifies the seat of the client (or -1 if the session cannot be resumed) and data is a
+	 * reference to a regular array of strings specifying the names of the players. It then sends
+	 * the START and MOVE messages needed to bring the client up to date.
+	 */
+	public static final int RESUME = 10;
+	/**
+	 * Sent by the server to each client at a regular interval. In this message, playerID is -1 and
+	 * data is a Long specifying the time (in the clock of the server) at which it was sent. A client
+	 * must answer at once with a PONG message carrying the same data.
+	 */
+	public static final int PING = 11;
+	/**
+	 * Sent by a client in answer to a PING message. In this message, playerID is -1 and data is the
+	 * data of the PING message. The server uses it to measure the round-trip time, and closes a
+	 * connection which misses too many PING messages.
+	 */
+	public static final int PONG = 12;
+	/**
+	 * Sent by a spectator to the spectator port of the server once connected, and never again. In
+	 * this message, playerID specifies the id of the table to be watched and data is simply null
+	 * (not being used). The spectator then receives the PLAYER_LIST, JOIN, QUIT, READY, START,
+	 * MOVE and END messages of the table; its START messages carry no private hand.
+	 */
+	public static final int WATCH = 13;
+	/**
+	 * Sent by a gateway (see BigTwoGateway) to a server behind it, as the first message on the
+	 * connection of each player. In this message, playerID specifies the seat and data is an
+	 * Integer specifying the id of the table at which the player is seated. The server replies
+	 * with the PLAYER_LIST message as usual, or with the FULL message if the seat is taken.
+	 */
+	public static final int PLACE = 14;
+	/**
+	 * Sent by the server only to the spectators of a table when its game has been played to the
+	 * end. In this message, playerID specifies the winner and data is a reference to a regular
+	 * array of int specifying the no. of cards left to each player. It is also part of the snapshot
+	 * sent to a spectator arriving before the next START message.
+	 */
+	public static final int END = 15;
+
+	// names of the message types, indexed by type
+	private static final String[] TYPE_NAMES = { "PLAYER_LIST", "JOIN",
+			"FULL", "QUIT", "READY", "START", "MOVE", "MSG", "ILLEGAL_MOVE",
+			"SESSION", "RESUME", "PING", "PONG", "WATCH", "PLACE", "END" };
+
+	// sequence number of a START or MOVE message within the server (0 if not numbered)
+	private long sequence = 0;
+	// trace context: the id given by the client which sent the message (0 if
+	// not traced), the time it was sent on the clock of that client, and the
+	// time (in nanoseconds) the server took from receiving it to broadcasting
+	// the reply
+	private long traceId = 0;
+	private long traceSentAt = 0;
+	private long traceServerTime = 0;
+	// times (System.nanoTime()) on the local clock, which are not sent
+	private transient long receivedAt = 0;
+	private transient long enqueuedAt = 0;
 
 	/**
 	 * Creates and returns an instance of CardGameMessage.
@@ -71,4 +148,132 @@ public class CardGameMessage extends GameMessage {
 	public CardGameMessage(int type, int playerID, Object data) {
 		super(type, playerID, data);
 	}
+
+	/**
+	 * Returns the sequence number of this message.
+	 * 
+	 * @return the sequence number of this message, or 0 if it is not numbered
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Sets the sequence number of this message.
+	 * 
+	 * @param sequence
+	 *            the sequence number of this message
+	 */
+	public void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	/**
+	 * Returns the name of the specified message type, e.g. "MOVE".
+	 * 
+	 * @param type
+	 *            the message type
+	 * @return the name of the message type, or "TYPE_n" for an unknown type n
+	 */
+	public static String typeName(int type) {
+		return type >= 0 && type < TYPE_NAMES.length ? TYPE_NAMES[type]
+				: "TYPE_" + type;
+	}
+
+	/**
+	 * Sets the trace context of this message, before a client sends it.
+	 * 
+	 * @param traceId
+	 *            the id of the trace, unique within the client
+	 * @param sentAt
+	 *            the time (System.nanoTime() of the client) of sending
+	 */
+	public void setTrace(long traceId, long sentAt) {
+		this.traceId = traceId;
+		this.traceSentAt = sentAt;
+	}
+
+	/**
+	 * Copies the trace context of the specified message, which this message
+	 * replies to, so that the client which sent it can measure the round trip.
+	 * 
+	 * @param message
+	 *            the message received
+	 * @param serverTime
+	 *            the time (in nanoseconds) the server took from receiving the
+	 *            message to sending this reply
+	 */
+	public void copyTrace(CardGameMessage message, long serverTime) {
+		this.traceId = message.traceId;
+		this.traceSentAt = message.traceSentAt;
+		this.traceServerTime = serverTime;
+	}
+
+	/**
+	 * Returns the id of the trace of this message.
+	 * 
+	 * @return the id of the trace, or 0 if the message is not traced
+	 */
+	public long getTraceId() {
+		return traceId;
+	}
+
+	/**
+	 * Returns the time the traced message was sent, on the clock of the client
+	 * which sent it.
+	 * 
+	 * @return the time (System.nanoTime() of the client) of sending
+	 */
+	public long getTraceSentAt() {
+		return traceSentAt;
+	}
+
+	/**
+	 * Returns the time the server took from receiving the traced message to
+	 * sending this reply.
+	 * 
+	 * @return the time in nanoseconds, or 0 if unknown
+	 */
+	public long getTraceServerTime() {
+		return traceServerTime;
+	}
+
+	/**
+	 * Returns the time this message was received, on the local clock.
+	 * 
+	 * @return the time (System.nanoTime()) of receiving, or 0 if unknown
+	 */
+	public long getReceivedAt() {
+		return receivedAt;
+	}
+
+	/**
+	 * Sets the time this message was received, on the local clock.
+	 * 
+	 * @param receivedAt
+	 *            the time (System.nanoTime()) of receiving
+	 */
+	public void setReceivedAt(long receivedAt) {
+		this.receivedAt = receivedAt;
+	}
+
+	/**
+	 * Returns the time this message was queued for sending, on the local
+	 * clock.
+	 * 
+	 * @return the time (System.nanoTime()) of queuing, or 0 if unknown
+	 */
+	public long getEnqueuedAt() {
+		return enqueuedAt;
+	}
+
+	/**
+	 * Sets the time this message was queued for sending, on the local clock.
+	 * 
+	 * @param enqueuedAt
+	 *            the time (System.nanoTime()) of queuing
+	 */
+	public void setEnqueuedAt(long enqueuedAt) {
+		this.enqueuedAt = enqueuedAt;
+	}
 }
@@ -1,9 +1,27 @@
+import java.awt.GraphicsEnvironment;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.security.SecureRandom;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.swing.JFrame;
 import javax.swing.JMenu;
@@ -12,6 +30,7 @@ import javax.swing.JMenuItem;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.ScrollPaneConstants;
+import javax.swing.Timer;
 
 /**
  * This class is used to model a card game server.
@@ -26,25 +45,142 @@ public class CardGameServer {
 	private String serverName;
 	// The maximum number of players in a card game
 	private final int maxNumOfPlayers;
-	// Array for holding sockets of the clients
-	private Socket[] clientSockets;
-	// Array for holding ObjectOutputStreams of the clients
-	private ObjectOutputStream[] clientOutputStreams;
-	// Array for holding player names of the clients
-	private String[] clientNames;
-	// Array for holding ready states of the clients
-	private boolean[] clientReadyStates;
-	// number of current players
-	private int numOfPlayers = 0;
-	// the main frame of the server
+	// max. no. of tables
+	private int maxNumOfTables = 100;
+	// the tables of this server, in the order they were opened
+	private final CopyOnWriteArrayList<CardGameTable> tables = new CopyOnWriteArrayList<CardGameTable>();
+	// threads running the tables
+	private final ExecutorService tableExecutor;
+	// the table holding the seat of each session
+	private final ConcurrentHashMap<String, CardGameTable> sessions = new ConcurrentHashMap<String, CardGameTable>();
+	// connections waiting to resume a kept seat, not holding any seat
+	private final Set<ClientConnection> pendingConnections = ConcurrentHashMap.newKeySet();
+	// time (in milliseconds) for which the seat of a disconnected player is
+	// kept
+	private volatile long gracePeriod = 30000;
+	// scheduler for the timed tasks of the server
+	private final ScheduledExecutorService scheduler;
+	// timing wheel driving the turn clocks of all tables, ticking every 100 ms
+	private final TimingWheel timingWheel;
+	// time (in milliseconds) a player has for each turn (0 to disable the
+	// turn clock)
+	private volatile long turnTimeout = 30000;
+	// time (in milliseconds) in the time bank of each player for a game, used
+	// up by turns longer than the turn timeout
+	private volatile long timeBank = 60000;
+	// a boolean indicating if each table deals its next game as soon as a
+	// game ends, without waiting for the players to be ready
+	private volatile boolean continuousPlay = false;
+	// time (in milliseconds) between two games in continuous play
+	private volatile long rematchPause = 3000;
+	// a boolean indicating if bots fill empty seats and the seats of players
+	// who leave during a game
+	private volatile boolean botsEnabled = false;
+	// time (in milliseconds) the ready players of a table wait for more
+	// players before bots fill the empty seats
+	private volatile long botWait = 10000;
+	// time (in milliseconds) a bot takes for each move
+	private volatile long botThinkTime = 1000;
+	// time (in milliseconds) a bot may compute for each move
+	private volatile long botBudget = 20;
+	// a boolean indicating if the server runs behind a gateway, which places
+	// every connection at a table and seat of its choice
+	private volatile boolean behindGateway = false;
+	// the matchmaking service grouping new players into tables, or null if
+	// new players take the first free seats
+	private volatile Matchmaker matchmaker = null;
+	// the service fanning out the events of the tables to spectators, and
+	// its port (0 if spectators are disabled)
+	private SpectatorHub spectatorHub = null;
+	private int spectatorPort = 0;
+	// the log of the games played, or null if games are not logged
+	private volatile ReplayLog replayLog = null;
+	// the log from which the tables are rebuilt after a crash, or null if
+	// the tables are not recovered
+	private volatile RecoveryLog recoveryLog = null;
+	// generator of session tokens
+	private final SecureRandom tokenGenerator = new SecureRandom();
+	// interval (in milliseconds) between PING messages (0 to disable)
+	private long heartbeatInterval = 5000;
+	// no. of unanswered PING messages after which a connection is closed
+	private volatile int maxMissedHeartbeats = 3;
+	// time (in milliseconds) allowed for a client to complete its handshake
+	private int handshakeTimeout = 5000;
+	// max. no. of threads performing handshakes at once
+	private static final int MAX_HANDSHAKE_THREADS = 8;
+	// max. no. of accepted connections waiting for a handshake thread
+	private static final int MAX_PENDING_HANDSHAKES = 64;
+	// threads performing the handshakes of new connections
+	private final ThreadPoolExecutor handshakeExecutor;
+	// no. of connections dropped because the handshake queue was full
+	private final LongAdder rejectedHandshakes = new LongAdder();
+	// a boolean indicating if the server runs without the Swing console
+	private final boolean headless;
+	// the main frame of the server (null if headless)
 	private JFrame frame = null;
 	// text area for displaying server states
 	private JTextArea textArea = null;
+	// the event log of the server, whose latest lines the text area shows
+	private final ServerLog log = new ServerLog(8192, 500);
 	// a boolean indicating if the server is up
-	private boolean serverUp = false;
+	private volatile boolean serverUp = false;
+	// the socket accepting new connections
+	private volatile ServerSocket serverSocket = null;
+	// a boolean indicating if games are dealt by sending a shuffle seed
+	private volatile boolean seedDealing = false;
+	// generator of shuffle seeds
+	private final SplittableRandom seedGenerator = new SplittableRandom();
+	// pool of decks shuffled in the background
+	private DeckPool deckPool = null;
+	// max. no. of message types covered by the inbound rate limits
+	private static final int MAX_MESSAGE_TYPES = 16;
+	// refill rates (per second) and burst sizes of each message type
+	private final double[] typeRefills = new double[MAX_MESSAGE_TYPES];
+	private final int[] typeBursts = new int[MAX_MESSAGE_TYPES];
+	// refill rate (per second) and burst size of a whole connection
+	private double connectionRefill = 20;
+	private int connectionBurst = 40;
+	// no. of rejections in a burst after which a connection is closed
+	private int maxViolations = 20;
+	// no. of rejected messages of each message type
+	private final LongAdder[] rejectedMessages = new LongAdder[MAX_MESSAGE_TYPES];
+	// no. of connections closed for flooding the server
+	private final LongAdder floodDisconnects = new LongAdder();
+	// the metrics of the server
+	private final MetricsRegistry metrics = new MetricsRegistry();
+	// connections which have completed their handshake and are not closed
+	private final Set<ClientConnection> connections = ConcurrentHashMap.newKeySet();
+	// no. of messages of each type handled by the tables
+	final LongAdder[] receivedMessages = new LongAdder[MAX_MESSAGE_TYPES];
+	// time (in nanoseconds) taken by a table to handle a message
+	final Histogram messageTime;
+	// time (in nanoseconds) taken to validate a move
+	final Histogram moveValidationTime;
+	// time (in nanoseconds) taken to queue a message to every player of a
+	// table
+	final Histogram broadcastTime;
+	// round-trip time (in nanoseconds) of the PING messages of all
+	// connections
+	private final Histogram rttTime;
+	// no. of messages queued by broadcasts
+	final LongAdder broadcastRecipients;
+	// no. of games started and finished
+	final LongAdder gamesStarted;
+	final LongAdder gamesFinished;
+	// no. of sessions resumed after a lost connection
+	final LongAdder sessionsResumed;
+	// no. of moves played by the server for players who ran out of time
+	final LongAdder turnTimeouts;
+	// no. of moves played by bots
+	final LongAdder botMoves;
+	// no. of connections opened, closed and rejected
+	private final LongAdder connectionsOpened;
+	private final LongAdder connectionsClosed;
+	private final LongAdder connectionsRejected;
 
 	/**
-	 * Creates and returns an instance of the BigTwoServer class.
+	 * Creates and returns an instance of the BigTwoServer class. The server
+	 * runs headless if there is no display (or java.awt.headless is set).
 	 * 
 	 * @param serverName
 	 *            the name of this card game server
@@ -52,17 +188,172 @@ public class CardGameServer {
 	 *            the maximum number of players in a card game
 	 */
 	public CardGameServer(String serverName, int maxNumOfPlayers) {
+		this(serverName, maxNumOfPlayers, GraphicsEnvironment.isHeadless());
+	}
+
+	/**
+	 * Creates and returns an instance of the BigTwoServer class.
+	 * 
+	 * @param serverName
+	 *            the name of this card game server
+	 * @param maxNumOfPlayers
+	 *            the maximum number of players in a card game
+	 * @param headless
+	 *            true to run without the Swing console, logging to the
+	 *            standard output and taking admin commands from the standard
+	 *            input instead
+	 */
+	public CardGameServer(String serverName, int maxNumOfPlayers,
+			boolean headless) {
 		this.serverName = serverName;
 		this.maxNumOfPlayers = maxNumOfPlayers;
+		this.headless = headless;
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "server-scheduler");
+			t.setDaemon(true);
+			return t;
+		});
+		timingWheel = new TimingWheel(100, TimeUnit.MILLISECONDS, 512,
+				"server-timer", log);
+		// a bounded pool of handshake threads with a bounded queue; a
+		// connection arriving when the queue is full is dropped at once. A
+		// pool only grows past its core size once its queue is full, so all
+		// its threads are core threads, which time out when idle
+		handshakeExecutor = new ThreadPoolExecutor(MAX_HANDSHAKE_THREADS,
+				MAX_HANDSHAKE_THREADS, 30, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(MAX_PENDING_HANDSHAKES), r -> {
+					Thread t = new Thread(r, "server-handshake");
+					t.setDaemon(true);
+					return t;
+				}, (r, executor) -> {
+					rejectedHandshakes.increment();
+					if (!(r instanceof Handshake)) {
+						throw new RejectedExecutionException("Too many handshakes");
+					}
+					((Handshake) r).abort();
+				});
+		handshakeExecutor.allowCoreThreadTimeOut(true);
+		// the tables share one thread per core
+		tableExecutor = Executors.newFixedThreadPool(Runtime.getRuntime()
+				.availableProcessors(), r -> {
+			Thread t = new Thread(r, "server-table");
+			t.setDaemon(true);
+			return t;
+		});
+
+		// sets up the default inbound rate limits
+		for (int i = 0; i < MAX_MESSAGE_TYPES; i++) {
+			setRateLimit(i, 10, 20);
+			rejectedMessages[i] = new LongAdder();
+		}
+		setRateLimit(CardGameMessage.MOVE, 5, 10);
+		setRateLimit(CardGameMessage.MSG, 2, 5);
 
-		// creates arrays for holding client sockets, output streams, player
-		// names, and ready states
-		clientSockets = new Socket[maxNumOfPlayers];
-		clientOutputStreams = new ObjectOutputStream[maxNumOfPlayers];
-		clientNames = new String[maxNumOfPlayers];
-		clientReadyStates = new boolean[maxNumOfPlayers];
+		// sets up the metrics
+		for (int i = 0; i < MAX_MESSAGE_TYPES; i++) {
+			String labels = "type=\"" + CardGameMessage.typeName(i) + "\"";
+			receivedMessages[i] = metrics.counter("messages_received_total",
+					labels, "Messages handled by the tables, by type.");
+			metrics.counter("messages_rejected_total", labels,
+					"Messages dropped by the inbound rate limits, by type.",
+					rejectedMessages[i]);
+		}
+		messageTime = metrics.histogram("message_handling_seconds", null,
+				"Time taken by a table to handle a message.");
+		moveValidationTime = metrics.histogram("move_validation_seconds", null,
+				"Time taken to validate a move against the game state.");
+		broadcastTime = metrics.histogram("broadcast_seconds", null,
+				"Time taken to queue a message to every player of a table.");
+		rttTime = metrics.histogram("connection_rtt_seconds", null,
+				"Round-trip time of the PING messages of the connections.");
+		broadcastRecipients = metrics.counter("broadcast_recipients_total",
+				null, "Messages queued by broadcasts.");
+		gamesStarted = metrics.counter("games_started_total", null,
+				"Games started.");
+		gamesFinished = metrics.counter("games_finished_total", null,
+				"Games played to the end.");
+		sessionsResumed = metrics.counter("sessions_resumed_total", null,
+				"Sessions resumed after a lost connection.");
+		turnTimeouts = metrics.counter("turn_timeouts_total", null,
+				"Moves played by the server for players who ran out of time.");
+		botMoves = metrics.counter("bot_moves_total", null,
+				"Moves played by bots.");
+		connectionsOpened = metrics.counter("connections_opened_total", null,
+				"Connections which completed their handshake.");
+		connectionsClosed = metrics.counter("connections_closed_total", null,
+				"Connections closed.");
+		connectionsRejected = metrics.counter("connections_rejected_total",
+				null, "Connections rejected because the server was full.");
+		metrics.counter("handshakes_rejected_total", null,
+				"Connections dropped because too many handshakes were waiting.",
+				rejectedHandshakes);
+		metrics.counter("flood_disconnects_total", null,
+				"Connections closed for flooding the server.", floodDisconnects);
+		metrics.gauge("connections", null, "Open connections.",
+				connections::size);
+		metrics.gauge("connection_rtt_average_microseconds", null,
+				"Mean of the moving averages of the round-trip times of the "
+						+ "seated connections.", () -> {
+					double sum = 0;
+					int n = 0;
+					for (ClientConnection c : connections) {
+						double ewma = c.getRttEwma();
+						if (c.getSeat() >= 0 && ewma >= 0) {
+							sum += ewma;
+							n++;
+						}
+					}
+					return n == 0 ? 0 : Math.round(sum / n / 1000);
+				});
+		metrics.gauge("handshakes_waiting", null,
+				"Connections waiting for a handshake thread.",
+				() -> handshakeExecutor.getQueue().size());
+		metrics.gauge("outbound_queued_messages", null,
+				"Messages waiting to be written to the clients.", () -> {
+					long n = 0;
+					for (ClientConnection c : connections) {
+						n += c.getQueueSize();
+					}
+					return n;
+				});
+		metrics.gauge("tables", null, "Open tables.", tables::size);
+		metrics.gauge("table_mailbox_tasks", null,
+				"Tasks waiting in the mailboxes of the tables.", () -> {
+					long n = 0;
+					for (CardGameTable table : tables) {
+						n += table.getMailboxSize();
+					}
+					return n;
+				});
+		metrics.gauge("bot_seats", null, "Seats held by bots.", () -> {
+			long n = 0;
+			for (CardGameTable table : tables) {
+				n += table.getBotSeats();
+			}
+			return n;
+		});
+		metrics.gauge("sessions", null, "Sessions of seated players.",
+				sessions::size);
+		metrics.gauge("deck_pool_ready", null,
+				"Shuffled decks ready for new games.",
+				() -> deckPool == null ? 0 : deckPool.size());
+		metrics.gauge("timers_pending", null,
+				"Turn timers pending in the timing wheel.",
+				timingWheel::getPending);
+		metrics.gauge("log_entries_dropped", null,
+				"Log entries dropped because the log was full.",
+				log::getDropped);
 
-		buildGUI();
+		if (headless) {
+			log.setConsole(true);
+			startAdminConsole();
+		} else {
+			buildGUI();
+		}
+		// stops accepting connections when the process is asked to exit
+		Runtime.getRuntime().addShutdownHook(new Thread(this::stop,
+				"server-shutdown"));
 	}
 
 	/**
@@ -84,10 +375,16 @@ public class CardGameServer {
 		// build the menu bar
 		JMenuItem clearMenuItem = new JMenuItem("Clear console");
 		clearMenuItem.addActionListener(new ClearMenuItemListener());
+		JMenuItem statsMenuItem = new JMenuItem("Connection stats");
+		statsMenuItem.addActionListener(new StatsMenuItemListener());
+		JMenuItem traceMenuItem = new JMenuItem("Latency trace");
+		traceMenuItem.addActionListener(new TraceMenuItemListener());
 		JMenuItem quitMenuItem = new JMenuItem("Quit");
 		quitMenuItem.addActionListener(new QuitMenuItemListener());
 		JMenu menu = new JMenu("Option");
 		menu.add(clearMenuItem);
+		menu.add(statsMenuItem);
+		menu.add(traceMenuItem);
 		menu.add(quitMenuItem);
 		JMenuBar menuBar = new JMenuBar();
 		menuBar.add(menu);
@@ -95,8 +392,498 @@ public class CardGameServer {
 
 		frame.pack();
 		frame.setVisible(true);
+
+		// shows the latest lines of the log, polling it on the event dispatch
+		// thread instead of touching Swing from the network threads
+		Timer refresher = new Timer(250, new ActionListener() {
+			private long version = -1;
+
+			public void actionPerformed(ActionEvent e) {
+				if (log.getTailVersion() != version) {
+					version = log.getTailVersion();
+					textArea.setText(String.join("\n", log.getTail()));
+					textArea.setCaretPosition(textArea.getDocument()
+							.getLength());
+				}
+			}
+		});
+		refresher.start();
 	} // buildGUI
 
+	/**
+	 * Starts a daemon thread reading admin commands from the standard input,
+	 * in place of the menu of the GUI. The thread ends quietly if there is no
+	 * standard input.
+	 */
+	private void startAdminConsole() {
+		Thread t = new Thread(() -> {
+			try {
+				BufferedReader reader = new BufferedReader(
+						new InputStreamReader(System.in));
+				String line;
+				while ((line = reader.readLine()) != null) {
+					runAdminCommand(line.trim());
+				}
+			} catch (IOException ex) {
+				if (!silentMode) ex.printStackTrace();
+			}
+		}, "server-admin");
+		t.setDaemon(true);
+		t.start();
+	} // startAdminConsole
+
+	/**
+	 * Runs an admin command of the headless server.
+	 * 
+	 * @param command
+	 *            the command, one of stats, trace, clear, quit and help
+	 */
+	private void runAdminCommand(String command) {
+		switch (command) {
+		case "":
+			break;
+		case "stats":
+			printConnectionStats();
+			break;
+		case "trace":
+			printLatencyTrace();
+			break;
+		case "clear":
+			// clears an ANSI terminal
+			log.clearTail();
+			System.out.print("\033[H\033[2J");
+			System.out.flush();
+			break;
+		case "quit":
+			// the shutdown hook stops the server
+			System.exit(0);
+			break;
+		default:
+			System.out.println("Commands: stats, trace, clear, quit");
+			break;
+		}
+	} // runAdminCommand
+
+	/**
+	 * Returns the event log of the server, e.g. for setting its level or its
+	 * log file.
+	 * 
+	 * @return the event log of the server
+	 */
+	public ServerLog getLog() {
+		return log;
+	}
+
+	/**
+	 * Returns the metrics of the server.
+	 * 
+	 * @return the metrics of the server
+	 */
+	public MetricsRegistry getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Serves the metrics of the server in the Prometheus text format at
+	 * http://127.0.0.1:port/metrics.
+	 * 
+	 * @param port
+	 *            the port of the HTTP endpoint
+	 * @throws IOException
+	 *             if the port cannot be bound
+	 */
+	public void startMetricsServer(int port) throws IOException {
+		metrics.startHttpServer(port);
+		println("Serves metrics at http://127.0.0.1:" + port + "/metrics");
+	}
+
+	/**
+	 * Returns true if the server runs without the Swing console.
+	 * 
+	 * @return true if the server is headless; false otherwise
+	 */
+	public boolean isHeadless() {
+		return headless;
+	}
+
+	/**
+	 * Sets the inbound rate limit of the specified message type. Applies to
+	 * connections established afterwards.
+	 * 
+	 * @param type
+	 *            the message type
+	 * @param refillPerSecond
+	 *            the no. of messages of this type allowed per second
+	 * @param burst
+	 *            the no. of messages of this type allowed in a burst
+	 */
+	public void setRateLimit(int type, double refillPerSecond, int burst) {
+		typeRefills[type] = refillPerSecond;
+		typeBursts[type] = burst;
+	}
+
+	/**
+	 * Sets the inbound rate limit of a whole connection. Applies to connections
+	 * established afterwards.
+	 * 
+	 * @param refillPerSecond
+	 *            the no. of messages allowed per second
+	 * @param burst
+	 *            the no. of messages allowed in a burst
+	 * @param maxViolations
+	 *            the no. of rejected messages in a burst after which the
+	 *            connection is closed
+	 */
+	public void setConnectionRateLimit(double refillPerSecond, int burst,
+			int maxViolations) {
+		this.connectionRefill = refillPerSecond;
+		this.connectionBurst = burst;
+		this.maxViolations = maxViolations;
+	}
+
+	/**
+	 * Sets whether games are dealt by sending a shuffle seed instead of the
+	 * cards. Every client can then rebuild the whole deck, so this mode is only
+	 * meant for trusted environments such as bots, replays and tournaments.
+	 * 
+	 * @param seedDealing
+	 *            true to deal by shuffle seed; false to deal the cards
+	 */
+	public void setSeedDealing(boolean seedDealing) {
+		this.seedDealing = seedDealing;
+	}
+
+	/**
+	 * Sets the time for which the seat of a disconnected player is kept, so
+	 * that the player can reconnect and resume the game.
+	 * 
+	 * @param gracePeriod
+	 *            the grace period in milliseconds (0 to free seats at once)
+	 */
+	public void setGracePeriod(long gracePeriod) {
+		this.gracePeriod = gracePeriod;
+	}
+
+	/**
+	 * Sets the time a player has for each turn. When a player runs out of
+	 * time (including the time bank), the server plays a move for the player
+	 * as given by autoMove(). Applies from the next turn.
+	 * 
+	 * @param turnTimeout
+	 *            the turn timeout in milliseconds (0 to disable the turn
+	 *            clock)
+	 */
+	public void setTurnTimeout(long turnTimeout) {
+		this.turnTimeout = turnTimeout;
+	}
+
+	/**
+	 * Sets the time bank of each player for a game, from which turns longer
+	 * than the turn timeout draw. Applies from the next game.
+	 * 
+	 * @param timeBank
+	 *            the time bank in milliseconds
+	 */
+	public void setTimeBank(long timeBank) {
+		this.timeBank = timeBank;
+	}
+
+	/**
+	 * Sets whether the tables play continuously: when a game ends, a table
+	 * deals the next game itself after the rematch pause instead of waiting
+	 * for all the players to send READY. Needs the game state kept by the
+	 * server (see createGame()) to detect the end of a game.
+	 * 
+	 * @param continuousPlay
+	 *            true to play continuously
+	 */
+	public void setContinuousPlay(boolean continuousPlay) {
+		this.continuousPlay = continuousPlay;
+	}
+
+	/**
+	 * Sets the time between two games in continuous play, e.g. for the
+	 * players to see the result.
+	 * 
+	 * @param rematchPause
+	 *            the pause in milliseconds
+	 */
+	public void setRematchPause(long rematchPause) {
+		this.rematchPause = rematchPause;
+	}
+
+	/**
+	 * Lets spectators watch the tables from the specified port, at which they
+	 * send a WATCH message naming a table. Must be called before the server
+	 * starts.
+	 * 
+	 * @param port
+	 *            the port for the spectators
+	 */
+	public void setSpectatorPort(int port) {
+		if (spectatorHub == null) {
+			// two fan-out threads serve thousands of spectators, as nothing
+			// is serialized per spectator
+			spectatorHub = new SpectatorHub(this, handshakeExecutor, 2, metrics);
+		}
+		spectatorPort = port;
+	}
+
+	/**
+	 * Logs every game played (its deal, moves and result) to an append-only
+	 * replay log in the specified directory. Must be called before the server
+	 * starts.
+	 * 
+	 * @param directory
+	 *            the directory of the replay log
+	 * @throws IOException
+	 *             if the replay log cannot be opened
+	 */
+	public void setReplayLog(File directory) throws IOException {
+		// rolls segments of 64 MB, and forces new records to disk every 200
+		// milliseconds
+		replayLog = new ReplayLog(directory, 64 << 20, 200, metrics);
+	}
+
+	/**
+	 * Keeps a write-ahead log and checkpoints of the live tables in the
+	 * specified directory, from which the tables are rebuilt when the server
+	 * starts again after a crash; their players may then resume their seats.
+	 * Must be called before the server starts.
+	 * 
+	 * @param directory
+	 *            the directory of the recovery log
+	 * @throws IOException
+	 *             if the directory cannot be created
+	 */
+	public void setRecoveryLog(File directory) throws IOException {
+		// takes a checkpoint every 30 seconds
+		recoveryLog = new RecoveryLog(this, directory, 30000, metrics);
+	}
+
+	/**
+	 * Returns the log from which the tables are rebuilt after a crash.
+	 * 
+	 * @return the recovery log, or null if the tables are not recovered
+	 */
+	RecoveryLog getRecoveryLog() {
+		return recoveryLog;
+	}
+
+	/**
+	 * Returns the log of the games played.
+	 * 
+	 * @return the replay log, or null if games are not logged
+	 */
+	ReplayLog getReplayLog() {
+		return replayLog;
+	}
+
+	/**
+	 * Returns the service fanning out the events of the tables to spectators.
+	 * 
+	 * @return the spectator service, or null if spectators are disabled
+	 */
+	SpectatorHub getSpectatorHub() {
+		return spectatorHub;
+	}
+
+	/**
+	 * Returns the table with the specified id.
+	 * 
+	 * @param id
+	 *            the id of the table
+	 * @return the table, or null if no such table has been opened
+	 */
+	CardGameTable getTable(int id) {
+		return id >= 0 && id < tables.size() ? tables.get(id) : null;
+	}
+
+	/**
+	 * Sets whether the server runs behind a gateway (see BigTwoGateway). A new
+	 * connection then takes no seat until it sends a PLACE message naming its
+	 * table and seat (or a RESUME message), and is rejected if it sends none
+	 * in time. Must be called before the server starts.
+	 * 
+	 * @param behindGateway
+	 *            true to let a gateway place the connections
+	 */
+	public void setBehindGateway(boolean behindGateway) {
+		this.behindGateway = behindGateway;
+	}
+
+	/**
+	 * Sets whether new players are grouped into tables by a matchmaking
+	 * service, by rating, latency and wait, instead of taking the first free
+	 * seats. Must be called before the server starts.
+	 * 
+	 * @param matchmaking
+	 *            true to group new players by matchmaking
+	 */
+	public void setMatchmaking(boolean matchmaking) {
+		if (matchmaking && matchmaker == null) {
+			// relaxes by one band every 5 seconds, and groups any players
+			// after 30 seconds
+			matchmaker = new Matchmaker(this, scheduler, maxNumOfPlayers,
+					5000, 6, metrics);
+		} else if (!matchmaking) {
+			matchmaker = null;
+		}
+	}
+
+	/**
+	 * Returns the matchmaking service, e.g. for the ratings of the players.
+	 * 
+	 * @return the matchmaking service, or null if disabled
+	 */
+	public Matchmaker getMatchmaker() {
+		return matchmaker;
+	}
+
+	/**
+	 * Records the result of a finished game, updating the ratings of the
+	 * players if matchmaking is enabled.
+	 * 
+	 * @param names
+	 *            the names of the players by seat (null for a bot or an empty
+	 *            seat)
+	 * @param winner
+	 *            the seat of the winner
+	 */
+	void recordGame(String[] names, int winner) {
+		Matchmaker matchmaker = this.matchmaker;
+		if (matchmaker != null) {
+			matchmaker.recordGame(names, winner);
+		}
+	}
+
+	/**
+	 * Sets whether bots (see createBot()) play at the tables. Bots fill the
+	 * empty seats of a table whose players are all ready but too few, and take
+	 * over the seats of players who leave during a game. A new player takes a
+	 * seat held by a bot between games.
+	 * 
+	 * @param botsEnabled
+	 *            true to let bots play
+	 */
+	public void setBotsEnabled(boolean botsEnabled) {
+		this.botsEnabled = botsEnabled;
+	}
+
+	/**
+	 * Sets the time the ready players of a table wait for more players before
+	 * bots fill the empty seats.
+	 * 
+	 * @param botWait
+	 *            the wait in milliseconds
+	 */
+	public void setBotWait(long botWait) {
+		this.botWait = botWait;
+	}
+
+	/**
+	 * Sets the think time of the bots: the time a bot takes for each move, so
+	 * that the players can follow the game, and the max. time it may compute.
+	 * 
+	 * @param botThinkTime
+	 *            the time taken for each move in milliseconds
+	 * @param botBudget
+	 *            the max. time spent computing each move in milliseconds
+	 */
+	public void setBotThinkTime(long botThinkTime, long botBudget) {
+		this.botThinkTime = botThinkTime;
+		this.botBudget = botBudget;
+	}
+
+	/**
+	 * Sets the interval between PING messages, and the no. of unanswered PING
+	 * messages after which a connection is considered dead and closed. Applies
+	 * when the server starts.
+	 * 
+	 * @param interval
+	 *            the interval in milliseconds (0 to disable heartbeats)
+	 * @param maxMissed
+	 *            the max. no. of unanswered PING messages
+	 */
+	public void setHeartbeat(long interval, int maxMissed) {
+		this.heartbeatInterval = interval;
+		this.maxMissedHeartbeats = maxMissed;
+	}
+
+	/**
+	 * Sets the max. no. of tables. A new table is opened whenever every open
+	 * table is full, until this limit is reached.
+	 * 
+	 * @param maxNumOfTables
+	 *            the max. no. of tables
+	 */
+	public void setMaxNumOfTables(int maxNumOfTables) {
+		this.maxNumOfTables = maxNumOfTables;
+	}
+
+	/**
+	 * Prints the round-trip time statistics of every connected player. Each
+	 * table prints the statistics of its own players.
+	 */
+	public void printConnectionStats() {
+		for (CardGameTable table : tables) {
+			table.post(() -> println(table.getConnectionStats()));
+		}
+	}
+
+	/**
+	 * Prints the latency of each stage a message goes through in the server,
+	 * from its receipt to its write to the clients, for every table.
+	 */
+	public void printLatencyTrace() {
+		for (CardGameTable table : tables) {
+			table.post(() -> println("Table " + table.getId()
+					+ " latency:\n" + table.getLatencyTrace().summary()));
+		}
+	}
+
+	/**
+	 * Sets the time allowed for a new client to complete its handshake (i.e.,
+	 * send the header of its ObjectOutputStream).
+	 * 
+	 * @param handshakeTimeout
+	 *            the timeout in milliseconds
+	 */
+	public void setHandshakeTimeout(int handshakeTimeout) {
+		this.handshakeTimeout = handshakeTimeout;
+	}
+
+	/**
+	 * Returns the no. of new connections dropped because too many handshakes
+	 * were waiting.
+	 * 
+	 * @return the no. of dropped connections
+	 */
+	public long getRejectedHandshakes() {
+		return rejectedHandshakes.sum();
+	}
+
+	/**
+	 * Returns the no. of messages of the specified type rejected by the
+	 * inbound rate limits.
+	 * 
+	 * @param type
+	 *            the message type
+	 * @return the no. of rejected messages
+	 */
+	public long getRejectedMessages(int type) {
+		return rejectedMessages[type].sum();
+	}
+
+	/**
+	 * Returns the no. of connections closed for flooding the server.
+	 * 
+	 * @return the no. of connections closed for flooding
+	 */
+	public long getFloodDisconnects() {
+		return floodDisconnects.sum();
+	}
+
 	/**
 	 * Starts the server at the specified port
 	 * 
@@ -104,254 +891,523 @@ public class CardGameServer {
 	 *            the specified port at which the server starts
 	 */
 	public void start(int port) {
+		// starts shuffling decks for the coming games in the background
+		deckPool = new DeckPool(this::createDeck, 8);
+		// rebuilds the tables left by the previous server before any client
+		// connects
+		if (recoveryLog != null) {
+			try {
+				recoveryLog.recover();
+			} catch (IOException ex) {
+				log(ServerLog.ERROR, "Error in recovering the tables: ", ex);
+				return;
+			}
+		}
+		// exposes the metrics to JMX clients such as jconsole
+		try {
+			metrics.registerMBean("CardGameServer:type=Metrics,port=" + port);
+		} catch (Exception ex) {
+			log(ServerLog.WARN, "Error in registering the metrics MBean: ", ex);
+		}
+		// starts sending heartbeats to the clients
+		if (heartbeatInterval > 0) {
+			scheduler.scheduleAtFixedRate(() -> {
+				for (CardGameTable table : tables) {
+					table.post(table::heartbeat);
+				}
+			}, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS);
+		}
+		// starts grouping the players of the lobby
+		if (matchmaker != null) {
+			matchmaker.start();
+		}
+		// starts accepting spectators
+		if (spectatorHub != null) {
+			try {
+				spectatorHub.start(spectatorPort);
+			} catch (IOException ex) {
+				log(ServerLog.WARN, "Error in accepting spectators at port ",
+						spectatorPort);
+			}
+		}
+
 		// start the server
 		try {
 			// creates a ServerScoket
-			ServerSocket serverSocket = new ServerSocket(port);
+			serverSocket = new ServerSocket(port);
 			println("Starts up the server at localhost:"
 					+ serverSocket.getLocalPort());
 			serverUp = true;
 			while (serverUp) {
-				// waits for clients to connect
+				// waits for clients to connect, and hands each new connection
+				// over to the handshake threads at once
 				Socket clientSocket = serverSocket.accept();
-				addConnection(clientSocket);
+				handshakeExecutor.execute(new Handshake(clientSocket));
 			} // while
 			serverSocket.close();
 		} catch (Exception ex) {
-			println("Error in starting up the server at localhost:" + port);
+			if (!serverUp) {
+				// the server socket has been closed by stop()
+				return;
+			}
+			log(ServerLog.ERROR, "Error in starting up the server at localhost:",
+					port);
 			if (!silentMode) ex.printStackTrace();
 		}
 	} // start
 
 	/**
-	 * Parses the incoming message from the specified client.
-	 * 
-	 * @param clientSocket
-	 *            the socket connection to the specified client
-	 * @param message
-	 *            the message received from the specified client
+	 * Stops accepting new connections. Called when the process exits.
 	 */
-	private synchronized void parseMessage(Socket clientSocket,
-			CardGameMessage message) {
-		// updates the playerID
-		for (int i = 0; i < maxNumOfPlayers; i++) {
-			if (clientSockets[i] == clientSocket) {
-				message.setPlayerID(i);
-				break;
+	public void stop() {
+		if (serverUp) {
+			serverUp = false;
+			println("Shuts down the server");
+			timingWheel.stop();
+			if (spectatorHub != null) {
+				spectatorHub.stop();
+			}
+			if (replayLog != null) {
+				replayLog.close();
+			}
+			if (recoveryLog != null) {
+				recoveryLog.close();
+			}
+			try {
+				serverSocket.close();
+			} catch (Exception ex) {
+				if (!silentMode) ex.printStackTrace();
 			}
 		}
+		log.flush(1000);
+	} // stop
 
-		// parses the message based on it type
-		switch (message.getType()) {
-		case CardGameMessage.JOIN:
-			// adds a player to the game
-			addPlayer(clientSocket, (String) message.getData());
-			break;
-		case CardGameMessage.READY:
-			// marks the specified player as ready for a new game
-			setReadyState(clientSocket);
-			break;
-		case CardGameMessage.MOVE:
-			println("Broadcasts a \"MOVE\" message from "
-					+ clientSocket.getRemoteSocketAddress());
-			// broadcast the MOVE message to all clients
-			broadcastMessage(message);
-			break;
-		case CardGameMessage.MSG:
-			println("Broadcasts a user message from "
-					+ clientSocket.getRemoteSocketAddress());
-			// broadcast the user message to all clients
-			broadcastUserMessage(clientSocket, (String) message.getData());
-			break;
-		default:
-			println("Wrong message type: " + message.getType());
-			// invalid message
-			break;
+	/**
+	 * Finds a seat for a connection whose handshake has been completed: keeps
+	 * it waiting to be placed if the server runs behind a gateway, puts it in
+	 * the lobby of the matchmaker if enabled, posts it to the first
+	 * table with a free seat (opening a new table if needed), keeps it waiting
+	 * if it may resume a kept seat, or rejects it otherwise. Performs no
+	 * network I/O.
+	 * 
+	 * @param connection
+	 *            the connection to the client
+	 * @return false if the connection has been rejected; true otherwise
+	 */
+	boolean assign(ClientConnection connection) {
+		if (behindGateway) {
+			// waits for the gateway to place the connection
+			pendingConnections.add(connection);
+			scheduler.schedule(() -> rejectPending(connection), 10,
+					TimeUnit.SECONDS);
+			return true;
+		}
+		Matchmaker matchmaker = this.matchmaker;
+		if (matchmaker != null) {
+			// waits in the lobby to be grouped into a table
+			matchmaker.enqueue(connection);
+			return true;
+		}
+		CardGameTable table = reserveTable();
+		if (table != null) {
+			connection.setTable(table);
+			table.post(() -> table.attach(connection));
+			return true;
 		}
-	} // parseMessage
+		for (CardGameTable t : tables) {
+			if (t.hasKeptSeat()) {
+				// the only free seats are kept for disconnected players;
+				// accepts this connection in case it resumes one of them,
+				// and rejects it unless it does so in time
+				pendingConnections.add(connection);
+				scheduler.schedule(() -> rejectPending(connection), 10,
+						TimeUnit.SECONDS);
+				return true;
+			}
+		}
+		pendingConnections.add(connection);
+		rejectPending(connection);
+		return false;
+	} // assign
 
 	/**
-	 * Broadcasts the specified message to all clients.
+	 * Reserves a seat at the first table with a free seat, opening a new table
+	 * if every table is full.
 	 * 
-	 * @param message
-	 *            the specified message to be broadcast to all clients
-	 */
-	private synchronized void broadcastMessage(CardGameMessage message) {
-		if (numOfPlayers > 0) {
-			for (int i = 0; i < maxNumOfPlayers; i++) {
-				if (clientSockets[i] != null && clientOutputStreams[i] != null) {
-					try {
-						clientOutputStreams[i].writeObject(message);
-					} catch (Exception ex) {
-						println("Error in broadcasting a message to the client at "
-								+ clientSockets[i].getRemoteSocketAddress());
-						if (!silentMode) ex.printStackTrace();
-					}
-				}
+	 * @return the table, or null if every table is full
+	 */
+	private CardGameTable reserveTable() {
+		for (CardGameTable table : tables) {
+			if (table.reserveSeat()) {
+				return table;
 			}
 		}
-	} // broadcastMessage
-
-	/**
-	 * Adds a new socket connection to the server
-	 * 
-	 * @param clientSocket
-	 *            the socket connection to be added to the server
-	 */
-	private synchronized void addConnection(Socket clientSocket) {
-		// adds this connection to the server if the server is not full
-		if (numOfPlayers < maxNumOfPlayers) {
-			// locates the first empty slot for the new connection
-			for (int i = 0; i < maxNumOfPlayers; i++) {
-				if (clientSockets[i] == null) {
-					try {
-						// creates an ObjectOutputStream for this client socket
-						ObjectOutputStream oostream = new ObjectOutputStream(
-								clientSocket.getOutputStream());
-
-						clientSockets[i] = clientSocket;
-						clientOutputStreams[i] = oostream;
-						clientNames[i] = null;
-						clientReadyStates[i] = false;
-						numOfPlayers++;
-						println("Establishes a connection with a client at "
-								+ clientSocket.getRemoteSocketAddress());
-
-						// creates a thread for receiving messages from this
-						// client
-						Thread t = new Thread(new ClientHandler(clientSocket));
-						t.start();
-
-						// sends the player list to the new player
-						oostream.writeObject(new CardGameMessage(
-								CardGameMessage.PLAYER_LIST, i, clientNames));
-					} catch (Exception ex) {
-						println("Error in establishing a connection with a client at "
-								+ clientSocket.getRemoteSocketAddress());
-						if (!silentMode) ex.printStackTrace();
-					}
-					break;
+		synchronized (tables) {
+			// another thread may have opened a table meanwhile
+			for (CardGameTable table : tables) {
+				if (table.reserveSeat()) {
+					return table;
 				}
-			} // for
-		} else {
-			// Max. no. of players reached
-			println("Server is full: cannot establish a connection with a client at "
-					+ clientSocket.getRemoteSocketAddress());
+			}
+			if (tables.size() < maxNumOfTables) {
+				CardGameTable table = new CardGameTable(this, tables.size(),
+						maxNumOfPlayers, tableExecutor);
+				table.reserveSeat();
+				tables.add(table);
+				println("Opens table " + table.getId());
+				return table;
+			}
+		}
+		return null;
+	} // reserveTable
 
-			// creates a thread for sending a FULL message to this client, waits
-			// for 1000 milliseconds and closes the socket
-			Thread t = new Thread(new ClientHandler2(clientSocket));
-			t.start();
+	/**
+	 * Reserves the specified no. of seats at the first empty table, opening a
+	 * new table if no table is empty.
+	 * 
+	 * @param seats
+	 *            the no. of seats
+	 * @return the table, or null if no table is empty
+	 */
+	CardGameTable reserveTable(int seats) {
+		for (CardGameTable table : tables) {
+			if (table.reserveSeats(seats)) {
+				return table;
+			}
+		}
+		synchronized (tables) {
+			if (tables.size() < maxNumOfTables) {
+				CardGameTable table = new CardGameTable(this, tables.size(),
+						maxNumOfPlayers, tableExecutor);
+				table.reserveSeats(seats);
+				tables.add(table);
+				println("Opens table " + table.getId());
+				return table;
+			}
 		}
+		return null;
+	} // reserveTable
 
-	} // addConnection
+	/**
+	 * Returns the table with the specified id, opening it (and any table
+	 * before it) if needed, e.g. as rebuilt by the recovery log or named by a
+	 * gateway.
+	 * 
+	 * @param id
+	 *            the id of the table
+	 * @return the table
+	 */
+	CardGameTable openTable(int id) {
+		synchronized (tables) {
+			while (tables.size() <= id) {
+				CardGameTable table = new CardGameTable(this, tables.size(),
+						maxNumOfPlayers, tableExecutor);
+				tables.add(table);
+				println("Opens table " + table.getId());
+			}
+			return tables.get(id);
+		}
+	}
 
 	/**
-	 * Removes a connection from the server (possibly due to connection loss).
+	 * Handles a message from a connection without a seat, which may only
+	 * resume a kept seat, or join the lobby if matchmaking is enabled.
 	 * 
-	 * @param clientSocket
-	 *            the socket connection being removed from the server
+	 * @param connection
+	 *            the connection to the client
+	 * @param message
+	 *            the message received from the client
 	 */
-	private synchronized void removeConnection(Socket clientSocket) {
-		if (numOfPlayers > 0) {
-			// locates the client socket in the array
-			for (int i = 0; i < maxNumOfPlayers; i++) {
-				if (clientSockets[i] == clientSocket) {
-					String name = clientNames[i];
+	private void parsePendingMessage(ClientConnection connection,
+			CardGameMessage message) {
+		if (behindGateway && message.getType() == CardGameMessage.PLACE) {
+			place(connection, message);
+			return;
+		}
+		Matchmaker matchmaker = this.matchmaker;
+		boolean waiting = matchmaker != null
+				&& matchmaker.isWaiting(connection);
+		if (waiting && message.getType() == CardGameMessage.JOIN) {
+			matchmaker.join(connection, (String) message.getData());
+			return;
+		}
+		if (message.getType() != CardGameMessage.RESUME) {
+			if (!waiting) {
+				rejectPending(connection);
+			}
+			return;
+		}
+		if (waiting ? !matchmaker.withdraw(connection)
+				: !pendingConnections.remove(connection)) {
+			return;
+		}
+		CardGameTable table = findSession(message.getData());
+		if (table == null) {
+			connection.send(new CardGameMessage(CardGameMessage.RESUME, -1,
+					null));
+			if (waiting) {
+				// joins as a new player through the lobby instead
+				matchmaker.enqueue(connection);
+				return;
+			}
+			pendingConnections.add(connection);
+			rejectPending(connection);
+			return;
+		}
+		connection.setTable(table);
+		table.post(() -> table.resumeSession(connection, message));
+	} // parsePendingMessage
+
+	/**
+	 * Seats a connection at the table and seat named by the gateway in a PLACE
+	 * message, opening the table if needed.
+	 * 
+	 * @param connection
+	 *            the connection to the client
+	 * @param message
+	 *            the PLACE message received from the gateway
+	 */
+	private void place(ClientConnection connection, CardGameMessage message) {
+		if (!pendingConnections.remove(connection)) {
+			return;
+		}
+		Object id = message.getData();
+		int seat = message.getPlayerID();
+		if (!(id instanceof Integer) || (Integer) id < 0
+				|| (Integer) id >= maxNumOfTables || seat < 0
+				|| seat >= maxNumOfPlayers) {
+			reject(connection);
+			return;
+		}
+		CardGameTable table = openTable((Integer) id);
+		connection.setTable(table);
+		table.post(() -> table.place(connection, seat));
+	} // place
 
-					clientSockets[i] = null;
-					clientOutputStreams[i] = null;
-					clientNames[i] = null;
-					clientReadyStates[i] = false;
-					numOfPlayers--;
+	/**
+	 * Sends a FULL message to a connection without a seat and closes it after
+	 * 1000 milliseconds.
+	 * 
+	 * @param connection
+	 *            the connection to the client
+	 */
+	void reject(ClientConnection connection) {
+		pendingConnections.add(connection);
+		rejectPending(connection);
+	}
 
-					println(name + " (" + clientSocket.getRemoteSocketAddress()
-							+ ") leaves the game.");
+	/**
+	 * Sends a FULL message to a connection without a seat and closes it after
+	 * 1000 milliseconds.
+	 * 
+	 * @param connection
+	 *            the connection to the client
+	 */
+	private void rejectPending(ClientConnection connection) {
+		if (pendingConnections.remove(connection)) {
+			connectionsRejected.increment();
+			println("Server is full: cannot establish a connection with a client at "
+					+ connection.getSocket().getRemoteSocketAddress());
+			connection.send(new CardGameMessage(CardGameMessage.FULL, -1, null));
+			scheduler.schedule(connection::close, 1000, TimeUnit.MILLISECONDS);
+		}
+	} // rejectPending
 
-					String remoteAddress = clientSocket
-							.getRemoteSocketAddress().toString();
+	/**
+	 * Stops counting a connection which has been (or is being) closed.
+	 * 
+	 * @param connection
+	 *            the connection
+	 */
+	private void forget(ClientConnection connection) {
+		if (connections.remove(connection)) {
+			connectionsClosed.increment();
+		}
+	}
 
-					// broadcasts a message about the leaving of this player
-					broadcastMessage(new CardGameMessage(CardGameMessage.QUIT,
-							i, remoteAddress));
-					break;
-				}
-			}
+	/**
+	 * Starts a new session at the specified table.
+	 * 
+	 * @param table
+	 *            the table holding the seat of the session
+	 * @return the session token
+	 */
+	String newSession(CardGameTable table) {
+		byte[] bytes = new byte[16];
+		tokenGenerator.nextBytes(bytes);
+		StringBuilder token = new StringBuilder();
+		for (byte b : bytes) {
+			token.append(String.format("%02x", b));
 		}
-	} // removeConnection
+		sessions.put(token.toString(), table);
+		return token.toString();
+	}
 
 	/**
-	 * adds a player to the game.
+	 * Registers a session rebuilt by the recovery log.
 	 * 
-	 * @param clientSocket
-	 *            the socket connection to the player who is joining the game
-	 * @param name
-	 *            the name of the player who is joining the game
+	 * @param token
+	 *            the session token
+	 * @param table
+	 *            the table holding the seat of the session
 	 */
-	private synchronized void addPlayer(Socket clientSocket, String name) {
-		if (numOfPlayers > 0) {
-			// locates the client socket in the array
-			for (int i = 0; i < maxNumOfPlayers; i++) {
-				if (clientSockets[i] == clientSocket) {
-					// updates the name of the new player
-					clientNames[i] = name;
+	void restoreSession(String token, CardGameTable table) {
+		sessions.put(token, table);
+	}
 
-					println(name + " (" + clientSocket.getRemoteSocketAddress()
-							+ ") joins the game.");
+	/**
+	 * Ends the session with the specified token.
+	 * 
+	 * @param token
+	 *            the session token
+	 */
+	void endSession(String token) {
+		sessions.remove(token);
+	}
 
-					// broadcasts a message about this player joining the game
-					broadcastMessage(new CardGameMessage(CardGameMessage.JOIN,
-							i, name));
-					break;
-				}
-			}
-		}
-	} // addPlayer
+	/**
+	 * Returns the table holding the seat of the session with the specified
+	 * token.
+	 * 
+	 * @param token
+	 *            the session token
+	 * @return the table, or null if there is no such session
+	 */
+	CardGameTable findSession(Object token) {
+		return token instanceof String ? sessions.get(token) : null;
+	}
 
 	/**
-	 * Marks the specified player as ready for a new game.
+	 * Returns a new shuffle seed if games are dealt by seed.
 	 * 
-	 * @param clientSocket
-	 *            the socket connection to the player who becomes ready for a
-	 *            new game
+	 * @return a new shuffle seed, or null if games are dealt by cards
 	 */
-	private synchronized void setReadyState(Socket clientSocket) {
-		if (numOfPlayers > 0) {
-			// locates the client socket in the array
-			for (int i = 0; i < maxNumOfPlayers; i++) {
-				if (clientSockets[i] == clientSocket) {
-					clientReadyStates[i] = true;
-					println(clientNames[i] + " ("
-							+ clientSocket.getRemoteSocketAddress()
-							+ " ) is ready for the next game.");
-					broadcastMessage(new CardGameMessage(CardGameMessage.READY,
-							i, null));
-					break;
-				}
-			}
+	DealSeed nextDealSeed() {
+		if (!seedDealing) {
+			return null;
 		}
+		synchronized (seedGenerator) {
+			return new DealSeed(seedGenerator.nextLong(), Deck.SHUFFLE_VERSION);
+		}
+	}
 
-		// checks if all players are ready
-		if (numOfPlayers == maxNumOfPlayers) {
-			for (int i = 0; i < maxNumOfPlayers; i++) {
-				if (clientReadyStates[i] == false) {
-					// returns if any of the players is not ready
-					return;
-				}
-			}
+	/**
+	 * Returns a deck shuffled in the background.
+	 * 
+	 * @return a shuffled deck
+	 */
+	Deck takeDeck() {
+		return deckPool.take();
+	}
 
-			// resets the ready states of all the players for the next game
-			for (int i = 0; i < maxNumOfPlayers; i++) {
-				clientReadyStates[i] = false;
-			}
+	/**
+	 * Returns the scheduler for the timed tasks of the server.
+	 * 
+	 * @return the scheduler
+	 */
+	ScheduledExecutorService getScheduler() {
+		return scheduler;
+	}
 
-			// creates a new deck, shuffles the deck, and starts a new game
-			Deck deck = createDeck();
-			deck.shuffle();
-			println("All players are ready. Game starts.");
-			broadcastMessage(new CardGameMessage(CardGameMessage.START, -1,
-					deck));
-		}
+	/**
+	 * Returns the time for which the seat of a disconnected player is kept.
+	 * 
+	 * @return the grace period in milliseconds
+	 */
+	long getGracePeriod() {
+		return gracePeriod;
+	}
+
+	/**
+	 * Returns the timing wheel driving the turn clocks of all tables.
+	 * 
+	 * @return the timing wheel
+	 */
+	TimingWheel getTimingWheel() {
+		return timingWheel;
+	}
+
+	/**
+	 * Returns the time a player has for each turn.
+	 * 
+	 * @return the turn timeout in milliseconds (0 if disabled)
+	 */
+	long getTurnTimeout() {
+		return turnTimeout;
+	}
+
+	/**
+	 * Returns the time bank of each player for a game.
+	 * 
+	 * @return the time bank in milliseconds
+	 */
+	long getTimeBank() {
+		return timeBank;
+	}
+
+	/**
+	 * Returns true if the tables play continuously.
+	 * 
+	 * @return true if the tables play continuously; false otherwise
+	 */
+	boolean isContinuousPlay() {
+		return continuousPlay;
+	}
+
+	/**
+	 * Returns the time between two games in continuous play.
+	 * 
+	 * @return the pause in milliseconds
+	 */
+	long getRematchPause() {
+		return rematchPause;
+	}
+
+	/**
+	 * Returns true if bots play at the tables.
+	 * 
+	 * @return true if bots play at the tables; false otherwise
+	 */
+	boolean isBotsEnabled() {
+		return botsEnabled;
+	}
+
+	/**
+	 * Returns the time the ready players of a table wait for more players
+	 * before bots fill the empty seats.
+	 * 
+	 * @return the wait in milliseconds
+	 */
+	long getBotWait() {
+		return botWait;
+	}
+
+	/**
+	 * Returns the time a bot takes for each move.
+	 * 
+	 * @return the think time in milliseconds
+	 */
+	long getBotThinkTime() {
+		return botThinkTime;
+	}
+
+	/**
+	 * Returns the max. time a bot may compute for each move.
+	 * 
+	 * @return the budget in milliseconds
+	 */
+	long getBotBudget() {
+		return botBudget;
+	}
+
+	/**
+	 * Returns the no. of unanswered PING messages after which a connection is
+	 * closed.
+	 * 
+	 * @return the max. no. of unanswered PING messages
+	 */
+	int getMaxMissedHeartbeats() {
+		return maxMissedHeartbeats;
 	}
 
 	/**
@@ -364,31 +1420,120 @@ public class CardGameServer {
 		return new Deck();
 	}
 
-	private synchronized void broadcastUserMessage(Socket clientSocket,
-			String msg) {
-		if (numOfPlayers > 0) {
-			// locates the client in the array
-			for (int i = 0; i < maxNumOfPlayers; i++) {
-				if (clientSockets[i] == clientSocket) {
-					String longMsg = clientNames[i] + " ("
-							+ clientSocket.getRemoteSocketAddress() + "): "
-							+ msg;
-					broadcastMessage(new CardGameMessage(CardGameMessage.MSG,
-							i, longMsg));
-					break;
-				}
-			}
-		}
+	/**
+	 * Creates and returns the game state kept by the server. Overrides this
+	 * method if the server should validate moves; by default the server keeps
+	 * no game state and relays every move.
+	 * 
+	 * @return an instance of the CardGame interface, or null
+	 */
+	public CardGame createGame() {
+		return null;
+	}
+
+	/**
+	 * Returns the data of the START message sent to the specified player.
+	 * Overrides this method together with createGame() to send each player a
+	 * private deal; by default every player receives the whole shuffled deck.
+	 * 
+	 * @param game
+	 *            the game state kept by the server, or null
+	 * @param deck
+	 *            the shuffled deck of the new game
+	 * @param playerID
+	 *            the playerID of the player
+	 * @return the data of the START message sent to the player
+	 */
+	public Object dealTo(CardGame game, Deck deck, int playerID) {
+		return deck;
+	}
+
+	/**
+	 * Returns a snapshot of the current game from the view of the specified
+	 * player, sent as the data of a START message to a client resuming the
+	 * game. Overrides this method together with createGame(); by default there
+	 * is no snapshot and the whole game is replayed to the client. Spectators
+	 * are sent the snapshot from the view of no player.
+	 * 
+	 * @param game
+	 *            the game state kept by the server, or null
+	 * @param playerID
+	 *            the playerID of the player, or -1 for a spectator
+	 * @return the snapshot of the game, or null
+	 */
+	public Object snapshotFor(CardGame game, int playerID) {
+		return null;
+	}
+
+	/**
+	 * Checks the move in the specified MOVE message against the game state.
+	 * Overrides this method together with createGame(); by default every move
+	 * is accepted as received.
+	 * 
+	 * @param game
+	 *            the game state kept by the server, or null if a game has not
+	 *            started
+	 * @param message
+	 *            the MOVE message received, with the playerID of the sender
+	 * @return the MOVE message to be broadcast, or null if the move is illegal
+	 */
+	public CardGameMessage checkMove(CardGame game, CardGameMessage message) {
+		return message;
+	}
+
+	/**
+	 * Returns the MOVE message played by the server for a player who has run
+	 * out of time; it is checked by checkMove() like a move received.
+	 * Overrides this method together with createGame(); by default the server
+	 * cannot play for a player, and the turn is left to the player.
+	 * 
+	 * @param game
+	 *            the game state kept by the server
+	 * @param playerID
+	 *            the playerID of the player whose turn it is
+	 * @return the MOVE message, or null if the server cannot play for the
+	 *         player
+	 */
+	public CardGameMessage autoMove(CardGame game, int playerID) {
+		return null;
+	}
+
+	/**
+	 * Creates and returns a bot to play the specified seat. Overrides this
+	 * method together with createGame() and checkMove(); by default there are
+	 * no bots.
+	 * 
+	 * @param seat
+	 *            the seat the bot is going to play
+	 * @return an instance of the CardGameBot interface, or null
+	 */
+	public CardGameBot createBot(int seat) {
+		return null;
 	}
 
 	/**
-	 * Prints the specified message to the text area.
+	 * Prints the specified message to the log (shown by the text area, or the
+	 * standard output if the server is headless).
 	 * 
 	 * @param msg
 	 */
-	private void println(String msg) {
-		textArea.append(msg + "\n");
-		textArea.setCaretPosition(textArea.getDocument().getLength());
+	void println(String msg) {
+		log.log(ServerLog.INFO, msg);
+	}
+
+	/**
+	 * Logs the specified message followed by the specified argument at the
+	 * specified level. The message is only built by the log writer thread.
+	 * 
+	 * @param level
+	 *            the level of the entry
+	 * @param msg
+	 *            the message
+	 * @param arg
+	 *            the argument appended to the message
+	 */
+	void log(int level, String msg, Object arg) {
+		log.log(level, msg, arg);
 	}
 
 	/**
@@ -400,24 +1545,26 @@ public class CardGameServer {
 	private class ClientHandler implements Runnable {
 		private Socket clientSocket; // socket connection to the client
 		private ObjectInputStream oistream; // ObjectInputStream of the client
+		private RateLimiter rateLimiter; // inbound rate limits of the client
+		private ClientConnection connection; // outbound side of the client
 
 		/**
 		 * Creates and returns an instance of the ClientHandler class.
 		 * 
 		 * @param clientSocket
 		 *            the socket connection to the client
+		 * @param oistream
+		 *            the ObjectInputStream chained to the socket
+		 * @param connection
+		 *            the outbound connection to the client
 		 */
-		public ClientHandler(Socket clientSocket) {
+		public ClientHandler(Socket clientSocket, ObjectInputStream oistream,
+				ClientConnection connection) {
 			this.clientSocket = clientSocket;
-			try {
-				// creates an ObjectInputStream and chains it to the InputStream
-				// of the client socket
-				oistream = new ObjectInputStream(clientSocket.getInputStream());
-			} catch (Exception ex) {
-				println("Error in creating an ObjectInputStream for the client at "
-						+ clientSocket.getRemoteSocketAddress());
-				if (!silentMode) ex.printStackTrace();
-			}
+			this.oistream = oistream;
+			this.connection = connection;
+			this.rateLimiter = new RateLimiter(typeRefills, typeBursts,
+					connectionRefill, connectionBurst, maxViolations);
 		} // constructor
 
 		// implementation of method from the Runnable interface
@@ -426,70 +1573,157 @@ public class CardGameServer {
 			try {
 				// waits for messages from the client
 				while ((message = (CardGameMessage) oistream.readObject()) != null) {
-					println("Message received from "
-							+ clientSocket.getRemoteSocketAddress());
-					parseMessage(clientSocket, message);
+					message.setReceivedAt(System.nanoTime());
+					// checks the rate limits before posting to the table
+					int verdict = rateLimiter.check(message.getType());
+					if (verdict != RateLimiter.ACCEPT) {
+						if (message.getType() >= 0
+								&& message.getType() < MAX_MESSAGE_TYPES) {
+							rejectedMessages[message.getType()].increment();
+						}
+						if (verdict == RateLimiter.DISCONNECT) {
+							floodDisconnects.increment();
+							log(ServerLog.WARN, "Disconnects a client flooding the server: ",
+									clientSocket.getRemoteSocketAddress());
+							break;
+						}
+						if (message.getType() == CardGameMessage.MOVE) {
+							// tells the sender the move was not played
+							connection.send(new CardGameMessage(
+									CardGameMessage.ILLEGAL_MOVE, -1,
+									message.getData()));
+						} else if (message.getType() != CardGameMessage.MSG
+								&& message.getType() != CardGameMessage.PONG) {
+							// only chat and heartbeats may be lost unnoticed
+							floodDisconnects.increment();
+							log(ServerLog.WARN, "Disconnects a client exceeding the rate limit: ",
+									clientSocket.getRemoteSocketAddress());
+							break;
+						}
+						continue;
+					}
+					// records heartbeats without posting to the table
+					if (message.getType() == CardGameMessage.PONG) {
+						connection.pong(message);
+						continue;
+					}
+					log(ServerLog.DEBUG, "Message received from ",
+							clientSocket.getRemoteSocketAddress());
+					// hands the message to the table of the client, or
+					// handles it here if the client holds no seat
+					CardGameTable table = connection.getTable();
+					CardGameMessage received = message;
+					if (table != null) {
+						table.post(() -> table.parseMessage(connection,
+								received));
+					} else {
+						parsePendingMessage(connection, received);
+					}
 				} // close while
+				// stops receiving from a client disconnected for flooding
+				removeConnection();
 			} catch (Exception ex) {
-				println("Error in receiving messages from the client at "
-						+ clientSocket.getRemoteSocketAddress());
+				log(ServerLog.INFO, "Error in receiving messages from the client at ",
+						clientSocket.getRemoteSocketAddress());
 				if (!silentMode) ex.printStackTrace();
 				// possible connection loss, removes the connection
-				removeConnection(clientSocket);
+				removeConnection();
 			}
 		} // run
+
+		/**
+		 * Removes the connection from its table, or closes it if it holds no
+		 * seat.
+		 */
+		private void removeConnection() {
+			CardGameTable table = connection.getTable();
+			Matchmaker matchmaker = CardGameServer.this.matchmaker;
+			if (table != null) {
+				table.post(() -> table.removeConnection(connection));
+			} else if (matchmaker != null) {
+				// the matchmaker may be seating the connection meanwhile
+				matchmaker.remove(connection);
+			} else {
+				pendingConnections.remove(connection);
+				connection.close();
+			}
+			forget(connection);
+		} // removeConnection
 	} // ClientHandler
 
-	private class ClientHandler2 implements Runnable {
+	/**
+	 * This inner class is used for performing the handshake of a new
+	 * connection (i.e., exchanging the headers of the object streams) off the
+	 * accepting thread, then finding the connection a seat or telling the
+	 * client that the server is full.
+	 * 
+	 * @author jihoo
+	 *
+	 */
+	private class Handshake implements Runnable {
 		private Socket clientSocket; // socket connection to the client
 
 		/**
-		 * Creates and returns an instance of the ClientHandler2 class.
+		 * Creates and returns an instance of the Handshake class.
 		 * 
 		 * @param clientSocket
 		 *            the socket connection to the client
 		 */
-		public ClientHandler2(Socket clientSocket) {
+		public Handshake(Socket clientSocket) {
 			this.clientSocket = clientSocket;
 		} // constructor
 
 		// implementation of method from the Runnable interface
 		public void run() {
+			ObjectOutputStream oostream;
+			ObjectInputStream oistream;
 			try {
-				// creates an ObjectOutputStream and chains it to the
-				// OutputStream
-				// of the client socket
-				ObjectOutputStream oostream = new ObjectOutputStream(
-						clientSocket.getOutputStream());
-				// sends a FULL message to the client
-				oostream.writeObject(new CardGameMessage(CardGameMessage.FULL,
-						-1, null));
+				// a client which never sends its header is dropped after the
+				// timeout instead of holding this thread forever
+				clientSocket.setSoTimeout(handshakeTimeout);
+				oostream = new ObjectOutputStream(clientSocket.getOutputStream());
 				oostream.flush();
+				oistream = new ObjectInputStream(clientSocket.getInputStream());
+				// heartbeats detect dead connections from now on
+				clientSocket.setSoTimeout(0);
 			} catch (Exception ex) {
-				println("Error in sending a FULL message to the client at "
-						+ clientSocket.getRemoteSocketAddress());
+				log(ServerLog.WARN, "Error in the handshake with the client at ",
+						clientSocket.getRemoteSocketAddress());
 				if (!silentMode) ex.printStackTrace();
+				abort();
+				return;
 			}
 
-			// sleeps for 1000 milliseconds before closing the socket
-			try {
-				Thread.sleep(1000);
-			} catch (Exception ex) {
-				println("Error in sleeping before closing the client socket at "
-						+ clientSocket.getRemoteSocketAddress());
-				if (!silentMode) ex.printStackTrace();
+			ClientConnection connection = new ClientConnection(clientSocket,
+					oostream, rttTime);
+			connection.start();
+			connections.add(connection);
+			connectionsOpened.increment();
+			// a rejected connection is sent a FULL message and closed after
+			// 1000 milliseconds without holding a thread meanwhile
+			if (assign(connection)) {
+				// creates a thread for receiving messages from this client
+				Thread t = new Thread(new ClientHandler(clientSocket, oistream,
+						connection));
+				t.start();
+			} else {
+				forget(connection);
 			}
+		} // run
 
-			// closes the socket
+		/**
+		 * Closes the socket of this connection.
+		 */
+		public void abort() {
 			try {
 				clientSocket.close();
 			} catch (Exception ex) {
-				println("Error in closing the client socket at "
-						+ clientSocket.getRemoteSocketAddress());
+				log(ServerLog.WARN, "Error in closing the client socket at ",
+						clientSocket.getRemoteSocketAddress());
 				if (!silentMode) ex.printStackTrace();
 			}
-		} // run
-	} // ClientHandler2
+		} // abort
+	} // Handshake
 
 	/**
 	 * This inner class is used for handling the Clear menu
@@ -499,10 +1733,35 @@ public class CardGameServer {
 	 */
 	private class ClearMenuItemListener implements ActionListener {
 		public void actionPerformed(ActionEvent e) {
+			log.clearTail();
 			textArea.setText("");
 		}
 	} // ClearMenuItemListener
 
+	/**
+	 * This inner class is used for handling the Connection stats menu
+	 * 
+	 * @author jihoo
+	 *
+	 */
+	private class StatsMenuItemListener implements ActionListener {
+		public void actionPerformed(ActionEvent e) {
+			printConnectionStats();
+		}
+	} // StatsMenuItemListener
+
+	/**
+	 * This inner class is used for handling the Latency trace menu
+	 * 
+	 * @author jihoo
+	 *
+	 */
+	private class TraceMenuItemListener implements ActionListener {
+		public void actionPerformed(ActionEvent e) {
+			printLatencyTrace();
+		}
+	} // TraceMenuItemListener
+
 	/**
 	 * This inner class is used for handling the Quit menu
 	 * 
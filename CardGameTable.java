@@ -0,0 +1,1662 @@
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * This class is used to model a table of a card game server. A table is an
+ * actor: everything happening at the table is posted to its mailbox as a task,
+ * and the tasks are run one at a time on a thread of a shared pool. The state
+ * of a table (its seats, sessions and game) is therefore only touched by one
+ * thread at a time without any lock, while different tables run in parallel.
+ *
+ * @author jihoo
+ */
+public class CardGameTable {
+	// max. no. of tasks run in one turn before the thread is handed back to
+	// the pool, so that a busy table cannot starve the other tables
+	private static final int MAX_TASKS_PER_TURN = 64;
+
+	private final CardGameServer server; // the server hosting this table
+	private final int id; // the id of this table
+	private final int maxNumOfPlayers; // max. no. of players at this table
+	private final Executor executor; // the pool running the tables
+	// tasks waiting to be run by this table
+	private final ConcurrentLinkedQueue<Runnable> mailbox = new ConcurrentLinkedQueue<Runnable>();
+	// a boolean indicating if this table is scheduled on the pool
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	// no. of seats neither taken nor reserved; updated from any thread
+	private final AtomicInteger freeSeats;
+	// no. of seats kept for disconnected players; written by this table only
+	private volatile int keptSeats = 0;
+
+	// Array for holding connections of the players
+	private final ClientConnection[] connections;
+	// Array for holding player names
+	private final String[] names;
+	// Array for holding ready states of the players
+	private final boolean[] readyStates;
+	// Array for holding session tokens of the players who have joined
+	private final String[] sessionTokens;
+	// Array for holding timers releasing the seats of disconnected players
+	private final ScheduledFuture<?>[] graceTimers;
+	// Array for holding remote addresses of disconnected players
+	private final String[] lostAddresses;
+	// START messages sent to each player in the current game
+	private final CardGameMessage[] startMessages;
+	// number of current players (including disconnected players whose seats
+	// are kept)
+	private int numOfPlayers = 0;
+	// sequence number of the last START or MOVE message
+	private long sequence = 0;
+	// sequence number of the START message of the current game (0 if none)
+	private long startSequence = 0;
+	// MOVE messages accepted in the current game
+	private final ArrayList<CardGameMessage> moveLog = new ArrayList<CardGameMessage>();
+	// the game state kept by the table, or null if moves are just relayed
+	private CardGame game = null;
+	// a boolean indicating if a game is in progress at this table
+	private boolean gameInProgress = false;
+	// the timer dealing the next game in continuous play, or null if none
+	private TimingWheel.Timeout rematchTimer = null;
+	// the bot playing each seat, or null if none; a bot either stands in for
+	// a disconnected player whose seat is kept, or holds the seat itself (with
+	// no session token), which a new player may take between games
+	private final CardGameBot[] bots;
+	// no. of seats held by bots
+	private volatile int botSeats = 0;
+	// new connections waiting to take a seat held by a bot when the current
+	// game ends
+	private final ArrayDeque<ClientConnection> claimants = new ArrayDeque<ClientConnection>();
+	// the timer filling the empty seats with bots, or null if none
+	private TimingWheel.Timeout botFillTimer = null;
+	/**
+	 * Stage of the latency trace from the receipt of a message to its handling
+	 * by the table.
+	 */
+	static final int TRACE_RECEIVE = 0;
+	/**
+	 * Stage of the latency trace from the start to the end of the handling of a
+	 * message.
+	 */
+	static final int TRACE_PARSE = 1;
+	/**
+	 * Stage of the latency trace from the receipt of a message to the queuing
+	 * of the message it causes to be broadcast.
+	 */
+	static final int TRACE_ENQUEUE = 2;
+	/**
+	 * Stage of the latency trace from the queuing of a broadcast message to its
+	 * write to the socket of each client.
+	 */
+	static final int TRACE_WRITE = 3;
+	// the timer of the current turn, or null if the turn is not timed
+	private TimingWheel.Timeout turnTimer = null;
+	// the seat whose turn is timed, and the time (System.nanoTime()) the turn
+	// started
+	private int turnSeat = -1;
+	private long turnStart = 0;
+	// the turn timeout (in nanoseconds) of the current turn
+	private long turnTimeout = 0;
+	// the time (in nanoseconds) left in the time bank of each seat for the
+	// current game
+	private final long[] timeBanks;
+	// latency of the stages a message goes through at this table
+	private final LatencyTrace trace = new LatencyTrace("receive", "parse",
+			"enqueue", "write");
+	// the events of this table for its spectators
+	private final SpectatorFeed spectatorFeed;
+	// the END message of the last game played to the end, or null if a game
+	// has been started since
+	private CardGameMessage lastEnd = null;
+	// the replay record of the current game, or null if none is kept
+	private ReplayRecord replay = null;
+	// the mask of the hand dealt to each seat in the current game, or null
+	// if the server keeps no game state
+	private long[] dealMasks = null;
+
+	/**
+	 * Creates and returns an instance of the CardGameTable class.
+	 *
+	 * @param server
+	 *            the server hosting this table
+	 * @param id
+	 *            the id of this table
+	 * @param maxNumOfPlayers
+	 *            the max. no. of players at this table
+	 * @param executor
+	 *            the pool running the tables
+	 */
+	public CardGameTable(CardGameServer server, int id, int maxNumOfPlayers,
+			Executor executor) {
+		this.server = server;
+		this.id = id;
+		this.maxNumOfPlayers = maxNumOfPlayers;
+		this.executor = executor;
+		this.freeSeats = new AtomicInteger(maxNumOfPlayers);
+		connections = new ClientConnection[maxNumOfPlayers];
+		names = new String[maxNumOfPlayers];
+		readyStates = new boolean[maxNumOfPlayers];
+		sessionTokens = new String[maxNumOfPlayers];
+		graceTimers = new ScheduledFuture<?>[maxNumOfPlayers];
+		lostAddresses = new String[maxNumOfPlayers];
+		startMessages = new CardGameMessage[maxNumOfPlayers];
+		timeBanks = new long[maxNumOfPlayers];
+		bots = new CardGameBot[maxNumOfPlayers];
+		spectatorFeed = new SpectatorFeed(server.getSpectatorHub(), 1024);
+	}
+
+	/**
+	 * Returns the id of this table.
+	 *
+	 * @return the id of this table
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Posts the specified task to the mailbox of this table. The task is run
+	 * after every task posted before it, and never at the same time as another
+	 * task of this table. May be called from any thread.
+	 *
+	 * @param task
+	 *            the task to be run by this table
+	 */
+	public void post(Runnable task) {
+		mailbox.add(task);
+		if (scheduled.compareAndSet(false, true)) {
+			executor.execute(this::drain);
+		}
+	}
+
+	/**
+	 * Returns the no. of tasks waiting in the mailbox of this table. May be
+	 * called from any thread.
+	 *
+	 * @return the no. of waiting tasks
+	 */
+	public int getMailboxSize() {
+		return mailbox.size();
+	}
+
+	/**
+	 * Reserves a free seat for a new connection. The connection must then be
+	 * posted to this table with attach(). May be called from any thread.
+	 *
+	 * @return true if a seat has been reserved; false if the table is full
+	 */
+	public boolean reserveSeat() {
+		int free;
+		do {
+			free = freeSeats.get();
+			if (free == 0) {
+				return false;
+			}
+		} while (!freeSeats.compareAndSet(free, free - 1));
+		return true;
+	}
+
+	/**
+	 * Reserves the specified no. of seats at this table if it is empty (or
+	 * only bots are seated), e.g. for a group of players formed by the
+	 * matchmaker. May be called from any thread.
+	 *
+	 * @param seats
+	 *            the no. of seats
+	 * @return true if the seats have been reserved; false otherwise
+	 */
+	public boolean reserveSeats(int seats) {
+		return freeSeats.compareAndSet(maxNumOfPlayers, maxNumOfPlayers
+				- seats);
+	}
+
+	/**
+	 * Returns true if a seat of this table is kept for a disconnected player.
+	 * May be called from any thread.
+	 *
+	 * @return true if a seat is kept; false otherwise
+	 */
+	public boolean hasKeptSeat() {
+		return keptSeats > 0;
+	}
+
+	/**
+	 * Returns the no. of seats held by bots. May be called from any thread.
+	 *
+	 * @return the no. of seats held by bots
+	 */
+	public int getBotSeats() {
+		return botSeats;
+	}
+
+	// runs the waiting tasks, then gives the thread back to the pool
+	private void drain() {
+		Runnable task;
+		for (int n = 0; n < MAX_TASKS_PER_TURN
+				&& (task = mailbox.poll()) != null; n++) {
+			try {
+				task.run();
+			} catch (RuntimeException ex) {
+				server.log(ServerLog.ERROR, "Error in table " + id + ": ", ex);
+				if (!server.silentMode) ex.printStackTrace();
+			}
+		}
+		scheduled.set(false);
+		// reschedules if tasks were posted after the last poll
+		if (!mailbox.isEmpty() && scheduled.compareAndSet(false, true)) {
+			executor.execute(this::drain);
+		}
+	} // drain
+
+	/*
+	 * The methods below are only called by tasks run by this table.
+	 */
+
+	/**
+	 * Seats a new connection, for which a seat has been reserved, and sends it
+	 * the player list. If the only seats left are held by bots playing the
+	 * current game, the connection waits for the game to end.
+	 *
+	 * @param connection
+	 *            the connection to be seated
+	 */
+	void attach(ClientConnection connection) {
+		int i = findSeat();
+		if (i < 0) {
+			// every seat left is held by a bot playing the current game
+			claimants.add(connection);
+			server.println("A client at "
+					+ connection.getSocket().getRemoteSocketAddress()
+					+ " waits for a seat held by a bot at table " + id + ".");
+			return;
+		}
+		seat(connection, i);
+	} // attach
+
+	/**
+	 * Seats a connection placed by a gateway at the specified seat, or rejects
+	 * it if the seat is taken.
+	 *
+	 * @param connection
+	 *            the connection to be seated
+	 * @param i
+	 *            the seat named by the gateway
+	 */
+	void place(ClientConnection connection, int i) {
+		if (connections[i] != null || sessionTokens[i] != null
+				|| (bots[i] != null && gameInProgress) || !reserveSeat()) {
+			connection.setTable(null);
+			server.reject(connection);
+			return;
+		}
+		seat(connection, i);
+	} // place
+
+	/**
+	 * Returns the first empty seat, or else the first seat held by a bot if no
+	 * game is in progress.
+	 *
+	 * @return the seat, or -1 if there is none
+	 */
+	private int findSeat() {
+		for (int i = 0; i < maxNumOfPlayers; i++) {
+			if (connections[i] == null && sessionTokens[i] == null
+					&& bots[i] == null) {
+				return i;
+			}
+		}
+		for (int i = 0; !gameInProgress && i < maxNumOfPlayers; i++) {
+			if (isBotSeat(i)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Seats a new connection at the specified seat, taking it from its bot if
+	 * needed, and sends it the player list.
+	 *
+	 * @param connection
+	 *            the connection to be seated
+	 * @param i
+	 *            the seat
+	 */
+	private void seat(ClientConnection connection, int i) {
+		if (isBotSeat(i)) {
+			removeBot(i);
+		}
+		connections[i] = connection;
+		connection.setSeat(i);
+		names[i] = null;
+		readyStates[i] = false;
+		numOfPlayers++;
+		server.println("Establishes a connection with a client at "
+				+ connection.getSocket().getRemoteSocketAddress()
+				+ " (table " + id + ")");
+
+		// sends the player list to the new player (a copy, as the message is
+		// written later by the writer thread)
+		connection.send(new CardGameMessage(CardGameMessage.PLAYER_LIST, i,
+				names.clone()));
+	} // seat
+
+	// seats the connections waiting for a seat held by a bot, as far as seats
+	// are available
+	private void seatClaimants() {
+		int i;
+		while (!claimants.isEmpty() && (i = findSeat()) >= 0) {
+			seat(claimants.poll(), i);
+		}
+	}
+
+	/**
+	 * Parses the incoming message from the specified connection.
+	 *
+	 * @param connection
+	 *            the connection to the client
+	 * @param message
+	 *            the message received from the client, stamped with the time
+	 *            it was received
+	 */
+	void parseMessage(ClientConnection connection, CardGameMessage message) {
+		if (message.getType() == CardGameMessage.RESUME
+				&& claimants.remove(connection)) {
+			// gives back the seat reserved for the connection, which resumes
+			// a kept seat instead
+			freeSeats.incrementAndGet();
+			resume(connection, message);
+			return;
+		}
+		if (!isSeated(connection)) {
+			forward(connection, table -> table.parseMessage(connection,
+					message));
+			return;
+		}
+		GameEvents.ServerMessage event = new GameEvents.ServerMessage();
+		event.begin();
+		long startTime = System.nanoTime();
+		long receivedAt = message.getReceivedAt();
+		trace.record(TRACE_RECEIVE, startTime - receivedAt);
+		int type = message.getType();
+		int seat = connection.getSeat();
+		if (type >= 0 && type < server.receivedMessages.length) {
+			server.receivedMessages[type].increment();
+		}
+		// events raised while handling the message carry its table, seat and
+		// type
+		GameEvents.enter(id, seat, type);
+		try {
+			handleMessage(connection, message);
+		} finally {
+			GameEvents.exit();
+		}
+		long endTime = System.nanoTime();
+		server.messageTime.record(endTime - startTime);
+		trace.record(TRACE_PARSE, endTime - startTime);
+		event.end();
+		if (event.shouldCommit()) {
+			event.table = id;
+			event.seat = seat;
+			event.type = type;
+			event.queueTime = startTime - receivedAt;
+			event.commit();
+		}
+	} // parseMessage
+
+	// handles a message from a seated connection
+	private void handleMessage(ClientConnection connection,
+			CardGameMessage message) {
+		int seat = connection.getSeat();
+		// updates the playerID
+		message.setPlayerID(seat);
+
+		// parses the message based on it type
+		switch (message.getType()) {
+		case CardGameMessage.JOIN:
+			// adds a player to the game
+			addPlayer(seat, (String) message.getData());
+			break;
+		case CardGameMessage.READY:
+			// marks the specified player as ready for a new game
+			setReadyState(seat);
+			break;
+		case CardGameMessage.MOVE:
+			// validates the move once against the game state of the table
+			long validationStart = System.nanoTime();
+			CardGameMessage accepted = server.checkMove(game, message);
+			server.moveValidationTime.record(System.nanoTime()
+					- validationStart);
+			if (accepted == null) {
+				server.log(ServerLog.INFO, "Rejects an illegal move from ",
+						connection.getSocket().getRemoteSocketAddress());
+				// tells only the sender that the move is illegal
+				CardGameMessage illegal = new CardGameMessage(
+						CardGameMessage.ILLEGAL_MOVE, seat, message.getData());
+				illegal.copyTrace(message, System.nanoTime()
+						- message.getReceivedAt());
+				connection.send(illegal);
+				break;
+			}
+			server.log(ServerLog.DEBUG, "Broadcasts a \"MOVE\" message from ",
+					connection.getSocket().getRemoteSocketAddress());
+			traceReply(message, accepted);
+			acceptMove(accepted);
+			break;
+		case CardGameMessage.MSG:
+			server.log(ServerLog.DEBUG, "Broadcasts a user message from ",
+					connection.getSocket().getRemoteSocketAddress());
+			// broadcast the user message to all clients
+			broadcastUserMessage(message);
+			break;
+		case CardGameMessage.RESUME:
+			resume(connection, message);
+			break;
+		default:
+			server.log(ServerLog.WARN, "Wrong message type: ",
+					message.getType());
+			// invalid message
+			break;
+		}
+	} // handleMessage
+
+	/**
+	 * Moves a client to its kept seat, at this table or another.
+	 *
+	 * @param connection
+	 *            the connection to the client, which holds either a new seat
+	 *            at this table or no seat at all
+	 * @param message
+	 *            the RESUME message received from the client
+	 */
+	private void resume(ClientConnection connection, CardGameMessage message) {
+		CardGameTable target = server.findSession(message.getData());
+		if (target == this || target == null) {
+			resumeSession(connection, message);
+		} else {
+			if (isSeated(connection)) {
+				vacate(connection.getSeat());
+			}
+			connection.setTable(target);
+			target.post(() -> target.resumeSession(connection, message));
+		}
+	} // resume
+
+	/**
+	 * Broadcasts the specified message to all players at this table. The
+	 * message is queued on the outbound connection of each player, where game
+	 * messages go ahead of chat messages.
+	 *
+	 * @param message
+	 *            the specified message to be broadcast
+	 */
+	private void broadcastMessage(CardGameMessage message) {
+		long startTime = System.nanoTime();
+		message.setEnqueuedAt(startTime);
+		int recipients = 0;
+		for (int i = 0; i < maxNumOfPlayers; i++) {
+			if (connections[i] != null) {
+				recipients++;
+				if (!connections[i].send(message)) {
+					server.log(ServerLog.WARN,
+							"Error in broadcasting a message to the client at ",
+							connections[i].getSocket().getRemoteSocketAddress());
+				}
+			}
+		}
+		server.broadcastRecipients.add(recipients);
+		server.broadcastTime.record(System.nanoTime() - startTime);
+		// START messages reveal the hands (or the seed dealing them), so
+		// spectators get their own from startGame(); chat is not for them
+		if (message.getType() != CardGameMessage.START
+				&& !MessageQueue.isChat(message)) {
+			spectatorFeed.publish(message);
+		}
+	} // broadcastMessage
+
+	private void broadcastUserMessage(CardGameMessage message) {
+		int seat = message.getPlayerID();
+		String longMsg = names[seat] + " ("
+				+ connections[seat].getSocket().getRemoteSocketAddress()
+				+ "): " + message.getData();
+		CardGameMessage reply = new CardGameMessage(CardGameMessage.MSG, seat,
+				longMsg);
+		traceReply(message, reply);
+		broadcastMessage(reply);
+	}
+
+	/**
+	 * Numbers and keeps an accepted move for resuming clients, broadcasts it to
+	 * all clients, and starts the clock of the next turn.
+	 *
+	 * @param accepted
+	 *            the accepted MOVE message
+	 */
+	private void acceptMove(CardGameMessage accepted) {
+		stopTurnClock();
+		accepted.setSequence(++sequence);
+		moveLog.add(accepted);
+		if (replay != null) {
+			replay.move(accepted.getPlayerID(), (CardList) accepted.getData());
+		}
+		if (game != null) {
+			journal(RecoveryLog.move(id, accepted.getPlayerID(),
+					(CardList) accepted.getData()));
+		}
+		broadcastMessage(accepted);
+		if (game != null && game.endOfGame()) {
+			server.gamesFinished.increment();
+			gameInProgress = false;
+			int winner = winner();
+			publishEnd(winner);
+			endReplay(winner);
+			recordGame(winner);
+			// new players may now take the seats held by bots
+			seatClaimants();
+			if (server.isContinuousPlay()) {
+				scheduleRematch();
+			}
+		} else {
+			startTurn();
+		}
+	} // acceptMove
+
+	// tells the spectators the result of the game which has just ended
+	private void publishEnd(int winner) {
+		int[] numOfCards = new int[maxNumOfPlayers];
+		for (int i = 0; i < maxNumOfPlayers; i++) {
+			numOfCards[i] = game.getPlayerList().get(i).getNumOfCards();
+		}
+		lastEnd = new CardGameMessage(CardGameMessage.END, winner, numOfCards);
+		lastEnd.setSequence(sequence);
+		spectatorFeed.publish(lastEnd);
+	}
+
+	// returns the seat of the player who has played all his/her cards, or
+	// -1 if none
+	private int winner() {
+		for (int i = 0; i < maxNumOfPlayers; i++) {
+			if (game.getPlayerList().get(i).getNumOfCards() == 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Passes the result of the game which has just ended on to the server,
+	 * e.g. for rating the players.
+	 *
+	 * @param winner
+	 *            the seat of the winner, or -1 if none
+	 */
+	private void recordGame(int winner) {
+		if (winner < 0) {
+			return;
+		}
+		String[] players = new String[maxNumOfPlayers];
+		for (int i = 0; i < maxNumOfPlayers; i++) {
+			if (!isBotSeat(i)) {
+				players[i] = names[i];
+			}
+		}
+		server.recordGame(players, winner);
+	} // recordGame
+
+	/**
+	 * Appends the replay record of the current game, if any, to the replay
+	 * log of the server.
+	 *
+	 * @param winner
+	 *            the seat of the winner, or -1 if the game was abandoned
+	 */
+	private void endReplay(int winner) {
+		if (replay == null) {
+			return;
+		}
+		try {
+			server.getReplayLog().append(replay.finish(winner));
+		} catch (IOException ex) {
+			server.log(ServerLog.WARN, "Error in appending to the replay log: ",
+					ex);
+		}
+		replay = null;
+	} // endReplay
+
+	/**
+	 * Schedules the next game to be dealt after the rematch pause, without
+	 * waiting for the players to be ready.
+	 */
+	private void scheduleRematch() {
+		rematchTimer = server.getTimingWheel().schedule(
+				() -> post(this::rematch), server.getRematchPause(),
+				TimeUnit.MILLISECONDS);
+	} // scheduleRematch
+
+	/**
+	 * Deals the next game in continuous play, unless a new game has started
+	 * or a player has left in the meantime.
+	 */
+	private void rematch() {
+		if (rematchTimer == null || gameInProgress) {
+			return;
+		}
+		rematchTimer = null;
+		if (numOfPlayers == botSeats) {
+			// bots do not play on their own
+			for (int i = 0; i < maxNumOfPlayers; i++) {
+				if (isBotSeat(i)) {
+					removeBot(i);
+				}
+			}
+			return;
+		}
+		if (numOfPlayers < maxNumOfPlayers) {
+			// waits for the players to be ready as usual
+			return;
+		}
+		server.println("Deals the next game at table " + id + ".");
+		startGame();
+	} // rematch
+
+	/**
+	 * Starts the turn of the current player: his/her turn clock, and the move
+	 * of the bot playing the seat, if any.
+	 */
+	private void startTurn() {
+		startTurnClock();
+		scheduleBotMove();
+	} // startTurn
+
+	/**
+	 * Starts the clock of the current player, who has the turn timeout plus
+	 * whatever is left in his/her time bank. The timer is scheduled on the
+	 * timing wheel shared by all tables, and expires by posting to this table.
+	 */
+	private void startTurnClock() {
+		long timeout = TimeUnit.MILLISECONDS.toNanos(server.getTurnTimeout());
+		if (game == null || timeout <= 0 || game.endOfGame()) {
+			return;
+		}
+		turnSeat = game.getCurrentPlayerIdx();
+		turnStart = System.nanoTime();
+		turnTimeout = timeout;
+		long turn = sequence;
+		turnTimer = server.getTimingWheel().schedule(
+				() -> post(() -> expireTurn(turn)),
+				timeout + timeBanks[turnSeat], TimeUnit.NANOSECONDS);
+	} // startTurnClock
+
+	/**
+	 * Stops the clock of the current turn, drawing the time taken beyond the
+	 * turn timeout from the time bank of the player.
+	 */
+	private void stopTurnClock() {
+		if (turnTimer == null) {
+			return;
+		}
+		turnTimer.cancel();
+		turnTimer = null;
+		long overtime = System.nanoTime() - turnStart - turnTimeout;
+		if (overtime > 0) {
+			timeBanks[turnSeat] = Math.max(0, timeBanks[turnSeat] - overtime);
+		}
+	} // stopTurnClock
+
+	/**
+	 * Plays a move for a player who has run out of time, unless the turn has
+	 * been played in the meantime.
+	 *
+	 * @param turn
+	 *            the sequence number of the last START or MOVE message when
+	 *            the turn started
+	 */
+	private void expireTurn(long turn) {
+		if (turn != sequence || turnTimer == null) {
+			return;
+		}
+		turnTimer = null;
+		timeBanks[turnSeat] = 0;
+		CardGameMessage accepted = checkServerMove(null, turnSeat);
+		if (accepted == null) {
+			server.log(ServerLog.WARN,
+					"Cannot play for a player out of time at table ", id);
+			return;
+		}
+		server.turnTimeouts.increment();
+		server.println((names[turnSeat] == null ? "Player " + turnSeat
+				: names[turnSeat]) + " runs out of time at table " + id
+				+ "; the server plays for him/her.");
+		acceptMove(accepted);
+	} // expireTurn
+
+	/**
+	 * Checks a move played by the server for a player, falling back on the
+	 * move given by autoMove() if there is no such move or it is illegal.
+	 *
+	 * @param move
+	 *            the MOVE message, or null if none
+	 * @param seat
+	 *            the seat of the player
+	 * @return the MOVE message to be broadcast, or null if the server cannot
+	 *         play for the player
+	 */
+	private CardGameMessage checkServerMove(CardGameMessage move, int seat) {
+		CardGameMessage accepted = move == null ? null : server.checkMove(
+				game, move);
+		if (accepted == null) {
+			move = server.autoMove(game, seat);
+			accepted = move == null ? null : server.checkMove(game, move);
+		}
+		return accepted;
+	}
+
+	/**
+	 * Schedules the move of the bot playing the seat of the current player,
+	 * if any, after the think time of the bots.
+	 */
+	private void scheduleBotMove() {
+		if (game == null || game.endOfGame()
+				|| bots[game.getCurrentPlayerIdx()] == null) {
+			return;
+		}
+		long turn = sequence;
+		server.getTimingWheel().schedule(() -> post(() -> playBot(turn)),
+				server.getBotThinkTime(), TimeUnit.MILLISECONDS);
+	} // scheduleBotMove
+
+	/**
+	 * Lets the bot playing the seat of the current player move, unless the
+	 * turn has been played or the player has come back in the meantime.
+	 *
+	 * @param turn
+	 *            the sequence number of the last START or MOVE message when
+	 *            the turn started
+	 */
+	private void playBot(long turn) {
+		if (turn != sequence || game == null || game.endOfGame()) {
+			return;
+		}
+		int seat = game.getCurrentPlayerIdx();
+		CardGameBot bot = bots[seat];
+		if (bot == null) {
+			return;
+		}
+		long deadline = System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(server.getBotBudget());
+		CardGameMessage accepted = checkServerMove(
+				bot.play(game, seat, deadline), seat);
+		if (accepted == null) {
+			server.log(ServerLog.WARN, "Cannot play for a bot at table ", id);
+			return;
+		}
+		server.botMoves.increment();
+		acceptMove(accepted);
+	} // playBot
+
+	/**
+	 * Fills the empty seats with bots and starts a new game, if the players
+	 * at this table are all ready but too few. Does nothing if bots are
+	 * disabled.
+	 */
+	private void fillWithBots() {
+		botFillTimer = null;
+		if (gameInProgress || rematchTimer != null || numOfPlayers == botSeats
+				|| numOfPlayers == maxNumOfPlayers || !allReady()) {
+			return;
+		}
+		for (int i = 0; i < maxNumOfPlayers; i++) {
+			if (connections[i] == null && sessionTokens[i] == null
+					&& bots[i] == null) {
+				CardGameBot bot = server.createBot(i);
+				if (bot == null) {
+					return;
+				}
+				bots[i] = bot;
+				botSeats++;
+				names[i] = bot.getName();
+				readyStates[i] = true;
+				numOfPlayers++;
+				journal(RecoveryLog.bot(id, i, names[i]));
+				server.println(names[i] + " takes seat " + i + " at table "
+						+ id + ".");
+				broadcastMessage(new CardGameMessage(CardGameMessage.JOIN, i,
+						names[i]));
+				broadcastMessage(new CardGameMessage(CardGameMessage.READY, i,
+						null));
+			}
+		}
+		if (numOfPlayers == maxNumOfPlayers) {
+			server.println("All players are ready at table " + id + ".");
+			startGame();
+		}
+	} // fillWithBots
+
+	/**
+	 * Hands the seat of a player who has left over to a bot, which keeps the
+	 * current game going. A new player may take the seat between games.
+	 *
+	 * @param i
+	 *            the seat
+	 * @return false if bots are disabled; true otherwise
+	 */
+	private boolean replaceWithBot(int i) {
+		CardGameBot bot = bots[i] != null ? bots[i] : server.isBotsEnabled()
+				? server.createBot(i) : null;
+		if (bot == null) {
+			return false;
+		}
+		server.println(names[i] + " leaves the game. " + bot.getName()
+				+ " takes seat " + i + " at table " + id + ".");
+		if (sessionTokens[i] != null) {
+			server.endSession(sessionTokens[i]);
+		}
+		sessionTokens[i] = null;
+		graceTimers[i] = null;
+		bots[i] = bot;
+		botSeats++;
+		names[i] = bot.getName();
+		readyStates[i] = true;
+		freeSeats.incrementAndGet();
+		journal(RecoveryLog.bot(id, i, names[i]));
+		broadcastMessage(new CardGameMessage(CardGameMessage.JOIN, i, names[i]));
+		if (game != null && game.getCurrentPlayerIdx() == i) {
+			scheduleBotMove();
+		}
+		return true;
+	} // replaceWithBot
+
+	/**
+	 * Removes the bot holding the specified seat, e.g. for a new player.
+	 *
+	 * @param i
+	 *            the seat
+	 */
+	private void removeBot(int i) {
+		server.println(names[i] + " leaves seat " + i + " at table " + id + ".");
+		bots[i] = null;
+		botSeats--;
+		names[i] = null;
+		readyStates[i] = false;
+		numOfPlayers--;
+		journal(RecoveryLog.free(id, i));
+		broadcastMessage(new CardGameMessage(CardGameMessage.QUIT, i, null));
+	} // removeBot
+
+	// returns true if the seat is held by a bot (not standing in for a player
+	// whose seat is kept)
+	private boolean isBotSeat(int i) {
+		return bots[i] != null && sessionTokens[i] == null;
+	}
+
+	// returns true if every occupied seat is ready
+	private boolean allReady() {
+		for (int i = 0; i < maxNumOfPlayers; i++) {
+			if ((connections[i] != null || sessionTokens[i] != null
+					|| bots[i] != null) && !readyStates[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// passes the trace context of a received message on to the message it
+	// causes to be broadcast, and records the time the table took to get there
+	private void traceReply(CardGameMessage message, CardGameMessage reply) {
+		long serverTime = System.nanoTime() - message.getReceivedAt();
+		reply.copyTrace(message, serverTime);
+		trace.record(TRACE_ENQUEUE, serverTime);
+	}
+
+	/**
+	 * Returns the events of this table for its spectators.
+	 *
+	 * @return the spectator feed of this table
+	 */
+	SpectatorFeed getSpectatorFeed() {
+		return spectatorFeed;
+	}
+
+	/**
+	 * Publishes a snapshot of this table for its spectators: the names of the
+	 * players, and the current game from the view of no player.
+	 */
+	void publishSpectatorSnapshot() {
+		CardGameMessage players = new CardGameMessage(
+				CardGameMessage.PLAYER_LIST, -1, names.clone());
+		if (!gameInProgress) {
+			if (lastEnd != null) {
+				spectatorFeed.publishSnapshot(players, lastEnd);
+			} else {
+				spectatorFeed.publishSnapshot(players);
+			}
+			return;
+		}
+		CardGameMessage start = new CardGameMessage(CardGameMessage.START, -1,
+				server.snapshotFor(game, -1));
+		start.setSequence(sequence);
+		spectatorFeed.publishSnapshot(players, start);
+	}
+
+	/**
+	 * Returns the latency of the stages the messages go through at this
+	 * table. The trace is thread-safe.
+	 *
+	 * @return the latency trace of this table
+	 */
+	LatencyTrace getLatencyTrace() {
+		return trace;
+	}
+
+	/**
+	 * Removes a connection from this table (possibly due to connection loss).
+	 *
+	 * @param connection
+	 *            the connection being removed
+	 */
+	void removeConnection(ClientConnection connection) {
+		if (claimants.remove(connection)) {
+			// gives back the seat reserved for the connection
+			connection.close();
+			freeSeats.incrementAndGet();
+			return;
+		}
+		if (!isSeated(connection)) {
+			forward(connection, table -> table.removeConnection(connection));
+			return;
+		}
+		int i = connection.getSeat();
+		String remoteAddress = connection.getSocket().getRemoteSocketAddress()
+				.toString();
+		connection.close();
+		connections[i] = null;
+
+		long gracePeriod = server.getGracePeriod();
+		if (sessionTokens[i] != null && gracePeriod > 0) {
+			// keeps the seat for a while in case the player reconnects
+			lostAddresses[i] = remoteAddress;
+			keptSeats++;
+			String token = sessionTokens[i];
+			graceTimers[i] = server.getScheduler().schedule(
+					() -> post(() -> releaseSeat(i, token)), gracePeriod,
+					TimeUnit.MILLISECONDS);
+			server.println(names[i] + " (" + remoteAddress
+					+ ") loses connection. The seat is kept for "
+					+ gracePeriod + " ms.");
+			if (gameInProgress && server.isBotsEnabled()) {
+				standIn(i);
+			}
+		} else if (!gameInProgress || !replaceWithBot(i)) {
+			freeSeat(i, remoteAddress);
+		}
+	} // removeConnection
+
+	/**
+	 * Lets a bot play the kept seat of a disconnected player in the current
+	 * game, until the player resumes the game.
+	 *
+	 * @param i
+	 *            the kept seat
+	 */
+	private void standIn(int i) {
+		bots[i] = server.createBot(i);
+		if (bots[i] != null && game != null
+				&& game.getCurrentPlayerIdx() == i) {
+			scheduleBotMove();
+		}
+	}
+
+	/**
+	 * Sends a PING message to every connected player, and closes the
+	 * connections which have missed too many PING messages. A closed
+	 * connection is then removed like any lost connection.
+	 */
+	void heartbeat() {
+		for (int i = 0; i < maxNumOfPlayers; i++) {
+			if (connections[i] != null) {
+				int missed = connections[i].ping();
+				if (missed >= server.getMaxMissedHeartbeats()) {
+					server.println(names[i] + " ("
+							+ connections[i].getSocket().getRemoteSocketAddress()
+							+ ") misses " + missed + " heartbeats.");
+					connections[i].close();
+				}
+			}
+		}
+	} // heartbeat
+
+	/**
+	 * Returns the round-trip time statistics of every connected player at this
+	 * table.
+	 *
+	 * @return a multi-line string with one line per connected player
+	 */
+	String getConnectionStats() {
+		StringBuilder stats = new StringBuilder();
+		for (int i = 0; i < maxNumOfPlayers; i++) {
+			if (connections[i] != null) {
+				ClientConnection connection = connections[i];
+				stats.append(String.format(
+						"Table %d player %d %s (%s): rtt ewma=%.2f ms, %s ms, queued=%d, dropped chats=%d%n",
+						id, i, names[i],
+						connection.getSocket().getRemoteSocketAddress(),
+						connection.getRttEwma() / 1e6,
+						connection.getRttHistogram().summary(1e6),
+						connection.getQueueSize(),
+						connection.getDroppedChats()));
+			}
+		}
+		return stats.toString();
+	}
+
+	/**
+	 * Moves a reconnecting client back to the seat kept for its session at this
+	 * table, and sends it what it missed: the remaining MOVE messages if it
+	 * still has the current game, or else a snapshot (or the START message and
+	 * all MOVE messages) of the current game.
+	 *
+	 * @param connection
+	 *            the connection to the reconnecting client, which holds either
+	 *            a new seat at this table or no seat at all
+	 * @param message
+	 *            the RESUME message received from the client
+	 */
+	void resumeSession(ClientConnection connection, CardGameMessage message) {
+		// locates the kept seat of the session
+		int seat = -1;
+		for (int i = 0; i < maxNumOfPlayers; i++) {
+			if (connections[i] == null && sessionTokens[i] != null
+					&& sessionTokens[i].equals(message.getData())) {
+				seat = i;
+				break;
+			}
+		}
+
+		if (seat < 0) {
+			// the session cannot be resumed; the client joins as a new player
+			connection.send(new CardGameMessage(CardGameMessage.RESUME, -1,
+					null));
+			if (isSeated(connection)) {
+				connection.send(new CardGameMessage(
+						CardGameMessage.PLAYER_LIST, connection.getSeat(),
+						names.clone()));
+			} else {
+				connection.setTable(null);
+				server.assign(connection);
+			}
+			return;
+		}
+
+		if (isSeated(connection)) {
+			// releases the new seat, which the client has not joined
+			vacate(connection.getSeat());
+		}
+		graceTimers[seat].cancel(false);
+		graceTimers[seat] = null;
+		keptSeats--;
+		// takes the seat back from the bot standing in for the player
+		bots[seat] = null;
+		connections[seat] = connection;
+		connection.setTable(this);
+		connection.setSeat(seat);
+		server.sessionsResumed.increment();
+		server.println(names[seat] + " ("
+				+ connection.getSocket().getRemoteSocketAddress()
+				+ ") resumes the game.");
+
+		connection.send(new CardGameMessage(CardGameMessage.RESUME, seat,
+				names.clone()));
+		if (startSequence == 0) {
+			return;
+		}
+		long acked = message.getSequence();
+		// a client may have acknowledged moves lost by a crash of the server
+		if (acked >= startSequence && acked <= sequence) {
+			// the client still has the current game: sends the missed moves
+			for (CardGameMessage move : moveLog) {
+				if (move.getSequence() > acked) {
+					connection.send(move);
+				}
+			}
+			return;
+		}
+		Object snapshot = server.snapshotFor(game, seat);
+		if (snapshot != null) {
+			CardGameMessage start = new CardGameMessage(CardGameMessage.START,
+					-1, snapshot);
+			start.setSequence(sequence);
+			connection.send(start);
+		} else {
+			// replays the whole game from its START message
+			connection.send(startMessages[seat]);
+			for (CardGameMessage move : moveLog) {
+				connection.send(move);
+			}
+		}
+	} // resumeSession
+
+	/**
+	 * Adds a player to the game.
+	 *
+	 * @param seat
+	 *            the seat of the player who is joining the game
+	 * @param name
+	 *            the name of the player who is joining the game
+	 */
+	private void addPlayer(int seat, String name) {
+		// updates the name of the new player
+		names[seat] = name;
+
+		// gives the player a session token for reconnecting
+		if (sessionTokens[seat] == null) {
+			sessionTokens[seat] = server.newSession(this);
+		}
+		journal(RecoveryLog.seat(id, seat, name, sessionTokens[seat]));
+		connections[seat].send(new CardGameMessage(CardGameMessage.SESSION,
+				seat, sessionTokens[seat]));
+
+		server.println(name + " ("
+				+ connections[seat].getSocket().getRemoteSocketAddress()
+				+ ") joins the game at table " + id + ".");
+
+		// broadcasts a message about this player joining the game
+		broadcastMessage(new CardGameMessage(CardGameMessage.JOIN, seat, name));
+	} // addPlayer
+
+	/**
+	 * Marks the specified player as ready for a new game, and starts a new
+	 * game when all the players are ready. Does nothing while a game kept by
+	 * the table is in progress, since the seats of bots are ready from the
+	 * start of a game; a table relaying the moves (see createGame()) cannot
+	 * tell the end of a game, and relies on the players getting ready.
+	 *
+	 * @param seat
+	 *            the seat of the player who becomes ready for a new game
+	 */
+	private void setReadyState(int seat) {
+		if (gameInProgress && game != null) {
+			server.log(ServerLog.DEBUG, "Ignores a \"READY\" message during a game from ",
+					connections[seat].getSocket().getRemoteSocketAddress());
+			return;
+		}
+		readyStates[seat] = true;
+		server.println(names[seat] + " ("
+				+ connections[seat].getSocket().getRemoteSocketAddress()
+				+ " ) is ready for the next game.");
+		broadcastMessage(new CardGameMessage(CardGameMessage.READY, seat, null));
+
+		// checks if all players are ready, unless the next game is dealt
+		// anyway in continuous play
+		if (rematchTimer != null || !allReady()) {
+			return;
+		}
+		if (numOfPlayers < maxNumOfPlayers) {
+			// fills the empty seats with bots unless players join in time
+			if (server.isBotsEnabled() && botFillTimer == null) {
+				botFillTimer = server.getTimingWheel().schedule(
+						() -> post(this::fillWithBots), server.getBotWait(),
+						TimeUnit.MILLISECONDS);
+			}
+			return;
+		}
+		server.println("All players are ready at table " + id + ".");
+		startGame();
+	} // setReadyState
+
+	/**
+	 * Starts a new game with a shuffled deck taken from the pool (or a deck
+	 * shuffled by seed), and deals it to the players.
+	 */
+	private void startGame() {
+		// resets the ready states of all the players for the next game;
+		// bots are always ready
+		for (int i = 0; i < maxNumOfPlayers; i++) {
+			readyStates[i] = isBotSeat(i);
+		}
+
+		// takes a shuffled deck (or shuffles a deck by seed), and starts a new
+		// game
+		Deck deck;
+		DealSeed seed = server.nextDealSeed();
+		if (seed != null) {
+			deck = seed.shuffle(server.createDeck());
+		} else {
+			deck = server.takeDeck();
+		}
+		if (game == null) {
+			game = server.createGame();
+		}
+		if (game != null) {
+			game.start(deck);
+		}
+		// keeps the replay record of the new game
+		endReplay(-1);
+		if (game != null && server.getReplayLog() != null) {
+			replay = new ReplayRecord(id, names, game);
+		}
+		startSequence = ++sequence;
+		moveLog.clear();
+		gameInProgress = true;
+		lastEnd = null;
+		server.gamesStarted.increment();
+		dealMasks = null;
+		if (game != null) {
+			dealMasks = new long[maxNumOfPlayers];
+			for (int i = 0; i < maxNumOfPlayers; i++) {
+				dealMasks[i] = ReplayRecord.mask(game.getPlayerList().get(i)
+						.getCardsInHand());
+			}
+			journal(RecoveryLog.deal(id, startSequence, dealMasks));
+		}
+		// fills the time banks, and starts the clock of the first player
+		stopTurnClock();
+		Arrays.fill(timeBanks,
+				TimeUnit.MILLISECONDS.toNanos(server.getTimeBank()));
+		startTurn();
+		CardGameMessage publicStart = new CardGameMessage(
+				CardGameMessage.START, -1, server.snapshotFor(game, -1));
+		publicStart.setSequence(startSequence);
+		spectatorFeed.publish(publicStart);
+		if (seed != null) {
+			server.println("Game starts at table " + id + " with seed " + seed
+					+ ".");
+			CardGameMessage start = new CardGameMessage(CardGameMessage.START,
+					-1, seed);
+			start.setSequence(startSequence);
+			for (int i = 0; i < maxNumOfPlayers; i++) {
+				startMessages[i] = start;
+			}
+			broadcastMessage(start);
+			return;
+		}
+		server.println("Game starts at table " + id + ".");
+		// sends each player its own START message
+		for (int i = 0; i < maxNumOfPlayers; i++) {
+			startMessages[i] = new CardGameMessage(CardGameMessage.START, -1,
+					server.dealTo(game, deck, i));
+			startMessages[i].setSequence(startSequence);
+			if (connections[i] != null) {
+				connections[i].send(startMessages[i]);
+			}
+		}
+	} // startGame
+
+	/**
+	 * Frees the seat of a player who leaves the game.
+	 *
+	 * @param i
+	 *            the seat of the player
+	 * @param remoteAddress
+	 *            the remote address of the player
+	 */
+	private void freeSeat(int i, String remoteAddress) {
+		String name = names[i];
+
+		if (sessionTokens[i] != null) {
+			server.endSession(sessionTokens[i]);
+		}
+		names[i] = null;
+		readyStates[i] = false;
+		sessionTokens[i] = null;
+		graceTimers[i] = null;
+		bots[i] = null;
+		numOfPlayers--;
+		freeSeats.incrementAndGet();
+		journal(RecoveryLog.free(id, i));
+		// the game is abandoned until all the players are ready again
+		stopTurnClock();
+		gameInProgress = false;
+		endReplay(-1);
+		if (rematchTimer != null) {
+			rematchTimer.cancel();
+			rematchTimer = null;
+		}
+
+		server.println(name + " (" + remoteAddress + ") leaves the game.");
+
+		// broadcasts a message about the leaving of this player
+		broadcastMessage(new CardGameMessage(CardGameMessage.QUIT, i,
+				remoteAddress));
+		seatClaimants();
+	} // freeSeat
+
+	/**
+	 * Frees a kept seat when its grace period expires, unless the player has
+	 * reconnected in the meantime.
+	 *
+	 * @param i
+	 *            the kept seat
+	 * @param token
+	 *            the session token for which the seat was kept
+	 */
+	private void releaseSeat(int i, String token) {
+		if (token.equals(sessionTokens[i]) && connections[i] == null) {
+			keptSeats--;
+			if (!gameInProgress || !replaceWithBot(i)) {
+				freeSeat(i, lostAddresses[i]);
+			}
+		}
+	} // releaseSeat
+
+	/**
+	 * Silently frees a seat which a resuming client held without joining.
+	 *
+	 * @param i
+	 *            the seat
+	 */
+	private void vacate(int i) {
+		connections[i].setSeat(-1);
+		connections[i] = null;
+		names[i] = null;
+		readyStates[i] = false;
+		numOfPlayers--;
+		freeSeats.incrementAndGet();
+		seatClaimants();
+	} // vacate
+
+	// appends a record to the recovery log of the server, if any
+	private void journal(byte[] record) {
+		RecoveryLog recoveryLog = server.getRecoveryLog();
+		if (recoveryLog != null) {
+			recoveryLog.append(record);
+		}
+	}
+
+	/**
+	 * Describes the state of this table for a checkpoint of the recovery log,
+	 * with the records which rebuild it: its seats, the deal and the moves of
+	 * the current game, and its sequence number.
+	 *
+	 * @param records
+	 *            the list to which the records are added
+	 */
+	void checkpoint(ArrayList<byte[]> records) {
+		for (int i = 0; i < maxNumOfPlayers; i++) {
+			if (sessionTokens[i] != null) {
+				records.add(RecoveryLog.seat(id, i, names[i], sessionTokens[i]));
+			} else if (bots[i] != null) {
+				records.add(RecoveryLog.bot(id, i, names[i]));
+			}
+		}
+		if (gameInProgress && dealMasks != null) {
+			records.add(RecoveryLog.deal(id, startSequence, dealMasks));
+			for (CardGameMessage move : moveLog) {
+				records.add(RecoveryLog.move(id, move.getPlayerID(),
+						(CardList) move.getData()));
+			}
+		}
+		records.add(RecoveryLog.sequence(id, sequence));
+	} // checkpoint
+
+	/**
+	 * Gives a seat back to a player who had joined before the server
+	 * restarted. Called by the recovery log before the table runs.
+	 *
+	 * @param i
+	 *            the seat
+	 * @param name
+	 *            the name of the player
+	 * @param token
+	 *            the session token of the player
+	 */
+	void restoreSeat(int i, String name, String token) {
+		if (sessionTokens[i] != null) {
+			server.endSession(sessionTokens[i]);
+		} else {
+			if (bots[i] != null) {
+				botSeats--;
+			} else {
+				numOfPlayers++;
+			}
+			freeSeats.decrementAndGet();
+		}
+		bots[i] = null;
+		names[i] = name;
+		readyStates[i] = false;
+		sessionTokens[i] = token;
+		server.restoreSession(token, this);
+	} // restoreSeat
+
+	/**
+	 * Gives a seat back to the bot which held it before the server restarted,
+	 * or frees the seat if bots are disabled now. Called by the recovery log
+	 * before the table runs.
+	 *
+	 * @param i
+	 *            the seat
+	 * @param name
+	 *            the name of the bot
+	 */
+	void restoreBot(int i, String name) {
+		CardGameBot bot = server.createBot(i);
+		if (bot == null) {
+			restoreFree(i);
+			return;
+		}
+		if (sessionTokens[i] != null) {
+			server.endSession(sessionTokens[i]);
+			sessionTokens[i] = null;
+			freeSeats.incrementAndGet();
+			botSeats++;
+		} else if (bots[i] == null) {
+			numOfPlayers++;
+			botSeats++;
+		}
+		bots[i] = bot;
+		names[i] = name;
+		readyStates[i] = true;
+	} // restoreBot
+
+	/**
+	 * Frees a seat as it was freed before the server restarted, which
+	 * abandons the current game. Called by the recovery log before the table
+	 * runs.
+	 *
+	 * @param i
+	 *            the seat
+	 */
+	void restoreFree(int i) {
+		if (sessionTokens[i] != null) {
+			server.endSession(sessionTokens[i]);
+			freeSeats.incrementAndGet();
+		} else if (bots[i] != null) {
+			botSeats--;
+		} else {
+			return;
+		}
+		numOfPlayers--;
+		names[i] = null;
+		readyStates[i] = false;
+		sessionTokens[i] = null;
+		bots[i] = null;
+		gameInProgress = false;
+		// the record of an abandoned game is already in the replay log
+		replay = null;
+	} // restoreFree
+
+	/**
+	 * Deals a game again as it was dealt before the server restarted. Called
+	 * by the recovery log before the table runs.
+	 *
+	 * @param startSequence
+	 *            the sequence number of the START message of the game
+	 * @param masks
+	 *            the mask of the hand dealt to each seat
+	 */
+	void restoreDeal(long startSequence, long[] masks) {
+		if (game == null) {
+			game = server.createGame();
+		}
+		if (game == null || masks.length != maxNumOfPlayers) {
+			return;
+		}
+		Deck deck = arrange(masks);
+		game.start(deck);
+		dealMasks = masks;
+		replay = server.getReplayLog() != null ? new ReplayRecord(id, names,
+				game) : null;
+		sequence = this.startSequence = startSequence;
+		moveLog.clear();
+		gameInProgress = true;
+		lastEnd = null;
+		for (int i = 0; i < maxNumOfPlayers; i++) {
+			startMessages[i] = new CardGameMessage(CardGameMessage.START, -1,
+					server.dealTo(game, deck, i));
+			startMessages[i].setSequence(startSequence);
+		}
+	} // restoreDeal
+
+	/**
+	 * Returns a deck of the server arranged so that the hands dealt from it
+	 * are the specified ones: the cards of each seat in turn, followed by the
+	 * cards not dealt.
+	 *
+	 * @param masks
+	 *            the mask of the hand dealt to each seat
+	 * @return the arranged deck
+	 */
+	private Deck arrange(long[] masks) {
+		Deck deck = server.createDeck();
+		Card[] byMask = new Card[64];
+		for (int k = 0; k < deck.size(); k++) {
+			Card card = deck.getCard(k);
+			byMask[card.getSuit() * 13 + card.getRank()] = card;
+		}
+		ArrayList<Card> order = new ArrayList<Card>();
+		long dealt = 0;
+		for (long mask : masks) {
+			dealt |= mask;
+			for (long m = mask; m != 0; m &= m - 1) {
+				order.add(byMask[Long.numberOfTrailingZeros(m)]);
+			}
+		}
+		for (int k = 0; k < deck.size(); k++) {
+			Card card = deck.getCard(k);
+			if ((dealt & 1L << (card.getSuit() * 13 + card.getRank())) == 0) {
+				order.add(card);
+			}
+		}
+		for (int k = 0; k < order.size(); k++) {
+			deck.setCard(k, order.get(k));
+		}
+		return deck;
+	} // arrange
+
+	/**
+	 * Plays a move again as it was accepted before the server restarted.
+	 * Called by the recovery log before the table runs.
+	 *
+	 * @param seat
+	 *            the seat of the player
+	 * @param cards
+	 *            the mask of the cards played, or 0 for a pass
+	 */
+	void restoreMove(int seat, long cards) {
+		if (!gameInProgress || game == null) {
+			return;
+		}
+		// finds the cards in the hand of the player
+		int[] indices = null;
+		if (cards != 0) {
+			CardList hand = game.getPlayerList().get(seat).getCardsInHand();
+			indices = new int[Long.bitCount(cards)];
+			int n = 0;
+			for (int k = 0; k < hand.size() && n < indices.length; k++) {
+				Card card = hand.getCard(k);
+				if ((cards & 1L << (card.getSuit() * 13 + card.getRank())) != 0) {
+					indices[n++] = k;
+				}
+			}
+		}
+		CardGameMessage accepted = server.checkMove(game, new CardGameMessage(
+				CardGameMessage.MOVE, seat, indices));
+		if (accepted == null) {
+			server.log(ServerLog.WARN, "Cannot play a recovered move at table ",
+					id);
+			gameInProgress = false;
+			replay = null;
+			return;
+		}
+		accepted.setSequence(++sequence);
+		moveLog.add(accepted);
+		if (replay != null) {
+			replay.move(seat, (CardList) accepted.getData());
+		}
+		if (game.endOfGame()) {
+			gameInProgress = false;
+			// the record of a finished game is already in the replay log
+			replay = null;
+		}
+	} // restoreMove
+
+	/**
+	 * Sets the sequence number of the last START or MOVE message as it was
+	 * before the server restarted. Called by the recovery log before the
+	 * table runs.
+	 *
+	 * @param sequence
+	 *            the sequence number
+	 */
+	void restoreSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	/**
+	 * Lets this table run again once it has been rebuilt by the recovery log.
+	 * Every player has lost his/her connection with the previous server, so
+	 * every seat is kept for the grace period (and played by a bot meanwhile
+	 * if bots are enabled), and the turn of the current game starts again.
+	 */
+	void resumeAfterRecovery() {
+		long gracePeriod = server.getGracePeriod();
+		for (int i = 0; i < maxNumOfPlayers; i++) {
+			if (sessionTokens[i] == null) {
+				continue;
+			}
+			int seat = i;
+			String token = sessionTokens[i];
+			lostAddresses[i] = "restart";
+			keptSeats++;
+			graceTimers[i] = server.getScheduler().schedule(
+					() -> post(() -> releaseSeat(seat, token)), gracePeriod,
+					TimeUnit.MILLISECONDS);
+			if (gameInProgress && server.isBotsEnabled()) {
+				standIn(i);
+			}
+		}
+		if (gameInProgress && game != null) {
+			Arrays.fill(timeBanks,
+					TimeUnit.MILLISECONDS.toNanos(server.getTimeBank()));
+			startTurn();
+		}
+		if (numOfPlayers > 0) {
+			server.println("Recovers table " + id + " with " + numOfPlayers
+					+ " players" + (gameInProgress ? " in a game." : "."));
+		}
+	} // resumeAfterRecovery
+
+	// returns true if the connection holds a seat at this table
+	private boolean isSeated(ClientConnection connection) {
+		int seat = connection.getSeat();
+		return connection.getTable() == this && seat >= 0
+				&& connections[seat] == connection;
+	}
+
+	// passes a task for a connection which has moved to another table on to
+	// that table, or drops it if the connection holds no seat any more
+	private void forward(ClientConnection connection,
+			Consumer<CardGameTable> task) {
+		CardGameTable table = connection.getTable();
+		if (table != null && table != this) {
+			table.post(() -> task.accept(table));
+		}
+	}
+}
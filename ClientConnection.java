@@ -0,0 +1,234 @@
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class is used to model the outbound side of a connection between the
+ * card game server and a client. Messages are queued in a two-lane
+ * MessageQueue and written to the socket by a dedicated writer thread, so game
+ * messages always go ahead of queued chat messages and a slow client never
+ * blocks the thread that broadcasts a message.
+ *
+ * @author jihoo
+ */
+public class ClientConnection {
+	private final Socket socket; // socket connection to the client
+	private final ObjectOutputStream oostream; // ObjectOutputStream of the client
+	private final MessageQueue queue; // outbound messages waiting to be written
+	private final Thread writer; // thread writing queued messages to the socket
+	// weight of the latest sample in the moving average of the round-trip time
+	private static final double RTT_EWMA_WEIGHT = 0.125;
+	// no. of PING messages sent since the last PONG message was received
+	private final AtomicInteger missedHeartbeats = new AtomicInteger();
+	// moving average of the round-trip time in nanoseconds (-1 if unknown)
+	private volatile double rttEwma = -1;
+	// histogram of the round-trip times in nanoseconds
+	private final Histogram rttHistogram = new Histogram();
+	// histogram of the round-trip times of all connections of the server
+	private final Histogram serverRttHistogram;
+	// the table at which the client is seated, or null if none
+	private volatile CardGameTable table = null;
+	// the seat of the client at its table, or -1 if none
+	private volatile int seat = -1;
+	// the time (System.nanoTime()) this connection was created; messages
+	// queued before (e.g. moves resent to a resuming client) are not traced
+	private final long createdAt = System.nanoTime();
+
+	/**
+	 * Creates and returns an instance of the ClientConnection class.
+	 *
+	 * @param socket
+	 *            the socket connection to the client
+	 * @param oostream
+	 *            the ObjectOutputStream chained to the socket
+	 * @param serverRttHistogram
+	 *            the histogram of the round-trip times of all connections of
+	 *            the server, which also records those of this connection
+	 */
+	public ClientConnection(Socket socket, ObjectOutputStream oostream,
+			Histogram serverRttHistogram) {
+		this.socket = socket;
+		this.oostream = oostream;
+		this.serverRttHistogram = serverRttHistogram;
+		this.queue = new MessageQueue();
+		this.writer = new Thread(new Writer(), "writer-" + socket.getRemoteSocketAddress());
+		this.writer.setDaemon(true);
+	}
+
+	/**
+	 * Starts the writer thread of this connection.
+	 */
+	public void start() {
+		writer.start();
+	}
+
+	/**
+	 * Returns the socket connection to the client.
+	 *
+	 * @return the socket connection to the client
+	 */
+	public Socket getSocket() {
+		return socket;
+	}
+
+	/**
+	 * Returns the table at which the client is seated. Messages from the
+	 * client are posted to this table.
+	 *
+	 * @return the table, or null if the client holds no seat
+	 */
+	public CardGameTable getTable() {
+		return table;
+	}
+
+	/**
+	 * Sets the table at which the client is seated.
+	 *
+	 * @param table
+	 *            the table, or null if the client holds no seat
+	 */
+	public void setTable(CardGameTable table) {
+		this.table = table;
+	}
+
+	/**
+	 * Returns the seat of the client at its table.
+	 *
+	 * @return the seat, or -1 if the client holds no seat
+	 */
+	public int getSeat() {
+		return seat;
+	}
+
+	/**
+	 * Sets the seat of the client at its table. Only called by the table.
+	 *
+	 * @param seat
+	 *            the seat, or -1 if the client holds no seat
+	 */
+	public void setSeat(int seat) {
+		this.seat = seat;
+	}
+
+	/**
+	 * Queues the specified message to be sent to the client.
+	 *
+	 * @param message
+	 *            the message to be sent
+	 * @return false if the connection has been closed; true otherwise
+	 */
+	public boolean send(CardGameMessage message) {
+		return queue.put(message);
+	}
+
+	/**
+	 * Returns the number of messages waiting to be written to the client.
+	 *
+	 * @return the number of waiting messages
+	 */
+	public int getQueueSize() {
+		return queue.size();
+	}
+
+	/**
+	 * Returns the number of chat messages dropped for this client under load.
+	 *
+	 * @return the number of dropped chat messages
+	 */
+	public long getDroppedChats() {
+		return queue.getDroppedChats();
+	}
+
+	/**
+	 * Sends a PING message carrying the current time, and returns the no. of
+	 * PING messages that have not been answered before this one.
+	 *
+	 * @return the no. of unanswered PING messages
+	 */
+	public int ping() {
+		send(new CardGameMessage(CardGameMessage.PING, -1, System.nanoTime()));
+		return missedHeartbeats.getAndIncrement();
+	}
+
+	/**
+	 * Records the PONG message answering a PING message of this connection.
+	 *
+	 * @param message
+	 *            the PONG message, whose data is the time the PING was sent
+	 */
+	public void pong(CardGameMessage message) {
+		if (!(message.getData() instanceof Long)) {
+			return;
+		}
+		long rtt = System.nanoTime() - (Long) message.getData();
+		missedHeartbeats.set(0);
+		rttHistogram.record(rtt);
+		serverRttHistogram.record(rtt);
+		double ewma = rttEwma;
+		rttEwma = ewma < 0 ? rtt : ewma + RTT_EWMA_WEIGHT * (rtt - ewma);
+	}
+
+	/**
+	 * Returns the moving average of the round-trip time of this connection.
+	 *
+	 * @return the moving average in nanoseconds, or -1 if not yet measured
+	 */
+	public double getRttEwma() {
+		return rttEwma;
+	}
+
+	/**
+	 * Returns the histogram of the round-trip times of this connection.
+	 *
+	 * @return the histogram of round-trip times in nanoseconds
+	 */
+	public Histogram getRttHistogram() {
+		return rttHistogram;
+	}
+
+	/**
+	 * Closes this connection. Waiting messages are discarded.
+	 */
+	public void close() {
+		queue.close();
+		try {
+			socket.close();
+		} catch (Exception ex) {
+			// the socket is being dropped anyway
+		}
+	}
+
+	/**
+	 * This inner class is used for writing queued messages to the client.
+	 */
+	private class Writer implements Runnable {
+		// implementation of method from the Runnable interface
+		public void run() {
+			try {
+				CardGameMessage message;
+				while ((message = queue.take()) != null) {
+					oostream.writeObject(message);
+					// forgets the objects written, which the handle table of
+					// the stream would otherwise keep for the whole connection
+					oostream.reset();
+					// flushes only when there is nothing more to write
+					if (queue.isEmpty()) {
+						oostream.flush();
+					}
+					// records the write of a broadcast message to the trace of
+					// the table which queued it
+					CardGameTable table = ClientConnection.this.table;
+					if (table != null && message.getEnqueuedAt() >= createdAt) {
+						table.getLatencyTrace().record(
+								CardGameTable.TRACE_WRITE,
+								System.nanoTime() - message.getEnqueuedAt());
+					}
+				}
+			} catch (Exception ex) {
+				// write failure means connection loss; closing the socket lets
+				// the receiving thread detect it and remove the connection
+				close();
+			}
+		} // run
+	} // Writer
+}
@@ -0,0 +1,67 @@
+import java.io.Serializable;
+
+/**
+ * This class is used to model a deal given by its shuffle seed. It is sent by
+ * the server in place of a shuffled deck when dealing by seed; a client
+ * rebuilds the deck by shuffling a fresh deck with Deck.shuffle(seed, version).
+ * A game can be reproduced exactly from its seed and its list of moves.
+ *
+ * @author jihoo
+ */
+public class DealSeed implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private final long seed;
+	private final int version;
+
+	/**
+	 * Creates and returns an instance of the DealSeed class.
+	 *
+	 * @param seed
+	 *            the 64-bit seed of the shuffle
+	 * @param version
+	 *            the version of the shuffle algorithm
+	 */
+	public DealSeed(long seed, int version) {
+		this.seed = seed;
+		this.version = version;
+	}
+
+	/**
+	 * Returns the 64-bit seed of the shuffle.
+	 *
+	 * @return the seed of the shuffle
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Returns the version of the shuffle algorithm.
+	 *
+	 * @return the version of the shuffle algorithm
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Rebuilds the shuffled deck from this seed.
+	 *
+	 * @param deck
+	 *            a freshly initialized deck
+	 * @return the same deck, shuffled
+	 */
+	public Deck shuffle(Deck deck) {
+		deck.shuffle(seed, version);
+		return deck;
+	}
+
+	/**
+	 * Returns a string representation of this seed.
+	 *
+	 * @return a string representation of this seed
+	 */
+	public String toString() {
+		return "v" + version + ":" + Long.toHexString(seed);
+	}
+}
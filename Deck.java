@@ -1,3 +1,5 @@
+import java.util.SplittableRandom;
+
 /**
  * This class is used to represent a deck of cards in general card games.
  * 
@@ -6,6 +8,21 @@
 public class Deck extends CardList {
 	private static final long serialVersionUID = -3886066435694112173L;
 
+	/**
+	 * The latest version of the seeded shuffle algorithm. Version 1 is a
+	 * Fisher-Yates shuffle driven by the SplitMix64 generator.
+	 */
+	public static final int SHUFFLE_VERSION = 1;
+
+	// root generator from which each thread splits its own generator
+	private static final SplittableRandom ROOT_RANDOM = new SplittableRandom();
+	// per-thread generators, so that shuffles on different threads never contend
+	private static final ThreadLocal<SplittableRandom> RANDOM = ThreadLocal.withInitial(() -> {
+		synchronized (ROOT_RANDOM) {
+			return ROOT_RANDOM.split();
+		}
+	});
+
 	/**
 	 * Creates and returns an instance of the Deck class.
 	 */
@@ -27,15 +44,69 @@ public class Deck extends CardList {
 	}
 
 	/**
-	 * Shuffles the deck of cards.
+	 * Shuffles the deck of cards. Uses an unbiased Fisher-Yates shuffle driven
+	 * by a generator owned by the calling thread.
 	 */
 	public void shuffle() {
-		for (int i = 0; i < this.size(); i++) {
-			int j = (int) (Math.random() * this.size());
+		SplittableRandom random = RANDOM.get();
+		for (int i = this.size() - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			if (i != j) {
+				Card card = setCard(i, getCard(j));
+				setCard(j, card);
+			}
+		}
+	}
+
+	/**
+	 * Shuffles the deck of cards deterministically. The same seed and version
+	 * always produce the same permutation of a freshly initialized deck, on any
+	 * JVM, so a deal can be rebuilt from its seed.
+	 * 
+	 * @param seed    the 64-bit seed of the shuffle
+	 * @param version the version of the shuffle algorithm
+	 * @throws IllegalArgumentException if the version is not supported
+	 */
+	public void shuffle(long seed, int version) {
+		if (version != 1) {
+			throw new IllegalArgumentException("Unsupported shuffle version: " + version);
+		}
+		SplitMix64 random = new SplitMix64(seed);
+		for (int i = this.size() - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
 			if (i != j) {
 				Card card = setCard(i, getCard(j));
 				setCard(j, card);
 			}
 		}
 	}
+
+	/**
+	 * The SplitMix64 generator. Its output is fully specified by its seed,
+	 * unlike java.util.SplittableRandom whose algorithm may change between JDKs.
+	 */
+	private static class SplitMix64 {
+		private long state;
+
+		SplitMix64(long seed) {
+			this.state = seed;
+		}
+
+		long nextLong() {
+			long z = (state += 0x9E3779B97F4A7C15L);
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			return z ^ (z >>> 31);
+		}
+
+		// returns an unbiased int in [0, bound) by rejecting the uneven tail
+		int nextInt(int bound) {
+			long bits, value;
+			do {
+				bits = nextLong() >>> 1;
+				value = bits % bound;
+			} while (bits - value + (bound - 1) < 0);
+			return (int) value;
+		}
+	}
 }
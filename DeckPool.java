@@ -0,0 +1,78 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Supplier;
+
+/**
+ * This class is used to model a pool of shuffled decks prepared in the
+ * background. A daemon thread keeps the pool full, so a new game can take a
+ * ready deck instead of creating and shuffling one on the critical path.
+ *
+ * @author jihoo
+ */
+public class DeckPool {
+	private final Supplier<Deck> factory; // creates a new (unshuffled) deck
+	private final ArrayBlockingQueue<Deck> decks; // shuffled decks ready for use
+	private final Thread filler; // thread keeping the pool full
+
+	/**
+	 * Creates and returns an instance of the DeckPool class and starts filling
+	 * the pool.
+	 *
+	 * @param factory
+	 *            creates a new deck of the right type
+	 * @param capacity
+	 *            the max. no. of shuffled decks kept ready
+	 */
+	public DeckPool(Supplier<Deck> factory, int capacity) {
+		this.factory = factory;
+		this.decks = new ArrayBlockingQueue<Deck>(capacity);
+		this.filler = new Thread(new Filler(), "deck-pool");
+		this.filler.setDaemon(true);
+		this.filler.start();
+	}
+
+	/**
+	 * Returns a shuffled deck. Never waits: if the pool is empty, a deck is
+	 * created and shuffled on the calling thread.
+	 *
+	 * @return a shuffled deck
+	 */
+	public Deck take() {
+		Deck deck = decks.poll();
+		if (deck == null) {
+			deck = newShuffledDeck();
+		}
+		return deck;
+	}
+
+	/**
+	 * Returns the no. of shuffled decks ready in the pool.
+	 *
+	 * @return the no. of ready decks
+	 */
+	public int size() {
+		return decks.size();
+	}
+
+	private Deck newShuffledDeck() {
+		Deck deck = factory.get();
+		deck.shuffle();
+		return deck;
+	}
+
+	/**
+	 * This inner class is used for keeping the pool full.
+	 */
+	private class Filler implements Runnable {
+		// implementation of method from the Runnable interface
+		public void run() {
+			try {
+				while (true) {
+					// blocks while the pool is full
+					decks.put(newShuffledDeck());
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		} // run
+	} // Filler
+}
@@ -0,0 +1,161 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * This class holds the Java Flight Recorder events of the card game. Every
+ * event carries the table id, the seat and the message type it belongs to;
+ * events raised deep inside a game (e.g. composing a hand) take them from the
+ * context of the message being handled by the current thread. When an event
+ * is disabled, creating, beginning and checking it is optimized away by the
+ * JIT compiler, so the events can stay in the code paths they measure.
+ *
+ * <p>
+ * For example, record with
+ * {@code java -XX:StartFlightRecording:filename=game.jfr BigTwoServer}, and
+ * look for the events under "Big Two" in JDK Mission Control.
+ *
+ * @author jihoo
+ */
+public final class GameEvents {
+	// the table id, seat and message type handled by each thread
+	private static final ThreadLocal<int[]> CONTEXT = ThreadLocal
+			.withInitial(() -> new int[] { -1, -1, -1 });
+
+	private GameEvents() {
+	}
+
+	/**
+	 * Sets the table id, seat and message type of the message being handled by
+	 * the current thread. Events raised by this thread carry them until the
+	 * context is cleared.
+	 *
+	 * @param table
+	 *            the table id, or -1 if unknown
+	 * @param seat
+	 *            the seat, or -1 if unknown
+	 * @param type
+	 *            the message type, or -1 if none
+	 */
+	public static void enter(int table, int seat, int type) {
+		int[] context = CONTEXT.get();
+		context[0] = table;
+		context[1] = seat;
+		context[2] = type;
+	}
+
+	/**
+	 * Clears the context of the current thread.
+	 */
+	public static void exit() {
+		enter(-1, -1, -1);
+	}
+
+	/**
+	 * This class is the base of the events, holding the fields they all
+	 * carry.
+	 */
+	@Category({ "Big Two" })
+	@StackTrace(false)
+	public abstract static class GameEvent extends Event {
+		@Label("Table")
+		@Description("Id of the table, or -1 if unknown (e.g. on a client)")
+		public int table = -1;
+
+		@Label("Seat")
+		@Description("Seat of the player, or -1 if unknown")
+		public int seat = -1;
+
+		@Label("Message Type")
+		@Description("Type of the message being handled, or -1 if none")
+		public int type = -1;
+
+		/**
+		 * Fills in the table id, seat and message type from the context of the
+		 * current thread, keeping any field already set.
+		 */
+		public void fill() {
+			int[] context = CONTEXT.get();
+			if (table < 0) {
+				table = context[0];
+			}
+			if (seat < 0) {
+				seat = context[1];
+			}
+			if (type < 0) {
+				type = context[2];
+			}
+		}
+	} // GameEvent
+
+	/**
+	 * This event covers the handling of a message by a table, from taking it
+	 * out of the mailbox to the end of its broadcast. Its queue time is the
+	 * time from its receipt to that point, so the two add up to the time from
+	 * receipt to broadcast.
+	 */
+	@Name("bigtwo.ServerMessage")
+	@Label("Server Message")
+	@Category({ "Big Two", "Server" })
+	public static class ServerMessage extends GameEvent {
+		@Label("Queue Time")
+		@Description("Time from the receipt of the message to its handling")
+		@Timespan(Timespan.NANOSECONDS)
+		public long queueTime;
+	} // ServerMessage
+
+	/**
+	 * This event covers the validation of a move on the server.
+	 */
+	@Name("bigtwo.CheckMove")
+	@Label("Check Move")
+	@Category({ "Big Two", "Game" })
+	public static class CheckMove extends GameEvent {
+		@Label("Cards")
+		@Description("No. of cards played, or 0 for a pass")
+		public int numOfCards;
+
+		@Label("Legal")
+		public boolean legal;
+	} // CheckMove
+
+	/**
+	 * This event covers the classification of a list of cards as a hand.
+	 */
+	@Name("bigtwo.ComposeHand")
+	@Label("Compose Hand")
+	@Category({ "Big Two", "Game" })
+	public static class ComposeHand extends GameEvent {
+		@Label("Cards")
+		public int numOfCards;
+
+		@Label("Hand Type")
+		@Description("Type of the hand, or null if the cards make no hand")
+		public String handType;
+	} // ComposeHand
+
+	/**
+	 * This event covers the dispatch of a message received by a client.
+	 */
+	@Name("bigtwo.ClientMessage")
+	@Label("Client Message")
+	@Category({ "Big Two", "Client" })
+	public static class ClientMessage extends GameEvent {
+	} // ClientMessage
+
+	/**
+	 * This event covers the repainting of the GUI of a client.
+	 */
+	@Name("bigtwo.Paint")
+	@Label("Paint")
+	@Category({ "Big Two", "Client" })
+	public static class Paint extends GameEvent {
+		@Label("Method")
+		@Description("repaint or paintComponent")
+		public String method;
+	} // Paint
+}
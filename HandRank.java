@@ -0,0 +1,328 @@
+/**
+ * This class is used to classify and compare hands given as card masks (bit
+ * suit * 13 + rank set for each card, see ReplayRecord), for the tools which
+ * scan or play many games and cannot afford to build a Hand object for every
+ * move. It follows the rules of the subclasses of Hand and of BigTwoEngine
+ * exactly, so that a game played on masks is the game the server would play:
+ * a straight is five consecutive ranks from 3-4-5-6-7 up to 9-10-J-Q-K, since
+ * A and 2 rank above K, and the 5-card hands compare their top cards as
+ * beats() does in each subclass.
+ *
+ * @author jihoo
+ */
+public class HandRank {
+	/**
+	 * The types of hands, in the order of the 5-card hands they beat.
+	 */
+	public static final int SINGLE = 0, PAIR = 1, TRIPLE = 2, STRAIGHT = 3,
+			FLUSH = 4, FULL_HOUSE = 5, QUAD = 6, STRAIGHT_FLUSH = 7;
+
+	/**
+	 * The names of the types of hands, as returned by Hand.getType().
+	 */
+	public static final String[] TYPE_NAMES = { "Single", "Pair", "Triple",
+			"Straight", "Flush", "FullHouse", "Quad", "StraightFlush" };
+
+	/**
+	 * The greatest no. of legal moves a player of 13 cards may have.
+	 */
+	public static final int MAX_MOVES = 13 + 78 + 286 + 1287;
+
+	private static final long SUIT = (1L << 13) - 1; // the cards of suit 0
+	private static final long THREE_OF_DIAMONDS = 1L << 2;
+	private static final int[] KEY = new int[52]; // the order of each card
+	static {
+		for (int bit = 0; bit < 52; bit++) {
+			KEY[bit] = (bit % 13 + 11) % 13 * 4 + bit / 13;
+		}
+	}
+
+	private HandRank() {
+	}
+
+	/**
+	 * Returns the type of the hand made by a set of cards.
+	 *
+	 * @param cards
+	 *            the mask of the cards
+	 * @return the type of the hand, or -1 if the cards make no hand
+	 */
+	public static int type(long cards) {
+		int size = Long.bitCount(cards);
+		int ranks = ranks(cards);
+		int distinct = Integer.bitCount(ranks);
+		switch (size) {
+		case 1:
+			return SINGLE;
+		case 2:
+			return distinct == 1 ? PAIR : -1;
+		case 3:
+			return distinct == 1 ? TRIPLE : -1;
+		case 5:
+			boolean flush = (cards & ~(SUIT << 13 * suit(cards))) == 0;
+			if (distinct == 5) {
+				int low = Integer.numberOfTrailingZeros(ranks);
+				boolean straight = low >= 2 && ranks == 0x1f << low;
+				if (straight) {
+					return flush ? STRAIGHT_FLUSH : STRAIGHT;
+				}
+				return flush ? FLUSH : -1;
+			}
+			if (distinct == 2) {
+				int low = Integer.numberOfTrailingZeros(ranks);
+				int count = Long.bitCount(cards & column(low));
+				return count == 1 || count == 4 ? QUAD : FULL_HOUSE;
+			}
+			return -1;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns the rank of the hand made by a set of cards: its type and its
+	 * top card (as returned by getTopCard()), packed as (type + 1) * 64 + the
+	 * bit of the top card in the mask.
+	 *
+	 * @param cards
+	 *            the mask of the cards, or 0 for no hand
+	 * @return the rank of the hand, or 0 if the cards make no hand
+	 */
+	public static int rank(long cards) {
+		int type = type(cards);
+		return type < 0 ? 0 : (type + 1) << 6 | top(cards, type);
+	}
+
+	/**
+	 * Checks if a hand beats another, as Hand.beats() does.
+	 *
+	 * @param cards
+	 *            the mask of the hand
+	 * @param other
+	 *            the mask of the hand to beat
+	 * @return true if the hand beats the other one, false if not
+	 */
+	public static boolean beats(long cards, long other) {
+		int type = type(cards);
+		int otherType = type(other);
+		if (type < 0 || otherType < 0) {
+			return false;
+		}
+		int top = top(cards, type);
+		int otherTop = top(other, otherType);
+		if (type != otherType) {
+			// a 5-card hand beats the 5-card hands of the types below it
+			return type > STRAIGHT && otherType >= STRAIGHT && otherType < type;
+		}
+		switch (type) {
+		case FLUSH:
+			// compares the suit of the top card with the rank of the other
+			// when the suits differ, as Flush.beats() does
+			if (top / 13 == otherTop / 13) {
+				return top % 13 > otherTop % 13;
+			}
+			return top / 13 > otherTop % 13;
+		case FULL_HOUSE:
+		case QUAD:
+			return top % 13 > otherTop % 13;
+		case STRAIGHT:
+		case STRAIGHT_FLUSH:
+			// no A or 2, so the ranks compare as numbers
+			return top % 13 != otherTop % 13 ? top % 13 > otherTop % 13
+					: top / 13 > otherTop / 13;
+		default:
+			return KEY[top] > KEY[otherTop];
+		}
+	}
+
+	/**
+	 * Lists the legal moves of a player, as BigTwoEngine.isLegalMove() does.
+	 *
+	 * @param hand
+	 *            the mask of the cards of the player
+	 * @param last
+	 *            the mask of the hand to beat, or 0 if the player leads
+	 * @param opening
+	 *            true if the move opens the game, and must contain the Three
+	 *            of Diamonds
+	 * @param moves
+	 *            the array receiving the masks of the moves, at least
+	 *            MAX_MOVES long
+	 * @return the no. of moves, not counting the pass a player who follows
+	 *         may make
+	 */
+	public static int moves(long hand, long last, boolean opening, long[] moves) {
+		int size = Long.bitCount(last);
+		int n = 0;
+		if (size == 0 || size == 1) {
+			for (long rest = hand; rest != 0; rest &= rest - 1) {
+				n = add(rest & -rest, last, opening, moves, n);
+			}
+		}
+		if (size == 0 || size == 2 || size == 3) {
+			for (int rank = 0; rank < 13; rank++) {
+				long same = hand & column(rank);
+				if (Long.bitCount(same) < 2) {
+					continue;
+				}
+				for (long sub = same; sub != 0; sub = (sub - 1) & same) {
+					int k = Long.bitCount(sub);
+					if ((k == 2 || k == 3) && (size == 0 || size == k)) {
+						n = add(sub, last, opening, moves, n);
+					}
+				}
+			}
+		}
+		if (size == 0 || size == 5) {
+			n = straights(hand, last, opening, moves, n);
+			for (int suit = 0; suit < 4; suit++) {
+				long same = hand & SUIT << 13 * suit;
+				if (Long.bitCount(same) < 5) {
+					continue;
+				}
+				for (long sub = same; sub != 0; sub = (sub - 1) & same) {
+					// the straight flushes are listed with the straights
+					if (Long.bitCount(sub) == 5 && type(sub) == FLUSH) {
+						n = add(sub, last, opening, moves, n);
+					}
+				}
+			}
+			for (int rank = 0; rank < 13; rank++) {
+				long same = hand & column(rank);
+				int k = Long.bitCount(same);
+				if (k == 4) {
+					for (long rest = hand & ~same; rest != 0; rest &= rest - 1) {
+						n = add(same | rest & -rest, last, opening, moves, n);
+					}
+				}
+				if (k < 3) {
+					continue;
+				}
+				for (long triple = same; triple != 0; triple = (triple - 1) & same) {
+					if (Long.bitCount(triple) != 3) {
+						continue;
+					}
+					for (int other = 0; other < 13; other++) {
+						long pairs = hand & column(other);
+						if (other == rank || Long.bitCount(pairs) < 2) {
+							continue;
+						}
+						for (long pair = pairs; pair != 0; pair = (pair - 1) & pairs) {
+							if (Long.bitCount(pair) == 2) {
+								n = add(triple | pair, last, opening, moves, n);
+							}
+						}
+					}
+				}
+			}
+		}
+		return n;
+	}
+
+	// lists the straights and straight flushes, one card of each rank
+	private static int straights(long hand, long last, boolean opening,
+			long[] moves, int n) {
+		int ranks = ranks(hand);
+		for (int low = 2; low + 5 <= 13; low++) {
+			if ((ranks & 0x1f << low) != 0x1f << low) {
+				continue;
+			}
+			long[] choices = new long[5];
+			for (int i = 0; i < 5; i++) {
+				choices[i] = hand & column(low + i);
+			}
+			// counts through the cards of each rank like an odometer
+			long[] rest = choices.clone();
+			while (true) {
+				long cards = 0;
+				for (int i = 0; i < 5; i++) {
+					cards |= rest[i] & -rest[i];
+				}
+				n = add(cards, last, opening, moves, n);
+				int i = 0;
+				while (i < 5) {
+					rest[i] &= rest[i] - 1;
+					if (rest[i] != 0) {
+						break;
+					}
+					rest[i] = choices[i];
+					i++;
+				}
+				if (i == 5) {
+					break;
+				}
+			}
+		}
+		return n;
+	}
+
+	// adds a hand to the moves if it is legal
+	private static int add(long cards, long last, boolean opening, long[] moves,
+			int n) {
+		if (last != 0 ? beats(cards, last) : !opening
+				|| (cards & THREE_OF_DIAMONDS) != 0) {
+			moves[n++] = cards;
+		}
+		return n;
+	}
+
+	// returns the bit of the top card of a hand of the specified type
+	private static int top(long cards, int type) {
+		if (type == FULL_HOUSE || type == QUAD) {
+			// the highest card of the triple or the quad
+			int low = Long.numberOfTrailingZeros(cards) % 13;
+			int count = Long.bitCount(cards & column(low));
+			if (count == 1 || count == 2) {
+				cards &= ~column(low);
+			} else {
+				cards &= column(low);
+			}
+		}
+		int top = -1;
+		for (long rest = cards; rest != 0; rest &= rest - 1) {
+			int bit = Long.numberOfTrailingZeros(rest);
+			if (top < 0 || KEY[bit] > KEY[top]) {
+				top = bit;
+			}
+		}
+		return top;
+	}
+
+	/**
+	 * Returns the number of twos in a set of cards.
+	 *
+	 * @param cards
+	 *            the mask of the cards
+	 * @return the number of cards of rank 2
+	 */
+	public static int twos(long cards) {
+		return Long.bitCount(cards & column(1));
+	}
+
+	/**
+	 * Returns the order of a card in Big Two: by rank from 3 up to A and 2,
+	 * then by suit.
+	 *
+	 * @param bit
+	 *            the bit of the card in a mask (suit * 13 + rank)
+	 * @return the order of the card, from 0 (Three of Diamonds) to 51
+	 */
+	public static int key(int bit) {
+		return KEY[bit];
+	}
+
+	// returns the ranks present in a set of cards, as a 13-bit mask
+	private static int ranks(long cards) {
+		return (int) ((cards | cards >>> 13 | cards >>> 26 | cards >>> 39) & SUIT);
+	}
+
+	// returns the mask of the four cards of a rank
+	private static long column(int rank) {
+		return (1L | 1L << 13 | 1L << 26 | 1L << 39) << rank;
+	}
+
+	// returns the suit of the lowest card
+	private static int suit(long cards) {
+		return Long.numberOfTrailingZeros(cards) / 13;
+	}
+}
@@ -0,0 +1,154 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is used to model a histogram of non-negative long values, such
+ * as latencies in nanoseconds. Values are counted in log-linear buckets: each
+ * power of two is split into 8 sub-buckets, so any recorded value is known to
+ * within 12.5%. Recording is lock-free and never allocates.
+ *
+ * @author jihoo
+ */
+public class Histogram {
+	// no. of bits of the sub-bucket index
+	private static final int SUB_BUCKET_BITS = 3;
+	// no. of sub-buckets per power of two
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// no. of buckets covering every non-negative long value
+	private static final int NUM_OF_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(NUM_OF_BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records the specified value. Negative values are recorded as 0.
+	 *
+	 * @param value
+	 *            the value to be recorded
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(bucketOf(value));
+		count.increment();
+		sum.add(value);
+		long m;
+		while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+			// retries until the max. is updated or no longer smaller
+		}
+	}
+
+	/**
+	 * Returns the no. of recorded values.
+	 *
+	 * @return the no. of recorded values
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Returns the sum of the recorded values.
+	 *
+	 * @return the sum of the recorded values
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * Returns the mean of the recorded values.
+	 *
+	 * @return the mean of the recorded values, or 0 if none
+	 */
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+
+	/**
+	 * Returns the largest recorded value.
+	 *
+	 * @return the largest recorded value, or 0 if none
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the value at the specified percentile, as the upper bound of the
+	 * bucket in which it falls.
+	 *
+	 * @param percentile
+	 *            the percentile between 0 and 100
+	 * @return the value at the percentile, or 0 if no value is recorded
+	 */
+	public long getPercentile(double percentile) {
+		long total = 0;
+		long[] snapshot = new long[NUM_OF_BUCKETS];
+		for (int i = 0; i < NUM_OF_BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < NUM_OF_BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(upperBoundOf(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Returns a one-line summary of this histogram with values divided by the
+	 * specified unit, e.g. 1,000,000 to show nanoseconds as milliseconds.
+	 *
+	 * @param unit
+	 *            the divisor of the values
+	 * @return a summary of this histogram
+	 */
+	public String summary(double unit) {
+		return String.format("n=%d mean=%.2f p50=%.2f p90=%.2f p99=%.2f max=%.2f",
+				getCount(), getMean() / unit, getPercentile(50) / unit,
+				getPercentile(90) / unit, getPercentile(99) / unit,
+				getMax() / unit);
+	}
+
+	// returns the index of the bucket counting the specified value
+	private static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int msb = 63 - Long.numberOfLeadingZeros(value);
+		int shift = msb - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+		return (shift + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	// returns the largest value counted by the specified bucket
+	private static long upperBoundOf(int bucket) {
+		if (bucket + 1 >= NUM_OF_BUCKETS) {
+			return Long.MAX_VALUE;
+		}
+		return lowerBoundOf(bucket + 1) - 1;
+	}
+
+	// returns the smallest value counted by the specified bucket
+	private static long lowerBoundOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+		return subBucket << shift;
+	}
+}
@@ -0,0 +1,63 @@
+/**
+ * This class is used to model the latency of the stages a message goes
+ * through, e.g. from being received by the server to being written to the
+ * clients. Each stage has its own histogram, so a slow message can be traced
+ * to the stage which caused it. Recording is lock-free.
+ *
+ * @author jihoo
+ */
+public class LatencyTrace {
+	private final String[] stages; // names of the stages
+	private final Histogram[] histograms; // latency of each stage (ns)
+
+	/**
+	 * Creates and returns an instance of the LatencyTrace class.
+	 *
+	 * @param stages
+	 *            the names of the stages, indexed by stage
+	 */
+	public LatencyTrace(String... stages) {
+		this.stages = stages;
+		this.histograms = new Histogram[stages.length];
+		for (int i = 0; i < stages.length; i++) {
+			histograms[i] = new Histogram();
+		}
+	}
+
+	/**
+	 * Records the latency of the specified stage.
+	 *
+	 * @param stage
+	 *            the index of the stage
+	 * @param nanos
+	 *            the latency in nanoseconds
+	 */
+	public void record(int stage, long nanos) {
+		histograms[stage].record(nanos);
+	}
+
+	/**
+	 * Returns the histogram of the specified stage.
+	 *
+	 * @param stage
+	 *            the index of the stage
+	 * @return the histogram of the latency of the stage in nanoseconds
+	 */
+	public Histogram getHistogram(int stage) {
+		return histograms[stage];
+	}
+
+	/**
+	 * Returns a summary of every stage in milliseconds, one line per stage.
+	 *
+	 * @return a summary of the latency of every stage
+	 */
+	public String summary() {
+		StringBuilder summary = new StringBuilder();
+		for (int i = 0; i < stages.length; i++) {
+			summary.append(String.format("  %-10s %s ms%n", stages[i],
+					histograms[i].summary(1e6)));
+		}
+		return summary.toString();
+	}
+}
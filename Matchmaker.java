@@ -0,0 +1,424 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is used to model the matchmaking service of the card game
+ * server. Joining players wait in a lobby, indexed by buckets of rating band
+ * and latency band, and are grouped into tables with the players of the same
+ * or the nearest buckets. The longer the oldest player of a bucket waits, the
+ * further the bands it may be grouped across, until any players are grouped
+ * (and bots fill the rest of the table, if enabled).
+ *
+ * <p>
+ * The index is kept up to date incrementally: a join only marks its bucket
+ * dirty, a relaxation queue marks the bucket of a player whose wait crosses a
+ * step, and each tick only tries the dirty buckets. Everything but the lobby
+ * set runs on the single scheduler thread of the server, so no lock is taken.
+ *
+ * @author jihoo
+ */
+public class Matchmaker {
+	// width of a rating band
+	private static final int RATING_BAND = 100;
+	// upper bounds (in milliseconds) of the round-trip times of each latency
+	// band but the last
+	private static final double[] LATENCY_BANDS = { 50, 150, 300 };
+	// rating of a new player, and the weight of a game in a rating update
+	private static final int INITIAL_RATING = 1500;
+	private static final double K_FACTOR = 16;
+	// interval (in milliseconds) between two ticks
+	private static final long TICK_INTERVAL = 100;
+
+	private final CardGameServer server;
+	private final ScheduledExecutorService executor;
+	private final int groupSize; // no. of players of a table
+	// wait (in milliseconds) after which the allowed band distance grows by
+	// one, and the no. of steps after which any players are grouped
+	private final long relaxStep;
+	private final int maxLevel;
+
+	// connections waiting in the lobby; may be read from any thread
+	private final Set<ClientConnection> lobby = ConcurrentHashMap.newKeySet();
+	// ratings of the players by name; may be read from any thread
+	private final ConcurrentHashMap<String, Double> ratings = new ConcurrentHashMap<String, Double>();
+	// the fields below are only used by the scheduler thread
+	private final HashMap<ClientConnection, Entry> entries = new HashMap<ClientConnection, Entry>();
+	private final HashMap<Long, Bucket> buckets = new HashMap<Long, Bucket>();
+	private final LinkedHashSet<Bucket> dirtyBuckets = new LinkedHashSet<Bucket>();
+	// waiting players by the time their wait crosses the next step
+	private final PriorityQueue<Entry> relaxations = new PriorityQueue<Entry>(
+			(a, b) -> Long.compare(a.nextRelaxAt, b.nextRelaxAt));
+
+	private final Histogram waitTime; // waits of the grouped players (ns)
+	private final LongAdder groups; // no. of groups formed
+
+	/**
+	 * Creates and returns an instance of the Matchmaker class.
+	 *
+	 * @param server
+	 *            the server hosting the tables
+	 * @param executor
+	 *            the single-threaded scheduler running the matchmaking
+	 * @param groupSize
+	 *            the no. of players of a table
+	 * @param relaxStep
+	 *            the wait in milliseconds after which a player may be grouped
+	 *            one band further
+	 * @param maxLevel
+	 *            the no. of steps after which a player may be grouped with
+	 *            any players
+	 * @param metrics
+	 *            the registry publishing the metrics of the matchmaking
+	 */
+	public Matchmaker(CardGameServer server, ScheduledExecutorService executor,
+			int groupSize, long relaxStep, int maxLevel,
+			MetricsRegistry metrics) {
+		this.server = server;
+		this.executor = executor;
+		this.groupSize = groupSize;
+		this.relaxStep = relaxStep;
+		this.maxLevel = maxLevel;
+		metrics.gauge("matchmaking_queue_depth", null,
+				"Players waiting in the matchmaking lobby.", lobby::size);
+		waitTime = metrics.histogram("matchmaking_wait_seconds", null,
+				"Time waited by the players grouped into a table.");
+		groups = metrics.counter("matchmaking_groups_total", null,
+				"Groups of players seated at a table.");
+	}
+
+	/**
+	 * Starts ticking on the scheduler.
+	 */
+	public void start() {
+		executor.scheduleWithFixedDelay(this::tick, TICK_INTERVAL,
+				TICK_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Puts a new connection in the lobby: measures its round-trip time and
+	 * asks the client to join. May be called from any thread.
+	 *
+	 * @param connection
+	 *            the connection to the client
+	 */
+	void enqueue(ClientConnection connection) {
+		lobby.add(connection);
+		connection.ping();
+		// the client answers with a JOIN message carrying its name
+		connection.send(new CardGameMessage(CardGameMessage.PLAYER_LIST, 0,
+				new String[groupSize]));
+	}
+
+	/**
+	 * Returns true if the specified connection waits in the lobby. May be
+	 * called from any thread.
+	 *
+	 * @param connection
+	 *            the connection
+	 * @return true if the connection waits in the lobby; false otherwise
+	 */
+	boolean isWaiting(ClientConnection connection) {
+		return lobby.contains(connection);
+	}
+
+	/**
+	 * Queues a player of the lobby for a table. May be called from any thread.
+	 *
+	 * @param connection
+	 *            the connection to the client
+	 * @param name
+	 *            the name of the player
+	 */
+	void join(ClientConnection connection, String name) {
+		long joinedAt = System.nanoTime();
+		executor.execute(() -> add(connection, name, joinedAt));
+	}
+
+	/**
+	 * Takes a connection out of the lobby, e.g. to resume a kept seat. May be
+	 * called from any thread.
+	 *
+	 * @param connection
+	 *            the connection
+	 * @return true if the connection was waiting in the lobby; false
+	 *         otherwise
+	 */
+	boolean withdraw(ClientConnection connection) {
+		if (!lobby.remove(connection)) {
+			return false;
+		}
+		executor.execute(() -> cancel(connection));
+		return true;
+	}
+
+	/**
+	 * Removes a lost connection, which waits in the lobby or has just been
+	 * seated by the matchmaker. May be called from any thread.
+	 *
+	 * @param connection
+	 *            the connection
+	 */
+	void remove(ClientConnection connection) {
+		executor.execute(() -> {
+			lobby.remove(connection);
+			cancel(connection);
+			CardGameTable table = connection.getTable();
+			if (table != null) {
+				// seated meanwhile
+				table.post(() -> table.removeConnection(connection));
+			} else {
+				connection.close();
+			}
+		});
+	}
+
+	/**
+	 * Returns the rating of the specified player. May be called from any
+	 * thread.
+	 *
+	 * @param name
+	 *            the name of the player
+	 * @return the rating of the player
+	 */
+	public double getRating(String name) {
+		return name == null ? INITIAL_RATING : ratings.getOrDefault(name,
+				(double) INITIAL_RATING);
+	}
+
+	/**
+	 * Updates the ratings of the players of a finished game: the winner gains
+	 * from (and each other player loses to) the winner as in a game of two.
+	 * May be called from any thread.
+	 *
+	 * @param names
+	 *            the names of the players by seat (null for a bot or an empty
+	 *            seat)
+	 * @param winner
+	 *            the seat of the winner
+	 */
+	public void recordGame(String[] names, int winner) {
+		if (names[winner] == null) {
+			return;
+		}
+		double winnerRating = getRating(names[winner]);
+		double gain = 0;
+		for (int i = 0; i < names.length; i++) {
+			if (i == winner || names[i] == null) {
+				continue;
+			}
+			double expected = 1 / (1 + Math.pow(10,
+					(getRating(names[i]) - winnerRating) / 400));
+			double delta = K_FACTOR * (1 - expected);
+			ratings.merge(names[i], INITIAL_RATING - delta, (r, d) -> r - delta);
+			gain += delta;
+		}
+		double total = gain;
+		ratings.merge(names[winner], INITIAL_RATING + total, (r, d) -> r
+				+ total);
+	}
+
+	// adds a joining player to its bucket
+	private void add(ClientConnection connection, String name, long joinedAt) {
+		if (!lobby.contains(connection) || entries.containsKey(connection)) {
+			return;
+		}
+		double rtt = connection.getRttEwma() / 1e6;
+		int latencyBand = 0;
+		while (latencyBand < LATENCY_BANDS.length
+				&& !(rtt >= 0 && rtt < LATENCY_BANDS[latencyBand])) {
+			latencyBand++;
+		}
+		if (rtt < 0) {
+			// not measured yet: assumes a middle band
+			latencyBand = LATENCY_BANDS.length / 2;
+		}
+		int ratingBand = (int) Math.floor(getRating(name) / RATING_BAND);
+		Entry entry = new Entry(connection, ratingBand, latencyBand, joinedAt);
+		entry.nextRelaxAt = joinedAt + TimeUnit.MILLISECONDS.toNanos(relaxStep);
+		entries.put(connection, entry);
+		Bucket bucket = buckets.get(entry.key());
+		if (bucket == null) {
+			bucket = new Bucket(entry.key());
+			buckets.put(bucket.key, bucket);
+		}
+		bucket.entries.add(entry);
+		bucket.live++;
+		dirtyBuckets.add(bucket);
+		relaxations.add(entry);
+	}
+
+	// cancels the entry of a connection leaving the lobby
+	private void cancel(ClientConnection connection) {
+		Entry entry = entries.remove(connection);
+		if (entry != null && !entry.done) {
+			entry.done = true;
+			Bucket bucket = buckets.get(entry.key());
+			if (--bucket.live == 0) {
+				buckets.remove(bucket.key);
+				dirtyBuckets.remove(bucket);
+			}
+		}
+	}
+
+	// marks the buckets of players whose wait has crossed a step, and tries
+	// the dirty buckets
+	private void tick() {
+		long now = System.nanoTime();
+		Entry entry;
+		while ((entry = relaxations.peek()) != null && entry.nextRelaxAt <= now) {
+			relaxations.poll();
+			if (entry.done) {
+				continue;
+			}
+			dirtyBuckets.add(buckets.get(entry.key()));
+			// retried every step once fully relaxed, e.g. when every table is
+			// busy
+			entry.nextRelaxAt += TimeUnit.MILLISECONDS.toNanos(relaxStep);
+			relaxations.add(entry);
+		}
+		while (!dirtyBuckets.isEmpty()) {
+			Iterator<Bucket> it = dirtyBuckets.iterator();
+			Bucket bucket = it.next();
+			it.remove();
+			// groups the oldest players of the bucket while possible
+			while (bucket.live > 0 && match(bucket.head(), now)) {
+				// the next oldest player of the bucket becomes the anchor
+			}
+		}
+	}
+
+	// returns the no. of steps the wait of a player has crossed
+	private int level(Entry entry, long now) {
+		long steps = (now - entry.joinedAt)
+				/ TimeUnit.MILLISECONDS.toNanos(relaxStep);
+		return (int) Math.min(maxLevel, steps);
+	}
+
+	// tries to group a player with the oldest players of the nearest buckets
+	// within the distance allowed by the wait of the player
+	private boolean match(Entry anchor, long now) {
+		int level = level(anchor, now);
+		ArrayList<Entry> group = new ArrayList<Entry>(groupSize);
+		group.add(anchor);
+		if (level >= maxLevel) {
+			// any players
+			for (Bucket bucket : buckets.values()) {
+				collect(bucket, group);
+			}
+		} else {
+			// nearest rating bands first; latency bands relax half as fast
+			int latencyDistance = level / 2;
+			for (int d = 0; d <= level && group.size() < groupSize; d++) {
+				for (int l = -latencyDistance; l <= latencyDistance; l++) {
+					collect(anchor.ratingBand - d, anchor.latencyBand + l, group);
+					if (d > 0) {
+						collect(anchor.ratingBand + d, anchor.latencyBand + l,
+								group);
+					}
+				}
+			}
+		}
+		if (group.size() < groupSize
+				&& !(level >= maxLevel && server.isBotsEnabled())) {
+			return false;
+		}
+		CardGameTable table = server.reserveTable(group.size());
+		if (table == null) {
+			// every table is busy; the players keep waiting
+			return false;
+		}
+		groups.increment();
+		for (Entry entry : group) {
+			cancel(entry.connection);
+			lobby.remove(entry.connection);
+			waitTime.record(now - entry.joinedAt);
+			entry.connection.setTable(table);
+			table.post(() -> table.attach(entry.connection));
+		}
+		server.println("Matches " + group.size() + " players at table "
+				+ table.getId() + ".");
+		return true;
+	}
+
+	private void collect(int ratingBand, int latencyBand, ArrayList<Entry> group) {
+		if (latencyBand < 0 || latencyBand > LATENCY_BANDS.length) {
+			return;
+		}
+		Bucket bucket = buckets.get(Entry.key(ratingBand, latencyBand));
+		if (bucket != null) {
+			collect(bucket, group);
+		}
+	}
+
+	// adds the oldest players of a bucket to a group until it is full
+	private void collect(Bucket bucket, ArrayList<Entry> group) {
+		for (Entry entry : bucket.entries) {
+			if (group.size() == groupSize) {
+				return;
+			}
+			if (!entry.done && entry != group.get(0)) {
+				group.add(entry);
+			}
+		}
+	}
+
+	/**
+	 * This inner class is used to model a player waiting in the lobby.
+	 */
+	private static class Entry {
+		private final ClientConnection connection;
+		private final int ratingBand;
+		private final int latencyBand;
+		private final long joinedAt; // System.nanoTime() of joining
+		private long nextRelaxAt; // when the wait crosses the next step
+		private boolean done = false; // grouped or gone
+
+		private Entry(ClientConnection connection, int ratingBand,
+				int latencyBand, long joinedAt) {
+			this.connection = connection;
+			this.ratingBand = ratingBand;
+			this.latencyBand = latencyBand;
+			this.joinedAt = joinedAt;
+		}
+
+		private long key() {
+			return key(ratingBand, latencyBand);
+		}
+
+		private static long key(int ratingBand, int latencyBand) {
+			return ((long) ratingBand << 8) | latencyBand;
+		}
+	} // Entry
+
+	/**
+	 * This inner class is used to model the players waiting with the same
+	 * rating band and latency band, oldest first.
+	 */
+	private static class Bucket {
+		private final long key;
+		// the players, including those grouped or gone not yet dropped
+		private final ArrayDeque<Entry> entries = new ArrayDeque<Entry>();
+		private int live = 0; // no. of players still waiting
+
+		private Bucket(long key) {
+			this.key = key;
+		}
+
+		// returns the oldest player still waiting, dropping the others
+		private Entry head() {
+			while (entries.peekFirst().done) {
+				entries.pollFirst();
+			}
+			return entries.peekFirst();
+		}
+	} // Bucket
+}
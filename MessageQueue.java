@@ -0,0 +1,149 @@
+import java.util.ArrayDeque;
+
+/**
+ * This class is used to model a two-lane queue of card game messages. Game
+ * messages (START, MOVE, READY, ...) are always taken before chat messages
+ * (MSG), while the order within each lane is preserved. The game lane is
+ * unbounded and never drops a message. The chat lane is bounded and drops its
+ * oldest message when it is full.
+ *
+ * @author jihoo
+ */
+public class MessageQueue {
+	// default max. no. of chat messages waiting in the chat lane
+	public static final int DEFAULT_CHAT_CAPACITY = 32;
+
+	private final ArrayDeque<CardGameMessage> gameLane = new ArrayDeque<CardGameMessage>();
+	private final ArrayDeque<CardGameMessage> chatLane = new ArrayDeque<CardGameMessage>();
+	private final int chatCapacity;
+	private long droppedChats = 0;
+	private boolean closed = false;
+	private boolean shutdown = false; // no more messages; game lane drained
+
+	/**
+	 * Creates and returns an instance of the MessageQueue class with the default
+	 * chat capacity.
+	 */
+	public MessageQueue() {
+		this(DEFAULT_CHAT_CAPACITY);
+	}
+
+	/**
+	 * Creates and returns an instance of the MessageQueue class.
+	 *
+	 * @param chatCapacity
+	 *            the max. no. of chat messages waiting in the chat lane
+	 */
+	public MessageQueue(int chatCapacity) {
+		this.chatCapacity = chatCapacity;
+	}
+
+	/**
+	 * Returns true if the specified message belongs to the chat lane.
+	 *
+	 * @param message
+	 *            the message to be checked
+	 * @return true if the message is a chat message; false otherwise
+	 */
+	public static boolean isChat(GameMessage message) {
+		return message.getType() == CardGameMessage.MSG;
+	}
+
+	/**
+	 * Appends the specified message to its lane. A chat message may cause the
+	 * oldest waiting chat message to be dropped.
+	 *
+	 * @param message
+	 *            the message to be queued
+	 * @return false if the queue has been closed; true otherwise
+	 */
+	public synchronized boolean put(CardGameMessage message) {
+		if (closed || shutdown) {
+			return false;
+		}
+		if (isChat(message)) {
+			if (chatLane.size() >= chatCapacity) {
+				// drops the oldest chat message to make room for the new one
+				chatLane.pollFirst();
+				droppedChats++;
+			}
+			chatLane.addLast(message);
+		} else {
+			gameLane.addLast(message);
+		}
+		notifyAll();
+		return true;
+	}
+
+	/**
+	 * Removes and returns the next message, waiting if the queue is empty. Game
+	 * messages are always returned before chat messages.
+	 *
+	 * @return the next message, or null if the queue has been closed, or has
+	 *         been shut down and no game message is left
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public synchronized CardGameMessage take() throws InterruptedException {
+		while (!closed && !shutdown && gameLane.isEmpty() && chatLane.isEmpty()) {
+			wait();
+		}
+		if (closed) {
+			return null;
+		}
+		if (!gameLane.isEmpty()) {
+			return gameLane.pollFirst();
+		}
+		return chatLane.pollFirst();
+	}
+
+	/**
+	 * Returns true if no message is waiting in either lane.
+	 *
+	 * @return true if the queue is empty; false otherwise
+	 */
+	public synchronized boolean isEmpty() {
+		return gameLane.isEmpty() && chatLane.isEmpty();
+	}
+
+	/**
+	 * Returns the number of messages waiting in both lanes.
+	 *
+	 * @return the number of waiting messages
+	 */
+	public synchronized int size() {
+		return gameLane.size() + chatLane.size();
+	}
+
+	/**
+	 * Returns the number of chat messages dropped because the chat lane was
+	 * full.
+	 *
+	 * @return the number of dropped chat messages
+	 */
+	public synchronized long getDroppedChats() {
+		return droppedChats;
+	}
+
+	/**
+	 * Shuts the queue down after the last message has been received. The
+	 * waiting chat messages are discarded, but the waiting game messages are
+	 * still returned by take() before it returns null.
+	 */
+	public synchronized void shutdown() {
+		shutdown = true;
+		chatLane.clear();
+		notifyAll();
+	}
+
+	/**
+	 * Closes the queue, discarding all waiting messages and waking up any
+	 * thread waiting in take().
+	 */
+	public synchronized void close() {
+		closed = true;
+		gameLane.clear();
+		chatLane.clear();
+		notifyAll();
+	}
+}
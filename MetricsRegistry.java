@@ -0,0 +1,315 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This class is used to model a registry of server metrics: counters backed by
+ * LongAdder, gauges read on demand, and histograms. Updating a metric is a
+ * single lock-free operation on a handle the caller keeps, so the registry
+ * itself is only consulted when the metrics are read. The metrics are exposed
+ * as the attributes of a JMX MBean, and in the Prometheus text format on an
+ * optional HTTP endpoint bound to the loopback address.
+ *
+ * @author jihoo
+ */
+public class MetricsRegistry implements DynamicMBean {
+	// the quantiles reported for each histogram
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+
+	// the metrics by name (including labels), sorted so that the metrics of a
+	// family are listed together
+	private final ConcurrentSkipListMap<String, Metric> metrics = new ConcurrentSkipListMap<String, Metric>();
+	private HttpServer httpServer = null;
+
+	/**
+	 * Returns the counter with the specified name and labels, creating it if
+	 * needed.
+	 *
+	 * @param name
+	 *            the name of the metric family, e.g. "messages_received_total"
+	 * @param labels
+	 *            the labels, e.g. "type=\"MOVE\"", or null if none
+	 * @param help
+	 *            the description of the metric family
+	 * @return the counter
+	 */
+	public LongAdder counter(String name, String labels, String help) {
+		return register(new Metric(name, labels, help, "counter",
+				new LongAdder(), null, null, 0)).counter;
+	}
+
+	/**
+	 * Registers a counter kept elsewhere, e.g. by an existing component.
+	 *
+	 * @param name
+	 *            the name of the metric family
+	 * @param labels
+	 *            the labels, or null if none
+	 * @param help
+	 *            the description of the metric family
+	 * @param counter
+	 *            the counter
+	 */
+	public void counter(String name, String labels, String help,
+			LongAdder counter) {
+		register(new Metric(name, labels, help, "counter", counter, null, null,
+				0));
+	}
+
+	/**
+	 * Registers a gauge, whose value is read when the metrics are read.
+	 *
+	 * @param name
+	 *            the name of the metric family
+	 * @param labels
+	 *            the labels, or null if none
+	 * @param help
+	 *            the description of the metric family
+	 * @param gauge
+	 *            returns the current value; must be thread-safe
+	 */
+	public void gauge(String name, String labels, String help,
+			LongSupplier gauge) {
+		register(new Metric(name, labels, help, "gauge", null, gauge, null, 0));
+	}
+
+	/**
+	 * Returns the histogram with the specified name and labels, creating it
+	 * if needed. Values are recorded in nanoseconds and reported in seconds.
+	 *
+	 * @param name
+	 *            the name of the metric family, e.g. "broadcast_seconds"
+	 * @param labels
+	 *            the labels, or null if none
+	 * @param help
+	 *            the description of the metric family
+	 * @return the histogram
+	 */
+	public Histogram histogram(String name, String labels, String help) {
+		return register(new Metric(name, labels, help, "summary", null, null,
+				new Histogram(), 1e-9)).histogram;
+	}
+
+	private Metric register(Metric metric) {
+		Metric existing = metrics.putIfAbsent(metric.name + " " + metric.key,
+				metric);
+		return existing != null ? existing : metric;
+	}
+
+	/**
+	 * Returns all metrics in the Prometheus text exposition format.
+	 *
+	 * @return the metrics in the Prometheus text format
+	 */
+	public String toPrometheus() {
+		StringBuilder text = new StringBuilder();
+		String family = null;
+		for (Metric metric : metrics.values()) {
+			if (!metric.name.equals(family)) {
+				family = metric.name;
+				text.append("# HELP ").append(metric.name).append(' ')
+						.append(metric.help).append('\n');
+				text.append("# TYPE ").append(metric.name).append(' ')
+						.append(metric.type).append('\n');
+			}
+			if (metric.histogram == null) {
+				text.append(metric.key).append(' ').append(metric.value())
+						.append('\n');
+				continue;
+			}
+			Histogram h = metric.histogram;
+			for (double q : QUANTILES) {
+				text.append(metric.name).append('{');
+				if (metric.labels != null) {
+					text.append(metric.labels).append(',');
+				}
+				text.append("quantile=\"").append(q).append("\"} ")
+						.append(h.getPercentile(q * 100) * metric.scale)
+						.append('\n');
+			}
+			text.append(metric.withSuffix("_sum")).append(' ')
+					.append(h.getSum() * metric.scale).append('\n');
+			text.append(metric.withSuffix("_count")).append(' ')
+					.append(h.getCount()).append('\n');
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Registers this registry as a JMX MBean with the platform MBean server.
+	 *
+	 * @param objectName
+	 *            the object name, e.g. "CardGameServer:type=Metrics"
+	 * @throws Exception
+	 *             if the MBean cannot be registered
+	 */
+	public void registerMBean(String objectName) throws Exception {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				new ObjectName(objectName));
+	}
+
+	/**
+	 * Starts serving the metrics in the Prometheus text format at
+	 * http://127.0.0.1:port/metrics, on a daemon thread.
+	 *
+	 * @param port
+	 *            the port of the HTTP endpoint
+	 * @throws IOException
+	 *             if the port cannot be bound
+	 */
+	public synchronized void startHttpServer(int port) throws IOException {
+		httpServer = HttpServer.create(new InetSocketAddress(
+				InetAddress.getLoopbackAddress(), port), 0);
+		httpServer.createContext("/metrics", exchange -> {
+			byte[] body = toPrometheus().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type",
+					"text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		httpServer.setExecutor(Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "metrics-http");
+			t.setDaemon(true);
+			return t;
+		}));
+		httpServer.start();
+	}
+
+	// implementation of method from the DynamicMBean interface
+	public Object getAttribute(String attribute)
+			throws AttributeNotFoundException {
+		Object value = attributes().get(attribute);
+		if (value == null) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		return value;
+	}
+
+	// implementation of method from the DynamicMBean interface
+	public AttributeList getAttributes(String[] names) {
+		Map<String, Object> values = attributes();
+		AttributeList list = new AttributeList();
+		for (String name : names) {
+			if (values.containsKey(name)) {
+				list.add(new Attribute(name, values.get(name)));
+			}
+		}
+		return list;
+	}
+
+	// implementation of method from the DynamicMBean interface
+	public void setAttribute(Attribute attribute)
+			throws AttributeNotFoundException {
+		// every metric is read-only
+		throw new AttributeNotFoundException(attribute.getName());
+	}
+
+	// implementation of method from the DynamicMBean interface
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	// implementation of method from the DynamicMBean interface
+	public Object invoke(String actionName, Object[] params, String[] signature)
+			throws ReflectionException {
+		// the metrics have no operations
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	// implementation of method from the DynamicMBean interface
+	public MBeanInfo getMBeanInfo() {
+		ArrayList<MBeanAttributeInfo> infos = new ArrayList<MBeanAttributeInfo>();
+		for (Map.Entry<String, Object> entry : attributes().entrySet()) {
+			infos.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue()
+					.getClass().getName(), entry.getKey(), true, false, false));
+		}
+		return new MBeanInfo(getClass().getName(), "Server metrics", infos
+				.toArray(new MBeanAttributeInfo[infos.size()]), null, null,
+				null);
+	}
+
+	// returns the value of every metric by attribute name; a histogram is
+	// flattened into its count, mean, quantiles and max. (in seconds)
+	private Map<String, Object> attributes() {
+		Map<String, Object> values = new ConcurrentSkipListMap<String, Object>();
+		for (Metric metric : metrics.values()) {
+			String name = metric.key.replaceAll("[{}\"=,]+", "_")
+					.replaceAll("_$", "");
+			if (metric.histogram == null) {
+				values.put(name, metric.value());
+				continue;
+			}
+			Histogram h = metric.histogram;
+			values.put(name + "_count", h.getCount());
+			values.put(name + "_mean", h.getMean() * metric.scale);
+			for (double q : QUANTILES) {
+				values.put(name + "_p" + (int) (q * 100),
+						h.getPercentile(q * 100) * metric.scale);
+			}
+			values.put(name + "_max", h.getMax() * metric.scale);
+		}
+		return values;
+	}
+
+	/**
+	 * This inner class is used to model a registered metric.
+	 */
+	private static class Metric {
+		private final String name; // name of the metric family
+		private final String labels; // labels, or null if none
+		private final String key; // name with labels
+		private final String help;
+		private final String type;
+		private final LongAdder counter;
+		private final LongSupplier gauge;
+		private final Histogram histogram;
+		private final double scale; // unit of the histogram values
+
+		private Metric(String name, String labels, String help, String type,
+				LongAdder counter, LongSupplier gauge, Histogram histogram,
+				double scale) {
+			this.name = name;
+			this.labels = labels;
+			this.key = labels == null ? name : name + "{" + labels + "}";
+			this.help = help;
+			this.type = type;
+			this.counter = counter;
+			this.gauge = gauge;
+			this.histogram = histogram;
+			this.scale = scale;
+		}
+
+		// returns the value of a counter or a gauge
+		private long value() {
+			return counter != null ? counter.sum() : gauge.getAsLong();
+		}
+
+		// returns the name with a suffix, followed by the labels
+		private String withSuffix(String suffix) {
+			return labels == null ? name + suffix : name + suffix + "{"
+					+ labels + "}";
+		}
+	} // Metric
+}
@@ -0,0 +1,71 @@
+/**
+ * This class is used to model the inbound rate limits of one client
+ * connection. Every message must pass both the bucket of its message type and
+ * the bucket of the whole connection, and takes a token from either only if
+ * both hold one, so that a message rejected by one bucket does not use up the
+ * other. Every rejection takes a token from a
+ * violation bucket, and a connection that empties the violation bucket is
+ * considered abusive.
+ *
+ * @author jihoo
+ */
+public class RateLimiter {
+	/**
+	 * The message is within the limits and should be processed.
+	 */
+	public static final int ACCEPT = 0;
+	/**
+	 * The message exceeds the limits and should be dropped.
+	 */
+	public static final int DROP = 1;
+	/**
+	 * The message exceeds the limits and the connection should be closed.
+	 */
+	public static final int DISCONNECT = 2;
+
+	private final TokenBucket[] typeBuckets;
+	private final TokenBucket connectionBucket;
+	private final TokenBucket violationBucket;
+
+	/**
+	 * Creates and returns an instance of the RateLimiter class.
+	 *
+	 * @param typeRefills
+	 *            the refill rate per second of each message type
+	 * @param typeBursts
+	 *            the burst size of each message type
+	 * @param connectionRefill
+	 *            the refill rate per second of the whole connection
+	 * @param connectionBurst
+	 *            the burst size of the whole connection
+	 * @param maxViolations
+	 *            the no. of rejections in a burst after which the connection
+	 *            is considered abusive (refilled at one per second)
+	 */
+	public RateLimiter(double[] typeRefills, int[] typeBursts,
+			double connectionRefill, int connectionBurst, int maxViolations) {
+		typeBuckets = new TokenBucket[typeRefills.length];
+		for (int i = 0; i < typeRefills.length; i++) {
+			typeBuckets[i] = new TokenBucket(typeRefills[i], typeBursts[i]);
+		}
+		connectionBucket = new TokenBucket(connectionRefill, connectionBurst);
+		violationBucket = new TokenBucket(1, maxViolations);
+	}
+
+	/**
+	 * Checks a message of the specified type against the limits.
+	 *
+	 * @param type
+	 *            the type of the message
+	 * @return ACCEPT, DROP or DISCONNECT
+	 */
+	public int check(int type) {
+		if (type >= 0 && type < typeBuckets.length
+				&& typeBuckets[type].hasToken() && connectionBucket.hasToken()) {
+			typeBuckets[type].tryAcquire();
+			connectionBucket.tryAcquire();
+			return ACCEPT;
+		}
+		return violationBucket.tryAcquire() ? DROP : DISCONNECT;
+	}
+}
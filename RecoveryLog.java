@@ -0,0 +1,433 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * This class is used to model the recovery log of the server, from which the
+ * live tables are rebuilt after a crash. Each table appends a record to a
+ * WriteAheadLog whenever a seat is taken or freed, a game is dealt or a move
+ * is accepted; every few seconds, each table also describes its whole state
+ * with the same records in a checkpoint, which lets the log files before it be
+ * deleted. A table is rebuilt by applying the records of the latest
+ * checkpoint, then the records it appended after the checkpoint (those from
+ * its fence on). Every record starts with its type and the id of its table:
+ *
+ * <pre>
+ * SEAT     := seat name token        (a player has joined)
+ * BOT      := seat name              (a bot holds the seat)
+ * FREE     := seat                   (the seat is empty)
+ * DEAL     := startSequence numOfSeats mask*
+ * MOVE     := seat mask              (a mask of 0 is a pass)
+ * SEQUENCE := sequence               (in checkpoints only)
+ * </pre>
+ *
+ * A checkpoint is laid out as the no. of tables, then for each table its id,
+ * its fence, its no. of records and its records (each prefixed by its
+ * length), and ends with the CRC32 of all that. It is written to a temporary
+ * file which then replaces the previous checkpoint.
+ *
+ * @author jihoo
+ */
+public class RecoveryLog {
+	static final int SEAT = 1;
+	static final int BOT = 2;
+	static final int FREE = 3;
+	static final int DEAL = 4;
+	static final int MOVE = 5;
+	static final int SEQUENCE = 6;
+
+	// size in bytes after which a new log file is started
+	private static final long FILE_SIZE = 16 << 20;
+
+	private final CardGameServer server; // the server hosting the tables
+	private final File directory; // the directory of the log and checkpoint
+	private final File checkpointFile;
+	private final long checkpointInterval; // milliseconds between checkpoints
+	private final MetricsRegistry metrics;
+	private final ExecutorService checkpointer; // writes the checkpoints
+	// a boolean indicating if a checkpoint is being taken
+	private final AtomicBoolean checkpointing = new AtomicBoolean();
+	private final LongAdder checkpoints; // no. of checkpoints written
+	private final Histogram checkpointTime; // time taken by each checkpoint
+	private final AtomicLong checkpointSize = new AtomicLong();
+	// the log being appended, or null until the tables have been recovered
+	private volatile WriteAheadLog log = null;
+
+	/**
+	 * Creates and returns an instance of the RecoveryLog class. Nothing is
+	 * appended until recover() has rebuilt the tables.
+	 *
+	 * @param server
+	 *            the server hosting the tables
+	 * @param directory
+	 *            the directory of the log files and the checkpoint, created if
+	 *            needed
+	 * @param checkpointInterval
+	 *            the time in milliseconds between two checkpoints
+	 * @param metrics
+	 *            the registry publishing the metrics of the log
+	 * @throws IOException
+	 *             if the directory cannot be created
+	 */
+	public RecoveryLog(CardGameServer server, File directory,
+			long checkpointInterval, MetricsRegistry metrics) throws IOException {
+		this.server = server;
+		this.directory = directory;
+		this.checkpointFile = new File(directory, "checkpoint.bin");
+		this.checkpointInterval = checkpointInterval;
+		this.metrics = metrics;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create " + directory);
+		}
+		checkpointer = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "checkpointer");
+			t.setDaemon(true);
+			return t;
+		});
+		checkpoints = metrics.counter("checkpoints_total", null,
+				"Checkpoints of the tables written.");
+		checkpointTime = metrics.histogram("checkpoint_seconds", null,
+				"Time taken to take and write a checkpoint of the tables.");
+		metrics.gauge("checkpoint_bytes", null,
+				"Size of the latest checkpoint of the tables.",
+				checkpointSize::get);
+	}
+
+	/**
+	 * Rebuilds the tables from the latest checkpoint and the records appended
+	 * after it, lets the tables resume, and starts appending to the log and
+	 * taking checkpoints. Must be called before the server accepts any
+	 * connection.
+	 *
+	 * @return the no. of tables rebuilt
+	 * @throws IOException
+	 *             if the checkpoint or the log cannot be read
+	 */
+	public int recover() throws IOException {
+		long startTime = System.nanoTime();
+		HashMap<Integer, Long> fences = new HashMap<Integer, Long>();
+		long maxFence = 0;
+		if (checkpointFile.exists()) {
+			ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(checkpointFile
+					.toPath()));
+			CRC32 crc = new CRC32();
+			crc.update(in.array(), 0, Math.max(0, in.limit() - 4));
+			if (in.limit() < 4
+					|| (in.getInt(in.limit() - 4) & 0xffffffffL) != crc.getValue()) {
+				throw new IOException("Corrupt checkpoint " + checkpointFile);
+			}
+			in.limit(in.limit() - 4);
+			int numOfTables = VarBuffer.readVarInt(in);
+			for (int i = 0; i < numOfTables; i++) {
+				int id = VarBuffer.readVarInt(in);
+				long fence = VarBuffer.readVarLong(in);
+				fences.put(id, fence);
+				maxFence = Math.max(maxFence, fence);
+				server.openTable(id);
+				int numOfRecords = VarBuffer.readVarInt(in);
+				for (int j = 0; j < numOfRecords; j++) {
+					int length = VarBuffer.readVarInt(in);
+					ByteBuffer record = in.slice();
+					record.limit(length);
+					apply(record);
+					in.position(in.position() + length);
+				}
+			}
+		}
+		// applies the records each table appended after its fence
+		long end = WriteAheadLog.recover(directory, (lsn, body) -> {
+			Long fence = fences.get(peekTable(body));
+			if (fence == null || lsn >= fence) {
+				apply(body);
+			}
+		});
+		log = new WriteAheadLog(directory, Math.max(end, maxFence), FILE_SIZE,
+				metrics, server);
+		int numOfTables = 0;
+		CardGameTable table;
+		while ((table = server.getTable(numOfTables)) != null) {
+			table.post(table::resumeAfterRecovery);
+			numOfTables++;
+		}
+		server.println("Recovers " + numOfTables + " tables in "
+				+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)
+				+ " ms.");
+		server.getScheduler().scheduleAtFixedRate(this::checkpoint,
+				checkpointInterval, checkpointInterval, TimeUnit.MILLISECONDS);
+		return numOfTables;
+	} // recover
+
+	/**
+	 * Appends a record to the log; it is on disk after the next group commit.
+	 * Does nothing until the tables have been recovered. May be called from
+	 * any thread.
+	 *
+	 * @param record
+	 *            the record, as returned by one of the static methods
+	 */
+	public void append(byte[] record) {
+		WriteAheadLog log = this.log;
+		if (log != null) {
+			log.append(record);
+		}
+	}
+
+	/**
+	 * Takes a checkpoint of every table, unless the previous checkpoint is
+	 * still being taken. Each table describes its own state on its own thread;
+	 * the checkpoint is written once every table has done so.
+	 */
+	public void checkpoint() {
+		if (log == null || !checkpointing.compareAndSet(false, true)) {
+			return;
+		}
+		long startTime = System.nanoTime();
+		// a table opened after the tables are enumerated is not in the
+		// checkpoint, but all its records are from here on
+		long startLsn = log.getNextLsn();
+		ArrayList<CompletableFuture<byte[]>> parts = new ArrayList<CompletableFuture<byte[]>>();
+		CardGameTable table;
+		for (int id = 0; (table = server.getTable(id)) != null; id++) {
+			CardGameTable t = table;
+			CompletableFuture<byte[]> part = new CompletableFuture<byte[]>();
+			t.post(() -> part.complete(encode(t)));
+			parts.add(part);
+		}
+		CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0]))
+				.thenRunAsync(() -> {
+					try {
+						write(parts, startLsn);
+						checkpoints.increment();
+						checkpointTime.record(System.nanoTime() - startTime);
+					} catch (IOException ex) {
+						server.log(ServerLog.WARN,
+								"Error in writing a checkpoint: ", ex);
+					} finally {
+						checkpointing.set(false);
+					}
+				}, checkpointer);
+	} // checkpoint
+
+	/**
+	 * Writes the remaining records of the log to disk.
+	 */
+	public void close() {
+		checkpointer.shutdown();
+		if (log != null) {
+			log.close();
+		}
+	}
+
+	// describes a table for a checkpoint: its id, its fence and its records
+	// (run by the table)
+	private byte[] encode(CardGameTable table) {
+		// every record the table has appended so far is before the fence
+		long fence = log.getNextLsn();
+		ArrayList<byte[]> records = new ArrayList<byte[]>();
+		table.checkpoint(records);
+		VarBuffer out = new VarBuffer(256);
+		out.writeVarLong(table.getId()).writeVarLong(fence);
+		out.writeVarLong(records.size());
+		for (byte[] record : records) {
+			out.writeVarLong(record.length).write(record, 0, record.length);
+		}
+		return out.toByteArray();
+	}
+
+	// writes a checkpoint to a temporary file, replaces the previous one with
+	// it, and deletes the log files it covers, i.e. those holding only records
+	// before startLsn and before the fence of every table
+	private void write(ArrayList<CompletableFuture<byte[]>> parts, long startLsn)
+			throws IOException {
+		VarBuffer out = new VarBuffer(4096);
+		out.writeVarLong(parts.size());
+		long minFence = startLsn;
+		for (CompletableFuture<byte[]> part : parts) {
+			byte[] bytes = part.join();
+			out.write(bytes, 0, bytes.length);
+			ByteBuffer in = ByteBuffer.wrap(bytes);
+			VarBuffer.readVarLong(in);
+			minFence = Math.min(minFence, VarBuffer.readVarLong(in));
+		}
+		CRC32 crc = new CRC32();
+		crc.update(out.asByteBuffer());
+		long checksum = crc.getValue();
+		out.write(new byte[] { (byte) (checksum >>> 24),
+				(byte) (checksum >>> 16), (byte) (checksum >>> 8),
+				(byte) checksum }, 0, 4);
+		File temp = new File(directory, "checkpoint.tmp");
+		try (FileChannel channel = FileChannel.open(temp.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer bytes = out.asByteBuffer();
+			while (bytes.hasRemaining()) {
+				channel.write(bytes);
+			}
+			channel.force(true);
+		}
+		Files.move(temp.toPath(), checkpointFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		checkpointSize.set(out.size());
+		log.truncate(minFence);
+	} // write
+
+	// returns the id of the table of a record, without consuming it
+	private static int peekTable(ByteBuffer record) {
+		ByteBuffer in = record.duplicate();
+		VarBuffer.readVarLong(in);
+		return VarBuffer.readVarInt(in);
+	}
+
+	// applies a record to its table, opening the table if needed
+	private void apply(ByteBuffer in) {
+		int type = VarBuffer.readVarInt(in);
+		CardGameTable table = server.openTable(VarBuffer.readVarInt(in));
+		switch (type) {
+		case SEAT:
+			table.restoreSeat(VarBuffer.readVarInt(in),
+					VarBuffer.readString(in), VarBuffer.readString(in));
+			break;
+		case BOT:
+			table.restoreBot(VarBuffer.readVarInt(in), VarBuffer.readString(in));
+			break;
+		case FREE:
+			table.restoreFree(VarBuffer.readVarInt(in));
+			break;
+		case DEAL:
+			long startSequence = VarBuffer.readVarLong(in);
+			long[] masks = new long[VarBuffer.readVarInt(in)];
+			for (int i = 0; i < masks.length; i++) {
+				masks[i] = VarBuffer.readVarLong(in);
+			}
+			table.restoreDeal(startSequence, masks);
+			break;
+		case MOVE:
+			table.restoreMove(VarBuffer.readVarInt(in), VarBuffer.readVarLong(in));
+			break;
+		case SEQUENCE:
+			table.restoreSequence(VarBuffer.readVarLong(in));
+			break;
+		default:
+			server.log(ServerLog.WARN, "Unknown record in the recovery log: ",
+					type);
+		}
+	} // apply
+
+	/**
+	 * Returns a SEAT record: a player has joined.
+	 *
+	 * @param table
+	 *            the id of the table
+	 * @param seat
+	 *            the seat of the player
+	 * @param name
+	 *            the name of the player
+	 * @param token
+	 *            the session token of the player
+	 * @return the record
+	 */
+	static byte[] seat(int table, int seat, String name, String token) {
+		return new VarBuffer(64).writeVarLong(SEAT).writeVarLong(table)
+				.writeVarLong(seat).writeString(name).writeString(token)
+				.toByteArray();
+	}
+
+	/**
+	 * Returns a BOT record: a bot holds a seat.
+	 *
+	 * @param table
+	 *            the id of the table
+	 * @param seat
+	 *            the seat of the bot
+	 * @param name
+	 *            the name of the bot
+	 * @return the record
+	 */
+	static byte[] bot(int table, int seat, String name) {
+		return new VarBuffer(32).writeVarLong(BOT).writeVarLong(table)
+				.writeVarLong(seat).writeString(name).toByteArray();
+	}
+
+	/**
+	 * Returns a FREE record: a seat is empty.
+	 *
+	 * @param table
+	 *            the id of the table
+	 * @param seat
+	 *            the seat
+	 * @return the record
+	 */
+	static byte[] free(int table, int seat) {
+		return new VarBuffer(16).writeVarLong(FREE).writeVarLong(table)
+				.writeVarLong(seat).toByteArray();
+	}
+
+	/**
+	 * Returns a DEAL record: a game has been dealt.
+	 *
+	 * @param table
+	 *            the id of the table
+	 * @param startSequence
+	 *            the sequence number of the START message of the game
+	 * @param masks
+	 *            the mask of the hand dealt to each seat
+	 * @return the record
+	 */
+	static byte[] deal(int table, long startSequence, long[] masks) {
+		VarBuffer out = new VarBuffer(64).writeVarLong(DEAL)
+				.writeVarLong(table).writeVarLong(startSequence)
+				.writeVarLong(masks.length);
+		for (long mask : masks) {
+			out.writeVarLong(mask);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Returns a MOVE record: a move has been accepted.
+	 *
+	 * @param table
+	 *            the id of the table
+	 * @param seat
+	 *            the seat of the player
+	 * @param cards
+	 *            the cards played, or null for a pass
+	 * @return the record
+	 */
+	static byte[] move(int table, int seat, CardList cards) {
+		return new VarBuffer(16).writeVarLong(MOVE).writeVarLong(table)
+				.writeVarLong(seat)
+				.writeVarLong(cards == null ? 0 : ReplayRecord.mask(cards))
+				.toByteArray();
+	}
+
+	/**
+	 * Returns a SEQUENCE record: the sequence number of the last START or MOVE
+	 * message of a table.
+	 *
+	 * @param table
+	 *            the id of the table
+	 * @param sequence
+	 *            the sequence number
+	 * @return the record
+	 */
+	static byte[] sequence(int table, long sequence) {
+		return new VarBuffer(16).writeVarLong(SEQUENCE).writeVarLong(table)
+				.writeVarLong(sequence).toByteArray();
+	}
+}
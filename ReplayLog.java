@@ -0,0 +1,189 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is used to model the append-only replay log of the server, to
+ * which each table appends the ReplayRecord of every game it ends. The log is
+ * a directory of segments, each a file of fixed size mapped into memory:
+ * appending a record is a copy into the mapping, and a background thread
+ * forces the new bytes to disk in batches, so no table ever waits for the
+ * disk. When a record does not fit in the current segment, a new segment is
+ * opened; the rest of the old one is left zeroed, which reads as the end of
+ * the segment.
+ *
+ * @author jihoo
+ */
+public class ReplayLog {
+	private final File directory; // the directory of the segments
+	private final int segmentSize; // size of each segment in bytes
+	private final long syncInterval; // milliseconds between two syncs
+	private final Thread syncer; // thread forcing the new bytes to disk
+	private final LongAdder games; // no. of records appended
+	private final LongAdder bytes; // no. of bytes appended
+	private final Histogram syncTime; // time taken by each sync
+	private volatile boolean closed = false;
+	// the fields below are guarded by this log
+	private int segmentNo; // no. of the current segment
+	private MappedByteBuffer segment; // the mapping of the current segment
+	private int synced = 0; // offset up to which the segment is on disk
+	private MappedByteBuffer retired = null; // a full segment not yet synced
+
+	/**
+	 * Creates and returns an instance of the ReplayLog class, opening a new
+	 * segment after the existing ones.
+	 *
+	 * @param directory
+	 *            the directory of the segments, created if needed
+	 * @param segmentSize
+	 *            the size of each segment in bytes
+	 * @param syncInterval
+	 *            the time in milliseconds between two syncs
+	 * @param metrics
+	 *            the registry publishing the metrics of the log
+	 * @throws IOException
+	 *             if the directory or the segment cannot be created
+	 */
+	public ReplayLog(File directory, int segmentSize, long syncInterval,
+			MetricsRegistry metrics) throws IOException {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.syncInterval = syncInterval;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create " + directory);
+		}
+		// never appends to an existing segment, which may end in a record cut
+		// short by a crash
+		for (File file : segments(directory)) {
+			segmentNo = Math.max(segmentNo, number(file));
+		}
+		segment = open(++segmentNo);
+		games = metrics.counter("replay_games_total", null,
+				"Games appended to the replay log.");
+		bytes = metrics.counter("replay_bytes_total", null,
+				"Bytes appended to the replay log.");
+		syncTime = metrics.histogram("replay_sync_seconds", null,
+				"Time taken to force the replay log to disk.");
+		syncer = new Thread(this::syncLoop, "replay-sync");
+		syncer.setDaemon(true);
+		syncer.start();
+	}
+
+	/**
+	 * Returns the segments in the specified directory, in the order they were
+	 * written.
+	 *
+	 * @param directory
+	 *            the directory of the segments
+	 * @return the segment files
+	 */
+	public static File[] segments(File directory) {
+		File[] files = directory.listFiles((dir, name) -> name
+				.matches("replay-\\d{8}\\.seg"));
+		if (files == null) {
+			return new File[0];
+		}
+		Arrays.sort(files);
+		return files;
+	}
+
+	/**
+	 * Appends a record to the log. The record is on disk after the next sync.
+	 * May be called from any thread.
+	 *
+	 * @param record
+	 *            the record, as returned by ReplayRecord.finish()
+	 * @throws IOException
+	 *             if a new segment cannot be opened
+	 */
+	public synchronized void append(byte[] record) throws IOException {
+		if (closed) {
+			return;
+		}
+		if (record.length >= segmentSize) {
+			throw new IOException("Record of " + record.length
+					+ " bytes exceeds the segment size");
+		}
+		// keeps at least one zero byte at the end of each segment
+		if (segment.position() + record.length >= segmentSize) {
+			if (retired != null) {
+				// the syncer is behind by a whole segment
+				retired.force();
+			}
+			retired = segment;
+			segment = open(++segmentNo);
+			synced = 0;
+		}
+		segment.put(record);
+		games.increment();
+		bytes.add(record.length);
+	}
+
+	/**
+	 * Forces the remaining bytes to disk and stops the syncer.
+	 */
+	public void close() {
+		closed = true;
+		syncer.interrupt();
+		sync();
+	}
+
+	// forces the bytes appended since the last sync to disk
+	private void sync() {
+		MappedByteBuffer full;
+		MappedByteBuffer current;
+		int from;
+		int to;
+		synchronized (this) {
+			full = retired;
+			retired = null;
+			current = segment;
+			from = synced;
+			to = segment.position();
+			synced = to;
+		}
+		if (full == null && from == to) {
+			return;
+		}
+		long startTime = System.nanoTime();
+		if (full != null) {
+			full.force();
+		}
+		if (to > from) {
+			current.force(from, to - from);
+		}
+		syncTime.record(System.nanoTime() - startTime);
+	}
+
+	private void syncLoop() {
+		while (!closed) {
+			try {
+				Thread.sleep(syncInterval);
+			} catch (InterruptedException ex) {
+				return;
+			}
+			sync();
+		}
+	}
+
+	// creates and maps a new segment
+	private MappedByteBuffer open(int number) throws IOException {
+		File file = new File(directory, String.format("replay-%08d.seg",
+				number));
+		try (FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			// the mapping stays valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		}
+	}
+
+	private static int number(File segment) {
+		String name = segment.getName();
+		return Integer.parseInt(name.substring(7, 15));
+	}
+}
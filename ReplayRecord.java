@@ -0,0 +1,165 @@
+/**
+ * This class is used to model the replay record of one game, built by its
+ * table while the game is played and appended to the ReplayLog when it ends.
+ * Every number is a varint (see VarBuffer), and a set of cards is a 52-bit
+ * mask with bit (suit * 13 + rank) set for each card. A record is laid out as follows:
+ *
+ * <pre>
+ * record := length body                 (a length of 0 ends a segment)
+ * body   := version table startTime numOfSeats name* deal* numOfMoves move* result
+ * name   := length UTF-8 bytes          (one per seat)
+ * deal   := card mask                   (one per seat)
+ * move   := elapsed (seat &lt;&lt; 1 | pass) [played]
+ * result := winner cardsLeft*           (winner is seat + 1, or 0 if abandoned)
+ * </pre>
+ *
+ * The elapsed time of a move is in milliseconds since the previous move (or
+ * the deal). The cards played are delta-encoded against the hand of the
+ * player: bit i is set if the i-th lowest card of the mask of the remaining
+ * hand is played, so a move takes 2 bytes instead of up to 8. A game of 50
+ * moves takes a few hundred bytes.
+ *
+ * @author jihoo
+ */
+public class ReplayRecord {
+	/**
+	 * The version of the layout of the records.
+	 */
+	public static final int VERSION = 1;
+
+	private final VarBuffer out = new VarBuffer(512);
+	private final long[] hands; // the remaining hand of each seat, as masks
+	private final int numOfSeats;
+	private int numOfMoves = 0;
+	private int movesAt; // offset of the moves
+	private long lastMoveAt; // the time (System.nanoTime()) of the last move
+
+	/**
+	 * Starts the record of a game which has just been dealt.
+	 *
+	 * @param table
+	 *            the id of the table
+	 * @param names
+	 *            the names of the players by seat (null for an empty seat)
+	 * @param game
+	 *            the game state, just after the deal
+	 */
+	public ReplayRecord(int table, String[] names, CardGame game) {
+		numOfSeats = names.length;
+		hands = new long[numOfSeats];
+		out.writeVarLong(VERSION).writeVarLong(table);
+		out.writeVarLong(System.currentTimeMillis()).writeVarLong(numOfSeats);
+		for (String name : names) {
+			out.writeString(name);
+		}
+		for (int i = 0; i < numOfSeats; i++) {
+			hands[i] = mask(game.getPlayerList().get(i).getCardsInHand());
+			out.writeVarLong(hands[i]);
+		}
+		movesAt = out.size();
+		lastMoveAt = System.nanoTime();
+	}
+
+	/**
+	 * Records an accepted move.
+	 *
+	 * @param seat
+	 *            the seat of the player
+	 * @param cards
+	 *            the cards played, or null for a pass
+	 */
+	public void move(int seat, CardList cards) {
+		long now = System.nanoTime();
+		out.writeVarLong((now - lastMoveAt) / 1000000);
+		lastMoveAt = now;
+		if (cards == null || cards.isEmpty()) {
+			out.writeVarLong(seat << 1 | 1);
+		} else {
+			long played = mask(cards);
+			out.writeVarLong(seat << 1);
+			out.writeVarLong(compress(hands[seat], played));
+			hands[seat] &= ~played;
+		}
+		numOfMoves++;
+	}
+
+	/**
+	 * Ends the record of the game.
+	 *
+	 * @param winner
+	 *            the seat of the winner, or -1 if the game was abandoned
+	 * @return the record, ready to be appended to the log
+	 */
+	public byte[] finish(int winner) {
+		byte[] moves = out.copyOfRange(movesAt, out.size());
+		out.truncate(movesAt);
+		out.writeVarLong(numOfMoves).write(moves, 0, moves.length);
+		out.writeVarLong(winner + 1);
+		for (long hand : hands) {
+			out.writeVarLong(Long.bitCount(hand));
+		}
+		// prefixes the length
+		byte[] body = out.toByteArray();
+		out.truncate(0);
+		out.writeVarLong(body.length).write(body, 0, body.length);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Returns the mask of a list of cards.
+	 *
+	 * @param cards
+	 *            the list of cards
+	 * @return the mask with bit (suit * 13 + rank) set for each card
+	 */
+	public static long mask(CardList cards) {
+		long mask = 0;
+		for (int i = 0; i < cards.size(); i++) {
+			Card card = cards.getCard(i);
+			mask |= 1L << (card.getSuit() * 13 + card.getRank());
+		}
+		return mask;
+	}
+
+	/**
+	 * Delta-encodes the cards played against the hand of the player.
+	 *
+	 * @param hand
+	 *            the mask of the hand
+	 * @param played
+	 *            the mask of the cards played, a subset of the hand
+	 * @return bit i set if the i-th lowest card of the hand is played
+	 */
+	public static long compress(long hand, long played) {
+		long result = 0;
+		for (int i = 0; hand != 0; i++) {
+			long lowest = hand & -hand;
+			if ((played & lowest) != 0) {
+				result |= 1L << i;
+			}
+			hand ^= lowest;
+		}
+		return result;
+	}
+
+	/**
+	 * Decodes the cards played from the hand of the player.
+	 *
+	 * @param hand
+	 *            the mask of the hand
+	 * @param compressed
+	 *            the cards played as encoded by compress()
+	 * @return the mask of the cards played
+	 */
+	public static long expand(long hand, long compressed) {
+		long result = 0;
+		for (int i = 0; hand != 0; i++) {
+			long lowest = hand & -hand;
+			if ((compressed & 1L << i) != 0) {
+				result |= lowest;
+			}
+			hand ^= lowest;
+		}
+		return result;
+	}
+}
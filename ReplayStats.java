@@ -0,0 +1,358 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class is a command-line tool for analysing the replay logs of the
+ * server (see ReplayLog and ReplayRecord). It reports the win rate by seat,
+ * by the type of the hand the game is opened with and by the no. of twos
+ * dealt, and how often each type of hand is played per trick.
+ * <p>
+ * A record never spans two segments, so the segments are scanned in parallel,
+ * one task of a parallel stream per segment, each mapped read-only into
+ * memory. A task first decodes its records into columns of bytes held in
+ * direct buffers (one byte per game or per play, for the few fields the
+ * aggregates need), then scans the columns into counts; the counts of all
+ * tasks are merged at the end. The columns of each worker thread are reused
+ * from segment to segment, so a scan of any size allocates little more than
+ * the counts.
+ *
+ * @author jihoo
+ */
+public class ReplayStats {
+	private static final int SEATS = 4; // games of other sizes are skipped
+	private static final int TYPES = HandRank.TYPE_NAMES.length;
+	private static final int LEAD = 0x80; // flag of a play leading a trick
+
+	// the columns of the segment being scanned by each worker thread
+	private static final ThreadLocal<Columns> COLUMNS = ThreadLocal
+			.withInitial(Columns::new);
+
+	private long segments = 0; // no. of segments scanned
+	private long bytes = 0; // no. of bytes scanned
+	private long games = 0; // no. of games decoded
+	private long abandoned = 0; // no. of games without a winner
+	private long skipped = 0; // no. of records of another version or size
+	private long corrupt = 0; // no. of records which cannot be decoded
+	private long passes = 0;
+	private long tricks = 0;
+	private final long[] seatWins = new long[SEATS];
+	private final long[] openings = new long[TYPES]; // games by opening hand
+	private final long[] openingWins = new long[TYPES]; // won by the opener
+	private final long[] twos = new long[5]; // players by no. of twos dealt
+	private final long[] twosWins = new long[5];
+	private final long[] plays = new long[TYPES];
+	private final long[] leads = new long[TYPES]; // plays leading a trick
+
+	/**
+	 * main() method for running the tool.
+	 *
+	 * @param args
+	 *            the replay directories (or single segments) to be scanned
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			System.out.println("Usage: java ReplayStats DIR...");
+			System.exit(2);
+		}
+		ArrayList<File> files = new ArrayList<File>();
+		for (String arg : args) {
+			File file = new File(arg);
+			if (file.isDirectory()) {
+				files.addAll(Arrays.asList(ReplayLog.segments(file)));
+			} else {
+				files.add(file);
+			}
+		}
+		long startTime = System.nanoTime();
+		ReplayStats stats = scan(files);
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		System.out.printf("%,d games in %d segments (%,d MB) scanned in %.1f s "
+				+ "(%,.0f games/s) on %d threads%n", stats.games, stats.segments,
+				stats.bytes >> 20, seconds, stats.games / seconds, Runtime
+						.getRuntime().availableProcessors());
+		stats.print();
+	} // main
+
+	/**
+	 * Scans the specified segments in parallel.
+	 *
+	 * @param files
+	 *            the segment files
+	 * @return the aggregates of all the games in the segments
+	 */
+	public static ReplayStats scan(ArrayList<File> files) {
+		return files.parallelStream().collect(ReplayStats::new,
+				ReplayStats::scan, ReplayStats::merge);
+	}
+
+	// scans a segment into these aggregates
+	private void scan(File file) {
+		MappedByteBuffer in;
+		try (FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ)) {
+			// the mapping stays valid after the channel is closed
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (IOException ex) {
+			System.out.println("Cannot read " + file + ": " + ex.getMessage());
+			return;
+		}
+		Columns columns = COLUMNS.get();
+		columns.clear();
+		while (in.hasRemaining()) {
+			int length = VarBuffer.readVarInt(in);
+			if (length <= 0 || length > in.remaining()) {
+				// the zeroed end of the segment, or a record cut short
+				break;
+			}
+			ByteBuffer record = in.slice(in.position(), length);
+			in.position(in.position() + length);
+			try {
+				columns.decode(record, this);
+			} catch (BufferUnderflowException | IllegalArgumentException ex) {
+				columns.rollback();
+				corrupt++;
+			}
+		}
+		columns.aggregate(this);
+		segments++;
+		bytes += in.capacity();
+	}
+
+	// adds the aggregates of another scan to these
+	private void merge(ReplayStats other) {
+		segments += other.segments;
+		bytes += other.bytes;
+		games += other.games;
+		abandoned += other.abandoned;
+		skipped += other.skipped;
+		corrupt += other.corrupt;
+		passes += other.passes;
+		tricks += other.tricks;
+		add(seatWins, other.seatWins);
+		add(openings, other.openings);
+		add(openingWins, other.openingWins);
+		add(twos, other.twos);
+		add(twosWins, other.twosWins);
+		add(plays, other.plays);
+		add(leads, other.leads);
+	}
+
+	private static void add(long[] sum, long[] counts) {
+		for (int i = 0; i < sum.length; i++) {
+			sum[i] += counts[i];
+		}
+	}
+
+	// prints the report
+	private void print() {
+		long finished = games - abandoned;
+		System.out.printf("%,d finished, %,d abandoned, %,d skipped, %,d corrupt%n",
+				finished, abandoned, skipped, corrupt);
+		System.out.println();
+		System.out.println("Win rate by seat");
+		for (int i = 0; i < SEATS; i++) {
+			System.out.printf("  seat %d          %6.2f%%%n", i, percent(seatWins[i],
+					finished));
+		}
+		System.out.println();
+		System.out.println("Win rate of the opener by opening hand");
+		for (int i = 0; i < TYPES; i++) {
+			if (openings[i] > 0) {
+				System.out.printf("  %-14s %6.2f%%  of %,d games%n",
+						HandRank.TYPE_NAMES[i], percent(openingWins[i],
+								openings[i]), openings[i]);
+			}
+		}
+		System.out.println();
+		System.out.println("Win rate by no. of twos dealt");
+		for (int i = 0; i < twos.length; i++) {
+			System.out.printf("  %d twos         %6.2f%%  of %,d players%n", i,
+					percent(twosWins[i], twos[i]), twos[i]);
+		}
+		System.out.println();
+		System.out.printf("Hands played per trick (%,d tricks, %.2f passes per trick)%n",
+				tricks, tricks == 0 ? 0 : (double) passes / tricks);
+		long total = Arrays.stream(plays).sum();
+		for (int i = 0; i < TYPES; i++) {
+			System.out.printf("  %-14s %6.3f per trick  %6.2f%% of plays  "
+					+ "%6.2f%% of leads%n", HandRank.TYPE_NAMES[i],
+					tricks == 0 ? 0 : (double) plays[i] / tricks, percent(
+							plays[i], total), percent(leads[i], tricks));
+		}
+	}
+
+	private static double percent(long count, long total) {
+		return total == 0 ? 0 : 100.0 * count / total;
+	}
+
+	/**
+	 * This inner class is used to model the columns decoded from one segment.
+	 */
+	private static class Columns {
+		private final Column winners = new Column(); // seat, or -1
+		private final Column openers = new Column(); // seat of the first play
+		private final Column openings = new Column(); // type of the first play
+		private final Column twos = new Column(); // SEATS bytes per game
+		private final Column plays = new Column(); // type, | LEAD
+		private final long[] hands = new long[SEATS];
+		private int games = 0;
+		private int playsAt = 0; // no. of plays before the current record
+
+		private void clear() {
+			winners.clear();
+			openers.clear();
+			openings.clear();
+			twos.clear();
+			plays.clear();
+			games = 0;
+			playsAt = 0;
+		}
+
+		// drops what has been decoded from a record which cannot be decoded
+		private void rollback() {
+			winners.truncate(games);
+			openers.truncate(games);
+			openings.truncate(games);
+			twos.truncate(games * SEATS);
+			plays.truncate(playsAt);
+		}
+
+		// decodes a record into the columns
+		private void decode(ByteBuffer in, ReplayStats stats) {
+			if (VarBuffer.readVarInt(in) != ReplayRecord.VERSION) {
+				stats.skipped++;
+				return;
+			}
+			VarBuffer.readVarLong(in); // table
+			VarBuffer.readVarLong(in); // start time
+			if (VarBuffer.readVarInt(in) != SEATS) {
+				stats.skipped++;
+				return;
+			}
+			for (int i = 0; i < SEATS; i++) {
+				// skips the name
+				int length = VarBuffer.readVarInt(in);
+				in.position(in.position() + length);
+			}
+			for (int i = 0; i < SEATS; i++) {
+				hands[i] = VarBuffer.readVarLong(in);
+				twos.put(HandRank.twos(hands[i]));
+			}
+			int numOfMoves = VarBuffer.readVarInt(in);
+			int lastSeat = -1; // the seat of the last play
+			int opening = -1;
+			for (int i = 0; i < numOfMoves; i++) {
+				VarBuffer.readVarLong(in); // elapsed time
+				int move = VarBuffer.readVarInt(in);
+				int seat = move >> 1;
+				if (seat >= SEATS) {
+					throw new IllegalArgumentException("No seat " + seat);
+				}
+				if ((move & 1) != 0) {
+					stats.passes++;
+					continue;
+				}
+				long played = ReplayRecord.expand(hands[seat], VarBuffer
+						.readVarLong(in));
+				hands[seat] &= ~played;
+				int type = HandRank.type(played);
+				if (type < 0) {
+					throw new IllegalArgumentException("Not a hand");
+				}
+				if (lastSeat < 0) {
+					openers.put(seat);
+					opening = type;
+				}
+				// everyone else has passed if the last player plays again
+				plays.put(lastSeat < 0 || seat == lastSeat ? type | LEAD : type);
+				lastSeat = seat;
+			}
+			if (lastSeat < 0) {
+				openers.put(-1);
+			}
+			openings.put(opening);
+			int winner = VarBuffer.readVarInt(in) - 1;
+			if (winner >= SEATS || winner >= 0 && opening < 0) {
+				throw new IllegalArgumentException("No winner " + winner);
+			}
+			winners.put(winner);
+			games++;
+			playsAt = plays.size();
+		}
+
+		// scans the columns into counts
+		private void aggregate(ReplayStats stats) {
+			stats.games += games;
+			for (int i = 0; i < games; i++) {
+				int winner = winners.get(i);
+				if (winner < 0) {
+					stats.abandoned++;
+					continue;
+				}
+				stats.seatWins[winner]++;
+				int opening = openings.get(i);
+				stats.openings[opening]++;
+				if (openers.get(i) == winner) {
+					stats.openingWins[opening]++;
+				}
+				for (int j = 0; j < SEATS; j++) {
+					int n = twos.get(i * SEATS + j);
+					stats.twos[n]++;
+					if (j == winner) {
+						stats.twosWins[n]++;
+					}
+				}
+			}
+			int n = plays.size();
+			for (int i = 0; i < n; i++) {
+				int play = plays.get(i) & 0xff;
+				stats.plays[play & ~LEAD]++;
+				if ((play & LEAD) != 0) {
+					stats.leads[play & ~LEAD]++;
+					stats.tricks++;
+				}
+			}
+		}
+	} // Columns
+
+	/**
+	 * This inner class is used to model a column of bytes in a direct buffer,
+	 * doubled in size when full.
+	 */
+	private static class Column {
+		private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+
+		private void put(int value) {
+			if (!buffer.hasRemaining()) {
+				ByteBuffer larger = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+				buffer.flip();
+				larger.put(buffer);
+				buffer = larger;
+			}
+			buffer.put((byte) value);
+		}
+
+		private byte get(int i) {
+			return buffer.get(i);
+		}
+
+		private int size() {
+			return buffer.position();
+		}
+
+		private void truncate(int size) {
+			buffer.position(size);
+		}
+
+		private void clear() {
+			buffer.clear();
+		}
+	} // Column
+}
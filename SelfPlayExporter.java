@@ -0,0 +1,602 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is a command-line tool for exporting a dataset of Big Two
+ * decisions for training and tuning bots offline. It plays games of self-play
+ * on all the cores, on card masks (see HandRank) with the strategy of
+ * BigTwoBot, optionally exploring random legal moves, and writes one row per
+ * turn: the seat and cards of the player, the card counts of the opponents,
+ * the rank of the hand to beat, the legal moves, the move chosen and the no.
+ * of cards the player is left with when the game ends. Game g is dealt from
+ * the deck shuffled with seed (seed + g), as the server deals it.
+ * <p>
+ * The rows are written in groups of up to 65536, column by column, each
+ * column of a group either bit-packed against its minimum or
+ * dictionary-encoded with bit-packed indices, whichever is smaller. Each
+ * worker thread fills its own group and appends it to the file when full, so
+ * memory stays flat however many games are played. A file is laid out as
+ * follows (numbers are varints, see VarBuffer):
+ *
+ * <pre>
+ * file   := "B2SP" version group* 0
+ * group  := numOfRows chunk*            (one chunk per column, in order)
+ * chunk  := length numOfValues encoding values
+ * values := min width bits              (encoding 0, bit-packed)
+ *         | size value* width bits      (encoding 1, dictionary)
+ * </pre>
+ *
+ * The columns are GAME, SEAT, HAND (card mask), OPPONENTS (the card counts of
+ * the next three seats, 4 bits each from the lowest bits), LAST
+ * (HandRank.rank() of the hand to beat, or 0 if the player leads), NUM_MOVES,
+ * MOVES (NUM_MOVES values per row, excluding the pass a player who follows
+ * may make), MOVE (0 for a pass) and CARDS_LEFT (0 if the player won). The
+ * moves are delta-encoded against the cards of the player as in ReplayRecord,
+ * so each takes at most 13 bits. The length of a chunk lets a reader skip the
+ * columns it does not need.
+ *
+ * @author jihoo
+ */
+public class SelfPlayExporter {
+	/**
+	 * The version of the layout of the files.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * The names of the columns, in the order they are written.
+	 */
+	public static final String[] COLUMN_NAMES = { "GAME", "SEAT", "HAND",
+			"OPPONENTS", "LAST", "NUM_MOVES", "MOVES", "MOVE", "CARDS_LEFT" };
+
+	private static final byte[] MAGIC = "B2SP".getBytes(StandardCharsets.US_ASCII);
+	private static final int GAME = 0, SEAT = 1, HAND = 2, OPPONENTS = 3,
+			LAST = 4, NUM_MOVES = 5, MOVES = 6, MOVE = 7, CARDS_LEFT = 8;
+	private static final int GROUP_SIZE = 1 << 16; // rows per group
+	private static final int MAX_DICTIONARY = 1 << 12; // values per dictionary
+	private static final int SEATS = 4;
+
+	private final OutputStream out;
+	private final long games; // no. of games to be played
+	private final long seed;
+	private final double explore; // chance of a random legal move
+	private final AtomicLong nextGame = new AtomicLong();
+	private final AtomicLong rows = new AtomicLong();
+	private long bytes = 0; // guarded by this exporter
+
+	/**
+	 * Creates and returns an instance of the SelfPlayExporter class, and
+	 * writes the header of the file.
+	 *
+	 * @param out
+	 *            the stream of the file
+	 * @param games
+	 *            the no. of games to be played
+	 * @param seed
+	 *            the seed of the deal of game 0
+	 * @param explore
+	 *            the chance of playing a random legal move instead of the
+	 *            move of the bot
+	 * @throws IOException
+	 *             if the header cannot be written
+	 */
+	public SelfPlayExporter(OutputStream out, long games, long seed,
+			double explore) throws IOException {
+		this.out = out;
+		this.games = games;
+		this.seed = seed;
+		this.explore = explore;
+		VarBuffer header = new VarBuffer(8);
+		header.write(MAGIC, 0, MAGIC.length).writeVarLong(VERSION);
+		write(header);
+	}
+
+	/**
+	 * main() method for running the tool.
+	 *
+	 * @param args
+	 *            the file to be written, optionally preceded by these options:
+	 *            --games N to play N games (default 100,000); --threads N to
+	 *            play on N threads (default one per core); --seed S to deal
+	 *            game 0 with seed S (default 0); --explore P to play a random
+	 *            legal move with probability P (default 0). Or --check FILE to
+	 *            read a file back and print the size of each column
+	 */
+	public static void main(String[] args) {
+		long games = 100000;
+		int threads = Runtime.getRuntime().availableProcessors();
+		long seed = 0;
+		double explore = 0;
+		String path = null;
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("--games") && i + 1 < args.length) {
+				games = Long.parseLong(args[++i]);
+			} else if (arg.equals("--threads") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (arg.equals("--seed") && i + 1 < args.length) {
+				seed = Long.parseLong(args[++i]);
+			} else if (arg.equals("--explore") && i + 1 < args.length) {
+				explore = Double.parseDouble(args[++i]);
+			} else if (arg.equals("--check") && i + 1 < args.length) {
+				try {
+					check(new File(args[++i]));
+				} catch (IOException ex) {
+					System.out.println("Cannot read " + args[i] + ": " + ex.getMessage());
+					System.exit(1);
+				}
+				return;
+			} else {
+				path = arg;
+			}
+		}
+		if (path == null) {
+			System.out.println("Usage: java SelfPlayExporter [--games N] [--threads N] "
+					+ "[--seed S] [--explore P] FILE | --check FILE");
+			System.exit(2);
+		}
+		try (OutputStream out = new FileOutputStream(path)) {
+			long startTime = System.nanoTime();
+			SelfPlayExporter exporter = new SelfPlayExporter(out, games, seed, explore);
+			exporter.run(threads);
+			double seconds = (System.nanoTime() - startTime) / 1e9;
+			long rows = exporter.rows.get();
+			System.out.printf("%,d games, %,d decisions in %.1f s (%,.0f decisions/min) "
+					+ "on %d threads, %,d bytes (%.1f bytes/decision)%n", games, rows,
+					seconds, rows / seconds * 60, threads, exporter.bytes,
+					(double) exporter.bytes / rows);
+		} catch (IOException ex) {
+			System.out.println("Cannot write " + path + ": " + ex.getMessage());
+			System.exit(1);
+		}
+	} // main
+
+	/**
+	 * Plays all the games on the specified no. of threads, and ends the file.
+	 *
+	 * @param threads
+	 *            the no. of threads
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void run(int threads) throws IOException {
+		ArrayList<Thread> workers = new ArrayList<Thread>();
+		IOException[] error = new IOException[1];
+		for (int i = 0; i < threads; i++) {
+			Thread t = new Thread(() -> {
+				try {
+					play();
+				} catch (IOException ex) {
+					synchronized (error) {
+						error[0] = ex;
+					}
+					// stops the other workers
+					nextGame.set(games);
+				}
+			}, "self-play-" + i);
+			t.start();
+			workers.add(t);
+		}
+		for (Thread t : workers) {
+			try {
+				t.join();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted");
+			}
+		}
+		if (error[0] != null) {
+			throw error[0];
+		}
+		write(new VarBuffer(1).writeVarLong(0));
+		out.flush();
+	}
+
+	// plays games until all have been claimed, writing the rows in groups
+	private void play() throws IOException {
+		Group group = new Group();
+		long[] moves = new long[HandRank.MAX_MOVES];
+		long[] hands = new long[SEATS];
+		for (long game = nextGame.getAndIncrement(); game < games; game = nextGame
+				.getAndIncrement()) {
+			deal(seed + game, hands);
+			SplittableRandom random = explore > 0 ? new SplittableRandom(seed + game)
+					: null;
+			int first = group.rows;
+			// the holder of the Three of Diamonds leads the first trick
+			int seat = 0;
+			while ((hands[seat] & 1L << 2) == 0) {
+				seat++;
+			}
+			long last = 0; // the hand to beat, or 0 if the player leads
+			int lastSeat = -1;
+			while (true) {
+				long hand = hands[seat];
+				int n = HandRank.moves(hand, last, lastSeat < 0, moves);
+				long move;
+				if (random != null && random.nextDouble() < explore) {
+					int i = random.nextInt(last != 0 ? n + 1 : n);
+					move = i < n ? moves[i] : 0;
+				} else {
+					move = choose(hand, last, moves, n);
+				}
+				long opponents = 0;
+				for (int i = 1; i < SEATS; i++) {
+					opponents |= (long) Long.bitCount(hands[(seat + i) % SEATS]) << 4 * (i - 1);
+				}
+				group.add(game, seat, hand, opponents, HandRank.rank(last), moves, n, move);
+				if (move != 0) {
+					hands[seat] &= ~move;
+					last = move;
+					lastSeat = seat;
+					if (hands[seat] == 0) {
+						break;
+					}
+				}
+				seat = (seat + 1) % SEATS;
+				if (seat == lastSeat) {
+					// everyone else has passed
+					last = 0;
+				}
+			}
+			group.finish(first, hands);
+			if (group.rows >= GROUP_SIZE) {
+				rows.addAndGet(group.rows);
+				write(group.encode());
+			}
+		}
+		if (group.rows > 0) {
+			rows.addAndGet(group.rows);
+			write(group.encode());
+		}
+	}
+
+	// deals the cards of a game as the server does, into masks
+	private static void deal(long seed, long[] hands) {
+		Deck deck = new BigTwoDeck();
+		deck.shuffle(seed, Deck.SHUFFLE_VERSION);
+		for (int i = 0; i < SEATS; i++) {
+			hands[i] = 0;
+			for (int j = 0; j < 13; j++) {
+				Card card = deck.getCard(i * 13 + j);
+				hands[i] |= 1L << (card.getSuit() * 13 + card.getRank());
+			}
+		}
+	}
+
+	/**
+	 * Chooses a move as BigTwoBot does: when leading, the lowest legal hand
+	 * of the largest size with the lowest card; otherwise the lowest legal
+	 * hand, or a pass if there is none. A hand is lower than another if the
+	 * lowest card in which they differ is in it.
+	 *
+	 * @param hand
+	 *            the mask of the cards of the player
+	 * @param last
+	 *            the mask of the hand to beat, or 0 if the player leads
+	 * @param moves
+	 *            the legal moves, as listed by HandRank.moves()
+	 * @param n
+	 *            the no. of legal moves
+	 * @return the mask of the move, or 0 for a pass
+	 */
+	public static long choose(long hand, long last, long[] moves, int n) {
+		long lowest = 0;
+		int size = 0;
+		if (last == 0) {
+			for (long rest = hand; rest != 0; rest &= rest - 1) {
+				long card = rest & -rest;
+				if (lowest == 0 || order(card) < order(lowest)) {
+					lowest = card;
+				}
+			}
+		}
+		long best = 0;
+		long bestOrder = 0;
+		for (int i = 0; i < n; i++) {
+			long move = moves[i];
+			if ((move & lowest) != lowest) {
+				continue;
+			}
+			int k = Long.bitCount(move);
+			if (k < size) {
+				continue;
+			}
+			long order = order(move);
+			// the lowest card in which the two hands differ is in the lower
+			if (k > size || (order & Long.lowestOneBit(order ^ bestOrder)) != 0) {
+				best = move;
+				bestOrder = order;
+				size = k;
+			}
+		}
+		return best;
+	}
+
+	// returns a set of cards as a mask with bit HandRank.key() set for each
+	private static long order(long cards) {
+		long order = 0;
+		for (long rest = cards; rest != 0; rest &= rest - 1) {
+			order |= 1L << HandRank.key(Long.numberOfTrailingZeros(rest));
+		}
+		return order;
+	}
+
+	// appends bytes to the file
+	private synchronized void write(VarBuffer buffer) throws IOException {
+		out.write(buffer.toByteArray());
+		bytes += buffer.size();
+	}
+
+	/**
+	 * Reads a file back, checks that every move chosen is legal, and prints
+	 * the size and encoding of each column.
+	 *
+	 * @param file
+	 *            the file
+	 * @throws IOException
+	 *             if the file cannot be read or is not valid
+	 */
+	public static void check(File file) throws IOException {
+		long[] bytes = new long[COLUMN_NAMES.length];
+		long[] dictionaries = new long[COLUMN_NAMES.length];
+		long rows = 0;
+		long groups = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)))) {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC) || readVarLong(in) != VERSION) {
+				throw new IOException("Not a self-play file of version " + VERSION);
+			}
+			while (true) {
+				int n = (int) readVarLong(in);
+				if (n == 0) {
+					break;
+				}
+				long[][] columns = new long[COLUMN_NAMES.length][];
+				for (int c = 0; c < columns.length; c++) {
+					int length = (int) readVarLong(in);
+					byte[] chunk = new byte[length];
+					in.readFully(chunk);
+					ByteBuffer buffer = ByteBuffer.wrap(chunk);
+					int values = VarBuffer.readVarInt(buffer);
+					int encoding = VarBuffer.readVarInt(buffer);
+					columns[c] = decode(buffer, values, encoding);
+					if (encoding == 1) {
+						dictionaries[c]++;
+					}
+					bytes[c] += length;
+				}
+				long moves = 0;
+				for (int i = 0; i < n; i++) {
+					long move = columns[MOVE][i];
+					boolean legal = move == 0 && columns[LAST][i] != 0;
+					for (int j = 0; j < columns[NUM_MOVES][i]; j++) {
+						legal |= columns[MOVES][(int) moves++] == move;
+					}
+					if (!legal) {
+						throw new IOException("Illegal move in row " + (rows + i));
+					}
+				}
+				if (moves != columns[MOVES].length) {
+					throw new IOException("Wrong no. of moves in group " + groups);
+				}
+				rows += n;
+				groups++;
+			}
+		}
+		System.out.printf("%,d rows in %,d groups, %,d bytes%n", rows, groups,
+				file.length());
+		for (int c = 0; c < COLUMN_NAMES.length; c++) {
+			System.out.printf("  %-10s %,14d bytes %7.2f bits/row  %d of %d dictionary%n",
+					COLUMN_NAMES[c], bytes[c], 8.0 * bytes[c] / rows, dictionaries[c],
+					groups);
+		}
+	}
+
+	// decodes the values of a chunk, after its encoding
+	private static long[] decode(ByteBuffer in, int n, int encoding) {
+		long[] dictionary = null;
+		long min = 0;
+		if (encoding == 1) {
+			dictionary = new long[VarBuffer.readVarInt(in)];
+			for (int i = 0; i < dictionary.length; i++) {
+				dictionary[i] = VarBuffer.readVarLong(in);
+			}
+		} else {
+			min = VarBuffer.readVarLong(in);
+		}
+		int width = VarBuffer.readVarInt(in);
+		long[] values = new long[n];
+		long bit = 0;
+		int at = in.position();
+		for (int i = 0; i < n; i++) {
+			long value = 0;
+			for (int got = 0; got < width;) {
+				int b = in.get(at + (int) (bit >>> 3)) & 0xff;
+				int offset = (int) (bit & 7);
+				int take = Math.min(8 - offset, width - got);
+				value |= (long) (b >>> offset & (1 << take) - 1) << got;
+				got += take;
+				bit += take;
+			}
+			values[i] = dictionary != null ? dictionary[(int) value] : min + value;
+		}
+		return values;
+	}
+
+	private static long readVarLong(InputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException();
+			}
+			value |= (long) (b & 0x7f) << shift;
+			if (b < 0x80) {
+				return value;
+			}
+		}
+	}
+
+	/**
+	 * This inner class is used to model a group of rows being filled by a
+	 * worker thread, column by column.
+	 */
+	private static class Group {
+		private final Column[] columns = new Column[COLUMN_NAMES.length];
+		private final VarBuffer buffer = new VarBuffer(1 << 20);
+		private byte[] packed = new byte[1 << 16]; // bits of a chunk
+		private long[] sorted = new long[GROUP_SIZE]; // values of a chunk, sorted
+		private int rows = 0;
+
+		private Group() {
+			for (int c = 0; c < columns.length; c++) {
+				columns[c] = new Column();
+			}
+		}
+
+		// adds a row, whose no. of cards left is filled in at the end of the game
+		private void add(long game, int seat, long hand, long opponents,
+				int last, long[] moves, int n, long move) {
+			columns[GAME].add(game);
+			columns[SEAT].add(seat);
+			columns[HAND].add(hand);
+			columns[OPPONENTS].add(opponents);
+			columns[LAST].add(last);
+			columns[NUM_MOVES].add(n);
+			for (int i = 0; i < n; i++) {
+				columns[MOVES].add(ReplayRecord.compress(hand, moves[i]));
+			}
+			columns[MOVE].add(ReplayRecord.compress(hand, move));
+			columns[CARDS_LEFT].add(0);
+			rows++;
+		}
+
+		// fills in the no. of cards left in the rows of a game which has ended
+		private void finish(int first, long[] hands) {
+			long[] left = columns[CARDS_LEFT].values;
+			long[] seats = columns[SEAT].values;
+			for (int i = first; i < rows; i++) {
+				left[i] = Long.bitCount(hands[(int) seats[i]]);
+			}
+		}
+
+		// encodes the rows, and empties the group
+		private VarBuffer encode() {
+			buffer.truncate(0);
+			buffer.writeVarLong(rows);
+			for (Column column : columns) {
+				int start = buffer.size();
+				encode(column);
+				// prefixes the length of the chunk
+				byte[] chunk = buffer.copyOfRange(start, buffer.size());
+				buffer.truncate(start);
+				buffer.writeVarLong(chunk.length).write(chunk, 0, chunk.length);
+				column.size = 0;
+			}
+			rows = 0;
+			return buffer;
+		}
+
+		// encodes a column, dictionary-encoded if it takes fewer bytes
+		private void encode(Column column) {
+			int n = column.size;
+			long[] values = column.values;
+			if (sorted.length < n) {
+				sorted = new long[values.length];
+			}
+			System.arraycopy(values, 0, sorted, 0, n);
+			Arrays.sort(sorted, 0, n);
+			int distinct = 0;
+			for (int i = 0; i < n; i++) {
+				if (i == 0 || sorted[i] != sorted[i - 1]) {
+					sorted[distinct++] = sorted[i];
+				}
+			}
+			long min = n == 0 ? 0 : sorted[0];
+			long max = n == 0 ? 0 : sorted[distinct - 1];
+			int plainWidth = width(max - min);
+			int dictionaryWidth = width(distinct - 1);
+			long dictionaryBits = (long) n * dictionaryWidth;
+			for (int i = 0; i < distinct && i < MAX_DICTIONARY; i++) {
+				dictionaryBits += 8 * varLength(sorted[i]);
+			}
+			buffer.writeVarLong(n);
+			if (distinct <= MAX_DICTIONARY && dictionaryBits < (long) n * plainWidth) {
+				buffer.writeVarLong(1).writeVarLong(distinct);
+				for (int i = 0; i < distinct; i++) {
+					buffer.writeVarLong(sorted[i]);
+				}
+				buffer.writeVarLong(dictionaryWidth);
+				pack(values, n, dictionaryWidth, distinct, 0);
+			} else {
+				buffer.writeVarLong(0).writeVarLong(min).writeVarLong(plainWidth);
+				pack(values, n, plainWidth, 0, min);
+			}
+		}
+
+		// bit-packs the values (less min), or their indices in the first
+		// distinct values of sorted if distinct is not 0
+		private void pack(long[] values, int n, int width, int distinct, long min) {
+			int length = (int) (((long) n * width + 7) >>> 3);
+			if (packed.length < length) {
+				packed = new byte[length];
+			}
+			Arrays.fill(packed, 0, length, (byte) 0);
+			long bit = 0;
+			for (int i = 0; i < n; i++) {
+				long value = distinct > 0 ? Arrays.binarySearch(sorted, 0, distinct,
+						values[i]) : values[i] - min;
+				for (int put = 0; put < width;) {
+					int at = (int) (bit >>> 3);
+					int offset = (int) (bit & 7);
+					int take = Math.min(8 - offset, width - put);
+					packed[at] |= (byte) ((value >>> put & (1 << take) - 1) << offset);
+					put += take;
+					bit += take;
+				}
+			}
+			buffer.write(packed, 0, length);
+		}
+
+		// returns the no. of bits needed to hold a value
+		private static int width(long value) {
+			return 64 - Long.numberOfLeadingZeros(value);
+		}
+
+		private static int varLength(long value) {
+			return Math.max(1, (width(value) + 6) / 7);
+		}
+	} // Group
+
+	/**
+	 * This inner class is used to model a column of a group, growing as
+	 * needed.
+	 */
+	private static class Column {
+		private long[] values = new long[GROUP_SIZE + 256];
+		private int size = 0;
+
+		private void add(long value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+	} // Column
+}
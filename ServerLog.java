@@ -0,0 +1,376 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class is used to model the event log of the card game server. Logging
+ * only claims a slot of a lock-free ring buffer and stores the level, the time
+ * and the (unformatted) message, so it never blocks, never allocates and never
+ * touches I/O or Swing on the calling thread. A daemon thread drains the ring
+ * buffer, formats the entries and writes them to the standard output, to a
+ * rotated log file and to a bounded in-memory tail shown by the console.
+ * Entries logged while the ring buffer is full are dropped and counted.
+ *
+ * @author jihoo
+ */
+public class ServerLog {
+	/**
+	 * Level of the entries for tracing each message (off by default).
+	 */
+	public static final int DEBUG = 0;
+	/**
+	 * Level of the entries for the normal events of the server.
+	 */
+	public static final int INFO = 1;
+	/**
+	 * Level of the entries for unexpected but handled events.
+	 */
+	public static final int WARN = 2;
+	/**
+	 * Level of the entries for errors.
+	 */
+	public static final int ERROR = 3;
+	private static final String[] LEVEL_NAMES = { "DEBUG", "INFO", "WARN",
+			"ERROR" };
+	private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter
+			.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+	// time (in nanoseconds) the writer sleeps when there is nothing to write
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+	// the ring buffer: slot i holds the entry with sequence number s when
+	// published[i] == s
+	private final int mask;
+	private final int[] levels;
+	private final long[] times;
+	private final String[] texts;
+	private final Object[] args;
+	private final AtomicLongArray published;
+	private final AtomicLong tail = new AtomicLong(); // next sequence to claim
+	private volatile long head = 0; // next sequence to write
+	private final LongAdder dropped = new LongAdder();
+
+	private volatile int level = INFO; // min. level of the logged entries
+	private volatile boolean console = false; // echoes entries to stdout
+
+	// the log file, rotated when it reaches maxFileSize bytes
+	private File file = null;
+	private BufferedWriter fileWriter = null;
+	private long fileSize = 0;
+	private long maxFileSize = 0;
+	private int maxFiles = 0;
+
+	// the latest lines, shown by the console
+	private final ArrayDeque<String> tailLines = new ArrayDeque<String>();
+	private final int maxTailLines;
+	private volatile long tailVersion = 0; // incremented when the tail changes
+
+	/**
+	 * Creates and returns an instance of the ServerLog class, and starts its
+	 * writer thread.
+	 *
+	 * @param capacity
+	 *            the no. of entries in the ring buffer (rounded up to a power
+	 *            of two)
+	 * @param maxTailLines
+	 *            the no. of latest lines kept for the console
+	 */
+	public ServerLog(int capacity, int maxTailLines) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		this.mask = size - 1;
+		this.levels = new int[size];
+		this.times = new long[size];
+		this.texts = new String[size];
+		this.args = new Object[size];
+		this.published = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			// no slot holds an entry yet
+			published.set(i, -1);
+		}
+		this.maxTailLines = maxTailLines;
+		Thread writer = new Thread(new Writer(), "server-log");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Sets the min. level of the logged entries.
+	 *
+	 * @param level
+	 *            one of DEBUG, INFO, WARN and ERROR
+	 */
+	public void setLevel(int level) {
+		this.level = level;
+	}
+
+	/**
+	 * Returns the level with the specified name.
+	 *
+	 * @param name
+	 *            the name of the level, e.g. "debug"
+	 * @return the level, or -1 if there is no such level
+	 */
+	public static int parseLevel(String name) {
+		for (int i = 0; i < LEVEL_NAMES.length; i++) {
+			if (LEVEL_NAMES[i].equalsIgnoreCase(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns true if entries of the specified level are logged.
+	 *
+	 * @param level
+	 *            the level
+	 * @return true if entries of the level are logged; false otherwise
+	 */
+	public boolean isEnabled(int level) {
+		return level >= this.level;
+	}
+
+	/**
+	 * Sets whether entries are echoed to the standard output.
+	 *
+	 * @param console
+	 *            true to echo entries to the standard output
+	 */
+	public void setConsole(boolean console) {
+		this.console = console;
+	}
+
+	/**
+	 * Sets the file to which entries are written. When the file reaches the
+	 * max. size it is renamed to path.1 (path.1 to path.2, and so on), and the
+	 * oldest file is deleted.
+	 *
+	 * @param path
+	 *            the path of the log file
+	 * @param maxFileSize
+	 *            the max. size of a log file in bytes
+	 * @param maxFiles
+	 *            the no. of old log files kept
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 */
+	public synchronized void setFile(String path, long maxFileSize,
+			int maxFiles) throws IOException {
+		closeFile();
+		this.file = new File(path);
+		this.maxFileSize = maxFileSize;
+		this.maxFiles = maxFiles;
+		openFile();
+	}
+
+	/**
+	 * Logs the specified message.
+	 *
+	 * @param level
+	 *            the level of the entry
+	 * @param msg
+	 *            the message
+	 */
+	public void log(int level, String msg) {
+		log(level, msg, null);
+	}
+
+	/**
+	 * Logs the specified message followed by the specified argument. The
+	 * argument is converted to a string by the writer thread, so that the
+	 * caller does not pay for building the message.
+	 *
+	 * @param level
+	 *            the level of the entry
+	 * @param msg
+	 *            the message
+	 * @param arg
+	 *            the argument appended to the message, or null if none
+	 */
+	public void log(int level, String msg, Object arg) {
+		if (level < this.level) {
+			return;
+		}
+		long seq;
+		do {
+			seq = tail.get();
+			if (seq - head > mask) {
+				// the ring buffer is full; never waits for the writer
+				dropped.increment();
+				return;
+			}
+		} while (!tail.compareAndSet(seq, seq + 1));
+		int i = (int) seq & mask;
+		levels[i] = level;
+		times[i] = System.currentTimeMillis();
+		texts[i] = msg;
+		args[i] = arg;
+		// publishes the entry to the writer thread
+		published.set(i, seq);
+	}
+
+	/**
+	 * Returns the no. of entries dropped because the ring buffer was full.
+	 *
+	 * @return the no. of dropped entries
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Returns the latest lines of the log.
+	 *
+	 * @return the latest lines, oldest first
+	 */
+	public synchronized String[] getTail() {
+		return tailLines.toArray(new String[tailLines.size()]);
+	}
+
+	/**
+	 * Returns a number which changes whenever the latest lines change.
+	 *
+	 * @return the version of the latest lines
+	 */
+	public long getTailVersion() {
+		return tailVersion;
+	}
+
+	/**
+	 * Clears the latest lines of the log.
+	 */
+	public synchronized void clearTail() {
+		tailLines.clear();
+		tailVersion++;
+	}
+
+	/**
+	 * Waits until every entry logged so far has been written, or the timeout
+	 * expires.
+	 *
+	 * @param timeoutMillis
+	 *            the timeout in milliseconds
+	 */
+	public void flush(long timeoutMillis) {
+		long target = tail.get();
+		long deadline = System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		while (head < target && System.nanoTime() < deadline) {
+			LockSupport.parkNanos(IDLE_NANOS);
+		}
+	}
+
+	// writes a formatted line to the standard output, the file and the tail
+	private synchronized void write(String line) {
+		if (console) {
+			System.out.println(line);
+		}
+		if (fileWriter != null) {
+			try {
+				if (fileSize + line.length() + 1 > maxFileSize) {
+					rotate();
+				}
+				fileWriter.write(line);
+				fileWriter.newLine();
+				fileSize += line.length() + 1;
+			} catch (IOException ex) {
+				System.err.println("Error in writing the log file: " + ex);
+				closeFile();
+			}
+		}
+		if (maxTailLines > 0) {
+			if (tailLines.size() == maxTailLines) {
+				tailLines.removeFirst();
+			}
+			tailLines.addLast(line);
+			tailVersion++;
+		}
+	}
+
+	// flushes the file when the writer has nothing more to write
+	private synchronized void flushFile() {
+		if (fileWriter != null) {
+			try {
+				fileWriter.flush();
+			} catch (IOException ex) {
+				System.err.println("Error in writing the log file: " + ex);
+				closeFile();
+			}
+		}
+	}
+
+	private void rotate() throws IOException {
+		closeFile();
+		String path = file.getPath();
+		new File(path + "." + maxFiles).delete();
+		for (int i = maxFiles - 1; i >= 1; i--) {
+			new File(path + "." + i).renameTo(new File(path + "." + (i + 1)));
+		}
+		if (maxFiles > 0) {
+			file.renameTo(new File(path + ".1"));
+		} else {
+			file.delete();
+		}
+		openFile();
+	}
+
+	private void openFile() throws IOException {
+		fileWriter = new BufferedWriter(new FileWriter(file, true));
+		fileSize = file.length();
+	}
+
+	private void closeFile() {
+		if (fileWriter != null) {
+			try {
+				fileWriter.close();
+			} catch (IOException ex) {
+				// the file is being dropped anyway
+			}
+			fileWriter = null;
+		}
+	}
+
+	/**
+	 * This inner class is used for writing the logged entries.
+	 */
+	private class Writer implements Runnable {
+		// implementation of method from the Runnable interface
+		public void run() {
+			StringBuilder line = new StringBuilder();
+			ZoneId zone = ZoneId.systemDefault();
+			while (true) {
+				long seq = head;
+				int i = (int) seq & mask;
+				if (published.get(i) != seq) {
+					// nothing more to write
+					flushFile();
+					LockSupport.parkNanos(IDLE_NANOS);
+					continue;
+				}
+				line.setLength(0);
+				line.append(TIME_FORMAT.format(LocalDateTime.ofInstant(
+						Instant.ofEpochMilli(times[i]), zone)));
+				line.append(' ').append(LEVEL_NAMES[levels[i]]).append(' ')
+						.append(texts[i]);
+				if (args[i] != null) {
+					line.append(args[i]);
+				}
+				// releases the slot (and the objects it refers to)
+				texts[i] = null;
+				args[i] = null;
+				head = seq + 1;
+				write(line.toString());
+			}
+		} // run
+	} // Writer
+}
@@ -0,0 +1,62 @@
+/**
+ * This class is a command-line tool for checking the quality of the deck
+ * shuffle. It deals the given number of decks and runs a chi-square test of
+ * the hypothesis that every card is equally likely at every position.
+ *
+ * @author jihoo
+ */
+public class ShuffleCheck {
+	/**
+	 * main() method for running the check.
+	 *
+	 * @param args
+	 *            the no. of deals (default 1,000,000), optionally followed by
+	 *            "seed" to check the seeded shuffle instead of shuffle()
+	 */
+	public static void main(String[] args) {
+		int deals = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		boolean seeded = args.length > 1 && args[1].equals("seed");
+
+		int size = new BigTwoDeck().size();
+		long[][] counts = new long[size][size]; // [position][card]
+		for (int n = 0; n < deals; n++) {
+			Deck deck = new BigTwoDeck();
+			if (seeded) {
+				deck.shuffle(n, Deck.SHUFFLE_VERSION);
+			} else {
+				deck.shuffle();
+			}
+			for (int i = 0; i < size; i++) {
+				Card card = deck.getCard(i);
+				counts[i][card.getSuit() * 13 + card.getRank()]++;
+			}
+		}
+
+		// the positions are not independent: every deal puts each card at
+		// exactly one position, so both the rows and the columns of the table
+		// sum to the no. of deals, leaving (size - 1)^2 degrees of freedom.
+		// The sum over a table of permutations is size / (size - 1) times a
+		// chi-square with those degrees of freedom, so it is scaled back
+		// before being compared with its normal approximation
+		double expected = (double) deals / size;
+		double chiSquare = 0;
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < size; j++) {
+				double diff = counts[i][j] - expected;
+				chiSquare += diff * diff / expected;
+			}
+		}
+		chiSquare *= (size - 1.0) / size;
+		int df = (size - 1) * (size - 1);
+		double z = (chiSquare - df) / Math.sqrt(2.0 * df);
+
+		System.out.printf("%d deals (%s): chi-square = %.1f, df = %d, z = %.2f%n",
+				deals, seeded ? "seeded shuffle" : "shuffle", chiSquare, df, z);
+		if (Math.abs(z) < 4) {
+			System.out.println("PASS: no evidence of bias");
+		} else {
+			System.out.println("FAIL: the shuffle is biased");
+			System.exit(1);
+		}
+	} // main
+}
@@ -0,0 +1,209 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class is used to model the event log of a table for its spectators.
+ * Each event is serialized once, when the table publishes it, into a record
+ * which any spectator stream can carry as is: the record starts with a reset
+ * marker (TC_RESET), so it does not refer to any object written before it.
+ * The records are kept in a ring, from which each spectator reads at its own
+ * cursor on the threads of the SpectatorHub; a spectator falling too far
+ * behind is sent a snapshot of the table instead of the missed records.
+ *
+ * <p>
+ * Only the table publishes records and snapshots; the spectators read them
+ * from any thread without any lock.
+ *
+ * @author jihoo
+ */
+public class SpectatorFeed {
+	private final SpectatorHub hub; // the hub writing to the spectators
+	private final Record[] ring; // the latest records, by sequence
+	private final int mask; // no. of slots of the ring - 1
+	// sequence of the next record to be published
+	private volatile long head = 0;
+	// the latest snapshot, whose sequence is the head when it was taken
+	private volatile Record snapshot = null;
+	// a boolean indicating if a new snapshot has been requested
+	private final AtomicBoolean snapshotRequested = new AtomicBoolean();
+	// no. of spectators reading this feed; nothing is serialized without any
+	private final AtomicInteger watchers = new AtomicInteger();
+
+	/**
+	 * Creates and returns an instance of the SpectatorFeed class.
+	 *
+	 * @param hub
+	 *            the hub writing to the spectators, or null if spectators are
+	 *            disabled
+	 * @param capacity
+	 *            the no. of records kept (rounded up to a power of two)
+	 */
+	public SpectatorFeed(SpectatorHub hub, int capacity) {
+		this.hub = hub;
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		this.ring = new Record[size];
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Records a message for the spectators. Only called by the table.
+	 *
+	 * <p>
+	 * If nobody watches, the message is not serialized but still takes a
+	 * sequence, so a spectator arriving meanwhile finds the gap and waits for
+	 * a snapshot taken after it.
+	 *
+	 * @param message
+	 *            the message, which must not reveal any private hand
+	 */
+	void publish(CardGameMessage message) {
+		long sequence = head;
+		boolean watched = watchers.get() > 0;
+		if (watched) {
+			ring[(int) (sequence & mask)] = new Record(sequence,
+					encode(message));
+		}
+		head = sequence + 1;
+		if (watched) {
+			hub.wakeup();
+		}
+	}
+
+	/**
+	 * Replaces the snapshot of the table, which brings a spectator up to the
+	 * current head. Only called by the table.
+	 *
+	 * @param messages
+	 *            the messages making up the snapshot
+	 */
+	void publishSnapshot(CardGameMessage... messages) {
+		snapshot = new Record(head, encode(messages));
+		snapshotRequested.set(false);
+		if (hub != null) {
+			hub.wakeup();
+		}
+	}
+
+	/**
+	 * Returns true if a new snapshot should be taken, i.e. if a spectator has
+	 * requested one since the last snapshot. May be called from any thread.
+	 *
+	 * @return true if a new snapshot has been requested
+	 */
+	boolean requestSnapshot() {
+		return snapshotRequested.compareAndSet(false, true);
+	}
+
+	/**
+	 * Returns the sequence of the next record to be published.
+	 *
+	 * @return the head of the feed
+	 */
+	long getHead() {
+		return head;
+	}
+
+	/**
+	 * Returns the record with the specified sequence.
+	 *
+	 * @param sequence
+	 *            the sequence of the record
+	 * @return the record, or null if it has been overwritten or was not
+	 *         recorded
+	 */
+	Record get(long sequence) {
+		Record record = ring[(int) (sequence & mask)];
+		return record != null && record.sequence == sequence ? record : null;
+	}
+
+	/**
+	 * Returns the latest snapshot.
+	 *
+	 * @return the latest snapshot, or null if none has been taken
+	 */
+	Record getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Returns the no. of records a spectator may fall behind before it is sent
+	 * a snapshot instead.
+	 *
+	 * @return the max. lag of a spectator
+	 */
+	int getMaxLag() {
+		return ring.length / 2;
+	}
+
+	/**
+	 * Counts a spectator in (or out).
+	 *
+	 * @param delta
+	 *            1 for a new spectator, -1 for a leaving one
+	 */
+	void addWatchers(int delta) {
+		watchers.addAndGet(delta);
+	}
+
+	/**
+	 * Returns the no. of spectators reading this feed.
+	 *
+	 * @return the no. of spectators
+	 */
+	public int getWatchers() {
+		return watchers.get();
+	}
+
+	// serializes messages into a record of an object stream, each preceded
+	// by a reset marker
+	private static byte[] encode(CardGameMessage... messages) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		try {
+			ObjectOutputStream out = new RecordOutputStream(bytes);
+			for (CardGameMessage message : messages) {
+				out.reset();
+				out.writeObject(message);
+			}
+			out.flush();
+		} catch (IOException ex) {
+			// a message which cannot be serialized cannot be sent to the
+			// players either
+			throw new UncheckedIOException(ex);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * This inner class is used to model a published record: one or more
+	 * serialized messages.
+	 */
+	static final class Record {
+		final long sequence; // sequence of the record, or head of a snapshot
+		final byte[] bytes; // the serialized messages
+
+		private Record(long sequence, byte[] bytes) {
+			this.sequence = sequence;
+			this.bytes = bytes;
+		}
+	} // Record
+
+	/**
+	 * This inner class is used for serializing records without a stream
+	 * header, which every spectator stream receives once when it is opened.
+	 */
+	private static class RecordOutputStream extends ObjectOutputStream {
+		private RecordOutputStream(OutputStream out) throws IOException {
+			super(out);
+		}
+
+		// overrides method from the ObjectOutputStream class
+		protected void writeStreamHeader() {
+			// written once per spectator stream by the hub
+		}
+	} // RecordOutputStream
+}
@@ -0,0 +1,366 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is used to model the spectator service of the card game server.
+ * Spectators connect to a separate port and send a single WATCH message naming
+ * the table to be watched; from then on they only receive. Their connections
+ * are non-blocking and shared by a few fan-out threads, which copy the records
+ * of each table's SpectatorFeed to every spectator of the table at its own
+ * cursor. Nothing is serialized per spectator, and the tables never wait for a
+ * spectator, so the players are not slowed down by any number of spectators.
+ *
+ * @author jihoo
+ */
+public class SpectatorHub {
+	// the stream header sent once to each spectator, as an ObjectOutputStream
+	// would write it
+	private static final byte[] STREAM_HEADER = {
+			(byte) (ObjectStreamConstants.STREAM_MAGIC >> 8),
+			(byte) ObjectStreamConstants.STREAM_MAGIC,
+			(byte) (ObjectStreamConstants.STREAM_VERSION >> 8),
+			(byte) ObjectStreamConstants.STREAM_VERSION };
+	// time (in milliseconds) allowed for a spectator to name its table
+	private static final int HANDSHAKE_TIMEOUT = 5000;
+
+	private final CardGameServer server;
+	private final Executor handshakeExecutor; // performs the handshakes
+	private final Worker[] workers; // the fan-out threads
+	private final AtomicInteger nextWorker = new AtomicInteger();
+	private final AtomicInteger numOfSpectators = new AtomicInteger();
+	private final LongAdder snapshotsSent; // no. of snapshots sent
+	private volatile ServerSocketChannel serverChannel = null;
+
+	/**
+	 * Creates and returns an instance of the SpectatorHub class.
+	 *
+	 * @param server
+	 *            the server hosting the tables
+	 * @param handshakeExecutor
+	 *            the threads performing the handshakes of new spectators
+	 * @param numOfWorkers
+	 *            the no. of fan-out threads
+	 * @param metrics
+	 *            the registry publishing the metrics of the spectators
+	 */
+	public SpectatorHub(CardGameServer server, Executor handshakeExecutor,
+			int numOfWorkers, MetricsRegistry metrics) {
+		this.server = server;
+		this.handshakeExecutor = handshakeExecutor;
+		this.workers = new Worker[Math.max(1, numOfWorkers)];
+		metrics.gauge("spectators", null, "Connected spectators.",
+				numOfSpectators::get);
+		snapshotsSent = metrics.counter("spectator_snapshots_total", null,
+				"Snapshots sent to new or lagging spectators.");
+	}
+
+	/**
+	 * Starts accepting spectators at the specified port, and starts the
+	 * fan-out threads.
+	 *
+	 * @param port
+	 *            the port for the spectators
+	 * @throws IOException
+	 *             if the port cannot be bound
+	 */
+	public void start(int port) throws IOException {
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Worker(Selector.open());
+			Thread t = new Thread(workers[i], "spectator-" + i);
+			t.setDaemon(true);
+			t.start();
+		}
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(port));
+		Thread acceptor = new Thread(() -> {
+			try {
+				while (true) {
+					SocketChannel channel = serverChannel.accept();
+					try {
+						handshakeExecutor.execute(() -> handshake(channel));
+					} catch (RejectedExecutionException ex) {
+						// too many handshakes waiting; drops the spectator
+						channel.close();
+					}
+				}
+			} catch (Exception ex) {
+				// the channel has been closed by stop()
+			}
+		}, "spectator-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		server.println("Accepts spectators at localhost:"
+				+ serverChannel.socket().getLocalPort());
+	}
+
+	/**
+	 * Stops accepting spectators.
+	 */
+	public void stop() {
+		try {
+			if (serverChannel != null) {
+				serverChannel.close();
+			}
+		} catch (IOException ex) {
+			// the server is shutting down anyway
+		}
+	}
+
+	/**
+	 * Returns the no. of connected spectators.
+	 *
+	 * @return the no. of spectators
+	 */
+	public int getNumOfSpectators() {
+		return numOfSpectators.get();
+	}
+
+	/**
+	 * Wakes up the fan-out threads to send newly published records. May be
+	 * called from any thread.
+	 */
+	void wakeup() {
+		for (Worker worker : workers) {
+			if (worker != null) {
+				worker.wakeup();
+			}
+		}
+	}
+
+	// reads the WATCH message of a new spectator, and hands the spectator
+	// over to a fan-out thread
+	private void handshake(SocketChannel channel) {
+		try {
+			Socket socket = channel.socket();
+			socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+			socket.setTcpNoDelay(true);
+			OutputStream out = socket.getOutputStream();
+			out.write(STREAM_HEADER);
+			out.flush();
+			Object request = new ObjectInputStream(socket.getInputStream())
+					.readObject();
+			CardGameTable table = null;
+			if (request instanceof CardGameMessage
+					&& ((CardGameMessage) request).getType() == CardGameMessage.WATCH) {
+				table = server.getTable(((CardGameMessage) request)
+						.getPlayerID());
+			}
+			if (table == null) {
+				channel.close();
+				return;
+			}
+			channel.configureBlocking(false);
+			Worker worker = workers[Math.floorMod(
+					nextWorker.getAndIncrement(), workers.length)];
+			worker.add(new Spectator(channel, table));
+			numOfSpectators.incrementAndGet();
+			server.log(ServerLog.DEBUG, "A spectator watches table ",
+					table.getId());
+		} catch (Exception ex) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// dropped anyway
+			}
+		}
+	}
+
+	/**
+	 * This inner class is used to model a spectator: a non-blocking
+	 * connection reading the feed of a table at its own cursor.
+	 */
+	private class Spectator {
+		private final SocketChannel channel;
+		private final CardGameTable table;
+		private final SpectatorFeed feed;
+		private SelectionKey key;
+		// sequence of the next record to be sent
+		private long cursor = 0;
+		// the head a snapshot must have reached to be sent, or -1 if the
+		// spectator is not waiting for a snapshot
+		private long wanted;
+		// the rest of the record being written, or null if none
+		private ByteBuffer pending = null;
+		private boolean closed = false;
+
+		private Spectator(SocketChannel channel, CardGameTable table) {
+			this.channel = channel;
+			this.table = table;
+			this.feed = table.getSpectatorFeed();
+			// records are kept from now on; a snapshot covers what came before
+			feed.addWatchers(1);
+			this.wanted = feed.getHead();
+		}
+
+		// writes as much of the feed as the socket takes without blocking
+		private void flush() throws IOException {
+			while (true) {
+				if (pending == null && !next()) {
+					key.interestOps(SelectionKey.OP_READ);
+					return;
+				}
+				channel.write(pending);
+				if (pending.hasRemaining()) {
+					// the socket is full; resumes when it is writable again
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					return;
+				}
+				pending = null;
+			}
+		}
+
+		// picks the next record (or snapshot) to be written; returns false if
+		// there is none yet
+		private boolean next() {
+			long head = feed.getHead();
+			if (wanted < 0 && cursor < head) {
+				SpectatorFeed.Record record = feed.get(cursor);
+				if (head - cursor <= feed.getMaxLag() && record != null) {
+					pending = ByteBuffer.wrap(record.bytes);
+					cursor++;
+					return true;
+				}
+				// too far behind: skips to a snapshot instead of the backlog
+				wanted = head;
+			}
+			if (wanted < 0) {
+				return false;
+			}
+			SpectatorFeed.Record snapshot = feed.getSnapshot();
+			if (snapshot == null || snapshot.sequence < wanted) {
+				if (feed.requestSnapshot()) {
+					table.post(table::publishSpectatorSnapshot);
+				}
+				return false;
+			}
+			pending = ByteBuffer.wrap(snapshot.bytes);
+			cursor = snapshot.sequence;
+			wanted = -1;
+			snapshotsSent.increment();
+			return true;
+		}
+
+		// detects the spectator closing its end; anything it sends is ignored
+		private void read(ByteBuffer scratch) throws IOException {
+			scratch.clear();
+			if (channel.read(scratch) < 0) {
+				close();
+			}
+		}
+
+		private void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (key != null) {
+				key.cancel();
+			}
+			try {
+				channel.close();
+			} catch (IOException ex) {
+				// dropped anyway
+			}
+			feed.addWatchers(-1);
+			numOfSpectators.decrementAndGet();
+		}
+	} // Spectator
+
+	/**
+	 * This inner class is used for writing the feeds to the spectators of a
+	 * fan-out thread.
+	 */
+	private class Worker implements Runnable {
+		private final Selector selector;
+		private final Queue<Spectator> added = new ConcurrentLinkedQueue<Spectator>();
+		// a boolean indicating if the worker has been woken up since it last
+		// went over its spectators, so that a burst of records wakes it once
+		private final AtomicBoolean woken = new AtomicBoolean();
+		private final ArrayList<Spectator> spectators = new ArrayList<Spectator>();
+		private final ByteBuffer scratch = ByteBuffer.allocate(256);
+
+		private Worker(Selector selector) {
+			this.selector = selector;
+		}
+
+		private void add(Spectator spectator) {
+			added.add(spectator);
+			woken.set(true);
+			selector.wakeup();
+		}
+
+		private void wakeup() {
+			if (woken.compareAndSet(false, true)) {
+				selector.wakeup();
+			}
+		}
+
+		// implementation of method from the Runnable interface
+		public void run() {
+			while (true) {
+				try {
+					selector.select();
+				} catch (IOException ex) {
+					return;
+				}
+				for (SelectionKey key : selector.selectedKeys()) {
+					Spectator spectator = (Spectator) key.attachment();
+					try {
+						if (key.isValid() && key.isReadable()) {
+							spectator.read(scratch);
+						}
+					} catch (IOException ex) {
+						spectator.close();
+					}
+				}
+				selector.selectedKeys().clear();
+				Spectator spectator;
+				while ((spectator = added.poll()) != null) {
+					try {
+						spectator.key = spectator.channel.register(selector,
+								SelectionKey.OP_READ, spectator);
+						spectators.add(spectator);
+					} catch (IOException ex) {
+						spectator.close();
+					}
+				}
+				woken.set(false);
+				// goes over every spectator, dropping the closed ones
+				int n = 0;
+				for (int i = 0; i < spectators.size(); i++) {
+					spectator = spectators.get(i);
+					if (!spectator.closed) {
+						try {
+							spectator.flush();
+						} catch (IOException ex) {
+							spectator.close();
+						}
+					}
+					if (!spectator.closed) {
+						spectators.set(n++, spectator);
+					}
+				}
+				while (spectators.size() > n) {
+					spectators.remove(spectators.size() - 1);
+				}
+			}
+		} // run
+	} // Worker
+}
@@ -0,0 +1,240 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class is used to model a hashed timing wheel: a ring of buckets, each
+ * holding a doubly-linked list of the timeouts which expire when a single
+ * worker thread ticks over it. Scheduling and cancelling a timeout only adds
+ * it to a lock-free queue, and the worker links it into (or unlinks it from)
+ * its bucket in constant time, so the cost of a timeout does not depend on how
+ * many others are pending. Timeouts expire on the worker thread, up to one
+ * tick late; their tasks must be short, e.g. posting to a table.
+ *
+ * @author jihoo
+ */
+public class TimingWheel {
+	// max. no. of timeouts moved from the queues into the wheel per tick, so a
+	// burst of scheduling cannot stall the expiry of a tick
+	private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+	private final long tickNanos; // duration of a tick in nanoseconds
+	private final int mask; // no. of buckets - 1
+	private final Timeout[] heads; // first timeout of each bucket
+	private final long startTime; // the time (System.nanoTime()) of tick 0
+	private final Queue<Timeout> added = new ConcurrentLinkedQueue<Timeout>();
+	private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<Timeout>();
+	private final AtomicInteger pending = new AtomicInteger();
+	private final Thread worker;
+	private final ServerLog log; // logs the tasks which fail
+	private volatile boolean stopped = false;
+	private long tick = 0; // the next tick to expire (worker thread only)
+
+	/**
+	 * Creates and returns an instance of the TimingWheel class, and starts its
+	 * worker thread.
+	 *
+	 * @param tickDuration
+	 *            the duration of a tick, i.e. the resolution of the timeouts
+	 * @param unit
+	 *            the unit of the duration
+	 * @param numOfBuckets
+	 *            the no. of buckets (rounded up to a power of two); timeouts
+	 *            further than a whole turn of the wheel wait for more turns
+	 * @param name
+	 *            the name of the worker thread
+	 * @param log
+	 *            the log of the tasks which fail
+	 */
+	public TimingWheel(long tickDuration, TimeUnit unit, int numOfBuckets,
+			String name, ServerLog log) {
+		this.log = log;
+		this.tickNanos = Math.max(1, unit.toNanos(tickDuration));
+		int size = Integer.highestOneBit(Math.max(2, numOfBuckets) - 1) << 1;
+		this.mask = size - 1;
+		this.heads = new Timeout[size];
+		this.startTime = System.nanoTime();
+		this.worker = new Thread(new Worker(), name);
+		this.worker.setDaemon(true);
+		this.worker.start();
+	}
+
+	/**
+	 * Schedules the specified task to run on the worker thread after the
+	 * specified delay.
+	 *
+	 * @param task
+	 *            the task to be run
+	 * @param delay
+	 *            the delay
+	 * @param unit
+	 *            the unit of the delay
+	 * @return the timeout, which can be cancelled
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		Timeout timeout = new Timeout(task, System.nanoTime() - startTime
+				+ Math.max(0, unit.toNanos(delay)));
+		pending.incrementAndGet();
+		added.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Returns the no. of timeouts which have neither expired nor been
+	 * cancelled.
+	 *
+	 * @return the no. of pending timeouts
+	 */
+	public int getPending() {
+		return pending.get();
+	}
+
+	/**
+	 * Stops the worker thread. Pending timeouts never expire.
+	 */
+	public void stop() {
+		stopped = true;
+		LockSupport.unpark(worker);
+	}
+
+	// links the newly scheduled timeouts into their buckets
+	private void transferAdded() {
+		for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+			Timeout timeout = added.poll();
+			if (timeout == null) {
+				return;
+			}
+			if (timeout.state.get() != Timeout.PENDING) {
+				// cancelled before being linked
+				continue;
+			}
+			long ticks = timeout.deadline / tickNanos;
+			// a timeout already due expires with the current tick
+			timeout.rounds = Math.max(0, (ticks - tick) / heads.length);
+			link(timeout, (int) (Math.max(ticks, tick) & mask));
+		}
+	}
+
+	// unlinks the cancelled timeouts from their buckets
+	private void removeCancelled() {
+		Timeout timeout;
+		while ((timeout = cancelled.poll()) != null) {
+			if (timeout.bucket >= 0) {
+				unlink(timeout);
+			}
+		}
+	}
+
+	// runs the timeouts of the current tick, and counts down the rounds of the
+	// others in its bucket
+	private void expire(int bucket) {
+		Timeout timeout = heads[bucket];
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			if (timeout.rounds > 0) {
+				timeout.rounds--;
+			} else {
+				unlink(timeout);
+				if (timeout.state.compareAndSet(Timeout.PENDING,
+						Timeout.EXPIRED)) {
+					pending.decrementAndGet();
+					try {
+						timeout.task.run();
+					} catch (RuntimeException ex) {
+						// a failing task must not stop the other timeouts
+						log.log(ServerLog.ERROR, "Error in a timed task: ", ex);
+					}
+				}
+			}
+			timeout = next;
+		}
+	}
+
+	private void link(Timeout timeout, int bucket) {
+		timeout.bucket = bucket;
+		timeout.prev = null;
+		timeout.next = heads[bucket];
+		if (heads[bucket] != null) {
+			heads[bucket].prev = timeout;
+		}
+		heads[bucket] = timeout;
+	}
+
+	private void unlink(Timeout timeout) {
+		if (timeout.prev != null) {
+			timeout.prev.next = timeout.next;
+		} else {
+			heads[timeout.bucket] = timeout.next;
+		}
+		if (timeout.next != null) {
+			timeout.next.prev = timeout.prev;
+		}
+		timeout.prev = null;
+		timeout.next = null;
+		timeout.bucket = -1;
+	}
+
+	/**
+	 * This inner class is used to model a scheduled task.
+	 */
+	public final class Timeout {
+		private static final int PENDING = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+
+		private final Runnable task;
+		private final long deadline; // relative to the start of the wheel
+		private final AtomicInteger state = new AtomicInteger(PENDING);
+		// the fields below are only used by the worker thread
+		private long rounds; // no. of turns of the wheel left
+		private int bucket = -1; // the bucket, or -1 if not linked
+		private Timeout prev;
+		private Timeout next;
+
+		private Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancels this timeout, unless it has expired.
+		 *
+		 * @return true if the timeout has been cancelled; false if it has
+		 *         expired or been cancelled before
+		 */
+		public boolean cancel() {
+			if (!state.compareAndSet(PENDING, CANCELLED)) {
+				return false;
+			}
+			pending.decrementAndGet();
+			cancelled.add(this);
+			return true;
+		}
+	} // Timeout
+
+	/**
+	 * This inner class is used for ticking the wheel.
+	 */
+	private class Worker implements Runnable {
+		// implementation of method from the Runnable interface
+		public void run() {
+			while (!stopped) {
+				// waits for the end of the current tick
+				long deadline = (tick + 1) * tickNanos;
+				long now;
+				while ((now = System.nanoTime() - startTime) < deadline) {
+					LockSupport.parkNanos(deadline - now);
+					if (stopped) {
+						return;
+					}
+				}
+				removeCancelled();
+				transferAdded();
+				expire((int) (tick & mask));
+				tick++;
+			}
+		} // run
+	} // Worker
+}
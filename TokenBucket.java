@@ -0,0 +1,55 @@
+/**
+ * This class is used to model a token bucket for rate limiting. The bucket
+ * holds at most burst tokens and is refilled continuously at a fixed rate.
+ * Each permitted event takes one token. An instance is not thread-safe and is
+ * meant to be used by the single thread receiving messages from one client.
+ *
+ * @author jihoo
+ */
+public class TokenBucket {
+	private final double refillPerNano; // tokens added per nanosecond
+	private final int burst; // max. no. of tokens held by the bucket
+	private double tokens; // tokens currently in the bucket
+	private long lastRefill; // time of the last refill in nanoseconds
+
+	/**
+	 * Creates and returns an instance of the TokenBucket class. The bucket
+	 * starts full.
+	 *
+	 * @param refillPerSecond
+	 *            the no. of tokens added to the bucket per second
+	 * @param burst
+	 *            the max. no. of tokens held by the bucket
+	 */
+	public TokenBucket(double refillPerSecond, int burst) {
+		this.refillPerNano = refillPerSecond / 1e9;
+		this.burst = burst;
+		this.tokens = burst;
+		this.lastRefill = System.nanoTime();
+	}
+
+	/**
+	 * Checks if the bucket holds a token, without taking it.
+	 *
+	 * @return true if a token may be taken; false if the bucket is empty
+	 */
+	public boolean hasToken() {
+		long now = System.nanoTime();
+		tokens = Math.min(burst, tokens + (now - lastRefill) * refillPerNano);
+		lastRefill = now;
+		return tokens >= 1;
+	}
+
+	/**
+	 * Takes one token from the bucket if there is any.
+	 *
+	 * @return true if a token was taken; false if the bucket is empty
+	 */
+	public boolean tryAcquire() {
+		if (hasToken()) {
+			tokens -= 1;
+			return true;
+		}
+		return false;
+	}
+}
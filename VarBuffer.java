@@ -0,0 +1,179 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * This class is used to model a growable buffer of bytes for the binary
+ * records of the server (replay records, write-ahead log records and
+ * checkpoints). Numbers are written as varints (7 bits per byte, least
+ * significant group first), and strings as a varint length followed by their
+ * UTF-8 bytes. The static methods read them back from a ByteBuffer.
+ *
+ * @author jihoo
+ */
+public class VarBuffer {
+	private byte[] buffer;
+	private int size = 0;
+
+	/**
+	 * Creates and returns an instance of the VarBuffer class.
+	 *
+	 * @param capacity
+	 *            the initial capacity in bytes
+	 */
+	public VarBuffer(int capacity) {
+		buffer = new byte[Math.max(16, capacity)];
+	}
+
+	/**
+	 * Appends a non-negative number (or a mask) as a varint.
+	 *
+	 * @param value
+	 *            the number
+	 * @return this buffer
+	 */
+	public VarBuffer writeVarLong(long value) {
+		ensure(10);
+		while ((value & ~0x7fL) != 0) {
+			buffer[size++] = (byte) (value & 0x7f | 0x80);
+			value >>>= 7;
+		}
+		buffer[size++] = (byte) value;
+		return this;
+	}
+
+	/**
+	 * Appends a string, or an empty string for null.
+	 *
+	 * @param s
+	 *            the string, or null
+	 * @return this buffer
+	 */
+	public VarBuffer writeString(String s) {
+		byte[] bytes = s == null ? new byte[0] : s
+				.getBytes(StandardCharsets.UTF_8);
+		writeVarLong(bytes.length);
+		return write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Appends a range of bytes.
+	 *
+	 * @param bytes
+	 *            the bytes
+	 * @param offset
+	 *            the offset of the range
+	 * @param length
+	 *            the length of the range
+	 * @return this buffer
+	 */
+	public VarBuffer write(byte[] bytes, int offset, int length) {
+		ensure(length);
+		System.arraycopy(bytes, offset, buffer, size, length);
+		size += length;
+		return this;
+	}
+
+	/**
+	 * Returns the no. of bytes written.
+	 *
+	 * @return the size of this buffer
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Drops the bytes written after the specified size.
+	 *
+	 * @param size
+	 *            the new size, at most the current size
+	 */
+	public void truncate(int size) {
+		this.size = size;
+	}
+
+	/**
+	 * Returns a copy of a range of the bytes written.
+	 *
+	 * @param from
+	 *            the start of the range
+	 * @param to
+	 *            the end of the range (exclusive)
+	 * @return the bytes of the range
+	 */
+	public byte[] copyOfRange(int from, int to) {
+		return Arrays.copyOfRange(buffer, from, to);
+	}
+
+	/**
+	 * Returns the bytes written, without copying them. The buffer returned is
+	 * only valid until this buffer is written again.
+	 *
+	 * @return the bytes written
+	 */
+	public ByteBuffer asByteBuffer() {
+		return ByteBuffer.wrap(buffer, 0, size);
+	}
+
+	/**
+	 * Returns a copy of the bytes written.
+	 *
+	 * @return the bytes written
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buffer, size);
+	}
+
+	/**
+	 * Reads a varint.
+	 *
+	 * @param in
+	 *            the buffer, positioned at the varint
+	 * @return the value of the varint
+	 */
+	public static long readVarLong(ByteBuffer in) {
+		long value = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = in.get();
+			value |= (long) (b & 0x7f) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+	}
+
+	/**
+	 * Reads a varint which fits in an int.
+	 *
+	 * @param in
+	 *            the buffer, positioned at the varint
+	 * @return the value of the varint
+	 */
+	public static int readVarInt(ByteBuffer in) {
+		return (int) readVarLong(in);
+	}
+
+	/**
+	 * Reads a string.
+	 *
+	 * @param in
+	 *            the buffer, positioned at the string
+	 * @return the string, or null if it is empty
+	 */
+	public static String readString(ByteBuffer in) {
+		int length = readVarInt(in);
+		if (length == 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private void ensure(int n) {
+		if (size + n > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + n));
+		}
+	}
+}
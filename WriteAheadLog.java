@@ -0,0 +1,368 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * This class is used to model a write-ahead log: a sequence of records, each
+ * numbered by its log sequence number (LSN), kept in files of the form
+ * wal-LSN.log named after their first record. Appending a record only copies
+ * it into a buffer; a committer thread writes everything appended while it was
+ * busy in a single write followed by a single fsync (group commit), so the
+ * cost of an fsync is shared by all records of a batch and no appender waits
+ * for the disk. Each record is framed as its varint length, the CRC32 of its
+ * body and its body, so a record cut short by a crash ends the log. A batch
+ * which cannot be written or synced is written again in a new file starting at
+ * its first LSN, until it is on disk.
+ *
+ * @author jihoo
+ */
+public class WriteAheadLog {
+	private static final long RETRY_DELAY = 1000; // ms before writing again
+
+	private final CardGameServer server; // the server logging the errors
+	private final File directory; // the directory of the log files
+	private final long fileSize; // size after which a new file is started
+	private final Thread committer;
+	private final Histogram commitTime; // time taken by each batch
+	private final LongAdder records; // no. of records written
+	// the fields below are guarded by this log
+	private VarBuffer pending = new VarBuffer(4096); // records not written
+	private VarBuffer spare = new VarBuffer(4096); // buffer being written
+	private long nextLsn; // LSN of the next record appended
+	private long durableLsn; // LSN of the first record not yet on disk
+	private boolean closed = false;
+	// the file being written, or null after a failure (committer thread only)
+	private FileChannel channel;
+
+	/**
+	 * Creates and returns an instance of the WriteAheadLog class, which starts
+	 * a new file at the specified LSN.
+	 *
+	 * @param directory
+	 *            the directory of the log files
+	 * @param nextLsn
+	 *            the LSN of the first record to be appended, i.e. the end of
+	 *            the records which have been recovered
+	 * @param fileSize
+	 *            the size in bytes after which a new file is started
+	 * @param metrics
+	 *            the registry publishing the metrics of the log
+	 * @param server
+	 *            the server logging the errors of the committer
+	 * @throws IOException
+	 *             if the file cannot be created
+	 */
+	public WriteAheadLog(File directory, long nextLsn, long fileSize,
+			MetricsRegistry metrics, CardGameServer server) throws IOException {
+		this.server = server;
+		this.directory = directory;
+		this.fileSize = fileSize;
+		this.nextLsn = nextLsn;
+		this.durableLsn = nextLsn;
+		channel = open(nextLsn);
+		commitTime = metrics.histogram("wal_commit_seconds", null,
+				"Time taken to write and fsync a batch of the write-ahead log.");
+		records = metrics.counter("wal_records_total", null,
+				"Records written to the write-ahead log.");
+		metrics.gauge("wal_pending_records", null,
+				"Records of the write-ahead log not yet on disk.", () -> {
+					synchronized (this) {
+						return this.nextLsn - durableLsn;
+					}
+				});
+		committer = new Thread(this::commitLoop, "wal-committer");
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	/**
+	 * Appends a record, which is written to disk with the next batch. May be
+	 * called from any thread.
+	 *
+	 * @param body
+	 *            the body of the record
+	 * @return the LSN of the record
+	 */
+	public synchronized long append(byte[] body) {
+		CRC32 crc = new CRC32();
+		crc.update(body, 0, body.length);
+		long checksum = crc.getValue();
+		boolean first = pending.size() == 0;
+		pending.writeVarLong(body.length);
+		pending.write(new byte[] { (byte) (checksum >>> 24),
+				(byte) (checksum >>> 16), (byte) (checksum >>> 8),
+				(byte) checksum }, 0, 4);
+		pending.write(body, 0, body.length);
+		if (first) {
+			// the first record of a batch wakes the committer
+			notifyAll();
+		}
+		return nextLsn++;
+	}
+
+	/**
+	 * Returns the LSN of the next record to be appended. Every record
+	 * appended before has a lower LSN.
+	 *
+	 * @return the LSN of the next record
+	 */
+	public synchronized long getNextLsn() {
+		return nextLsn;
+	}
+
+	/**
+	 * Deletes the files holding only records below the specified LSN, e.g.
+	 * those covered by a checkpoint.
+	 *
+	 * @param lsn
+	 *            the LSN below which no record is needed any more
+	 */
+	public void truncate(long lsn) {
+		File[] files = files(directory);
+		for (int i = 0; i + 1 < files.length; i++) {
+			if (firstLsn(files[i + 1]) <= lsn) {
+				files[i].delete();
+			}
+		}
+	}
+
+	/**
+	 * Writes the remaining records and stops the committer.
+	 */
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		try {
+			committer.join(5000);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Reads the records of the log files in the specified directory in order,
+	 * up to the first record which is cut short or corrupt, and truncates the
+	 * last file there so that the log can be continued in a new file. Each
+	 * file is read up to the first LSN of the next one, which holds the batch
+	 * the committer failed to write in the file again.
+	 *
+	 * @param directory
+	 *            the directory of the log files
+	 * @param reader
+	 *            receives the LSN and the body of each record
+	 * @return the LSN following the last record read
+	 * @throws IOException
+	 *             if a file cannot be read
+	 */
+	public static long recover(File directory, RecordReader reader)
+			throws IOException {
+		long lsn = 0;
+		File[] files = files(directory);
+		for (int i = 0; i < files.length; i++) {
+			lsn = firstLsn(files[i]);
+			// a file ends where the next one begins: the records of a batch
+			// written again in the next file are read from there only
+			long end = i + 1 < files.length ? firstLsn(files[i + 1])
+					: Long.MAX_VALUE;
+			ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(files[i]
+					.toPath()));
+			while (in.hasRemaining() && lsn < end) {
+				int start = in.position();
+				ByteBuffer body = next(in);
+				if (body == null) {
+					// a torn tail: only the last file may have one, as the
+					// tail of a batch written again is not read
+					if (i + 1 < files.length) {
+						throw new IOException("Corrupt record in " + files[i]);
+					}
+					try (FileChannel channel = FileChannel.open(
+							files[i].toPath(), StandardOpenOption.WRITE)) {
+						channel.truncate(start);
+					}
+					break;
+				}
+				reader.read(lsn++, body);
+			}
+		}
+		return lsn;
+	}
+
+	// returns the body of the next record, or null if it is cut short or
+	// corrupt
+	private static ByteBuffer next(ByteBuffer in) {
+		try {
+			int length = VarBuffer.readVarInt(in);
+			long checksum = in.getInt() & 0xffffffffL;
+			if (length < 0 || length > in.remaining()) {
+				return null;
+			}
+			CRC32 crc = new CRC32();
+			ByteBuffer body = in.slice();
+			body.limit(length);
+			crc.update(body.duplicate());
+			if (crc.getValue() != checksum) {
+				return null;
+			}
+			in.position(in.position() + length);
+			return body;
+		} catch (RuntimeException ex) {
+			return null;
+		}
+	}
+
+	private void commitLoop() {
+		while (true) {
+			VarBuffer batch;
+			long start;
+			long end;
+			synchronized (this) {
+				while (pending.size() == 0 && !closed) {
+					try {
+						wait();
+					} catch (InterruptedException ex) {
+						return;
+					}
+				}
+				if (pending.size() == 0) {
+					break;
+				}
+				batch = pending;
+				pending = spare;
+				spare = batch;
+				start = durableLsn;
+				end = nextLsn;
+			}
+			long startTime = System.nanoTime();
+			while (!write(batch, start, end)) {
+				synchronized (this) {
+					if (closed) {
+						// the records from start on are not durable
+						server.log(ServerLog.ERROR,
+								"Gives up writing the write-ahead log at LSN ", start);
+						return;
+					}
+					try {
+						wait(RETRY_DELAY);
+					} catch (InterruptedException ex) {
+						return;
+					}
+				}
+			}
+			commitTime.record(System.nanoTime() - startTime);
+			synchronized (this) {
+				records.add(end - durableLsn);
+				durableLsn = end;
+				batch.truncate(0);
+			}
+		}
+		try {
+			if (channel != null) {
+				channel.close();
+			}
+		} catch (IOException ex) {
+			// closing anyway
+		}
+	}
+
+	// writes and syncs a batch of the records from start to end; after a
+	// failure, cuts the file back to where the batch began and closes it, so
+	// that the batch is written again in a new file starting at its first LSN
+	private boolean write(VarBuffer batch, long start, long end) {
+		long position = -1;
+		try {
+			if (channel == null) {
+				channel = open(start);
+			}
+			position = channel.position();
+			ByteBuffer bytes = batch.asByteBuffer();
+			while (bytes.hasRemaining()) {
+				channel.write(bytes);
+			}
+			channel.force(false);
+		} catch (IOException ex) {
+			server.log(ServerLog.ERROR, "Error in writing the write-ahead log: ",
+					ex);
+			discard(position);
+			return false;
+		}
+		try {
+			if (channel.size() >= fileSize) {
+				channel.close();
+				channel = null;
+				channel = open(end);
+			}
+		} catch (IOException ex) {
+			// the batch is on disk; the next one starts a new file
+			server.log(ServerLog.ERROR, "Error in starting a write-ahead log file: ",
+					ex);
+			discard(-1);
+		}
+		return true;
+	}
+
+	// closes the file being written after cutting it back to the specified
+	// size (unless negative), which recovery also tolerates if the cut fails
+	private void discard(long size) {
+		if (channel == null) {
+			return;
+		}
+		try {
+			if (size >= 0 && channel.isOpen()) {
+				channel.truncate(size);
+			}
+		} catch (IOException ex) {
+			// the torn batch is followed by the file writing it again
+		}
+		try {
+			channel.close();
+		} catch (IOException ex) {
+			// closing anyway
+		}
+		channel = null;
+	}
+
+	private FileChannel open(long lsn) throws IOException {
+		File file = new File(directory, String.format("wal-%016d.log", lsn));
+		return FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	private static File[] files(File directory) {
+		File[] files = directory.listFiles((dir, name) -> name
+				.matches("wal-\\d{16}\\.log"));
+		if (files == null) {
+			return new File[0];
+		}
+		Arrays.sort(files);
+		return files;
+	}
+
+	private static long firstLsn(File file) {
+		return Long.parseLong(file.getName().substring(4, 20));
+	}
+
+	/**
+	 * This interface is used to receive the records read from a log.
+	 */
+	public interface RecordReader {
+		/**
+		 * Receives a record.
+		 *
+		 * @param lsn
+		 *            the LSN of the record
+		 * @param body
+		 *            the body of the record
+		 * @throws IOException
+		 *             if the record cannot be handled
+		 */
+		void read(long lsn, ByteBuffer body) throws IOException;
+	}
+}